@@ -3,12 +3,10 @@ package acceleration;
 import java.util.ArrayList;
 import java.util.List;
 
-import camera.Camera;
 import material.Lambertian;
 import material.Monochrome;
 import material.NoSpec;
 import math.Color;
-import math.Constants;
 import math.Intersection;
 import math.Normal;
 import math.Point;
@@ -30,7 +28,6 @@ public class AxisAlignedBox implements Shape {
 	public final Point p1;
 	public final Transformation transformation;
 	public List<Triangle> trianglesInBox = new ArrayList<Triangle>();
-	protected Camera cam;
 	public final double treeEpsilon;
 	public final double objIntersEpsilon;
 	
@@ -40,7 +37,7 @@ public class AxisAlignedBox implements Shape {
 	 * @param p1 the upper point.
 	 * @param transformation, is applied to all triangles in the box.
 	 */
-	public AxisAlignedBox(Point p0, Point p1, Transformation transformation, Camera cam, double treeEps, double objEps) {
+	public AxisAlignedBox(Point p0, Point p1, Transformation transformation, double treeEps, double objEps) {
 
 		if ((p0.x > p1.x) || (p0.y > p1.y) || (p0.z > p1.z)) {
 			//System.err.println("Illegal box.");
@@ -50,7 +47,6 @@ public class AxisAlignedBox implements Shape {
 		this.p0 = p0;
 		this.p1 = p1;
 		this.transformation = transformation;
-		this.cam = cam;
 		this.treeEpsilon = treeEps;
 		this.objIntersEpsilon = objEps;
 	}
@@ -140,47 +136,37 @@ public class AxisAlignedBox implements Shape {
 	 * @return a boolean indicating an intersection.
 	 */
 	public boolean intersectBool(Ray ray) {
-
-		//Ray rayInv = ray;
-		Ray rayInv = this.transformation.transformInverse(ray);
-		Point ro = rayInv.origin;
-		Vector rd = rayInv.direction;
-
-		double x0 = p0.x; double y0 = p0.y;	double z0 = p0.z;
-		double x1 = p1.x; double y1 = p1.y;	double z1 = p1.z;
-		
-		double ox = ro.x; double oy = ro.y;	double oz = ro.z;
-		double dx = rd.x; double dy = rd.y;	double dz = rd.z;
-
-		double txMin, tyMin, tzMin;
-		double txMax, tyMax, tzMax;
-
-		double a = 1.0 / dx;
-		if (a >= 0) {
-			txMin = (x0 - ox) * a;
-			txMax = (x1 - ox) * a;
-		} else {
-			txMin = (x1 - ox) * a;
-			txMax = (x0 - ox) * a;
-		}
-
-		double b = 1.0 / dy;
-		if (b >= 0) {
-			tyMin = (y0 - oy) * b;
-			tyMax = (y1 - oy) * b;
-		} else {
-			tyMin = (y1 - oy) * b;
-			tyMax = (y0 - oy) * b;
-		}
-
-		double c = 1.0 / dz;
-		if (c >= 0) {
-			tzMin = (z0 - oz) * c;
-			tzMax = (z1 - oz) * c;
-		} else {
-			tzMin = (z1 - oz) * c;
-			tzMax = (z0 - oz) * c;
-		}
+		return this.intersectEntry(ray) != Double.POSITIVE_INFINITY;
+	}
+	
+	/**
+	 * Find the ray parameter at which a ray enters the box.
+	 * 
+	 * @param ray
+	 *            , the ray the box should be intersected with.
+	 * @return the entering ray parameter, which is negative when the ray
+	 * 			starts inside the box, or positive infinity for a miss.
+	 */
+	public double intersectEntry(Ray ray) {
+		return this.localEntry(this.transformation.transformInverse(ray));
+	}
+	
+	/**
+	 * Find the entering ray parameter for a ray which already lives in the 
+	 * coordinates of the triangles in this box. Tree traversals transform
+	 * the ray once and reuse it for every visited box. The sign flags of
+	 * the ray pick the near and far slab along every axis.
+	 * @param local the ray in box coordinates.
+	 * @return the entering ray parameter or positive infinity for a miss.
+	 */
+	protected double localEntry(Ray local) {
+		Point ro = local.origin;
+		double txMin = (((local.signX == 0) ? p0.x : p1.x) - ro.x) * local.invX;
+		double txMax = (((local.signX == 0) ? p1.x : p0.x) - ro.x) * local.invX;
+		double tyMin = (((local.signY == 0) ? p0.y : p1.y) - ro.y) * local.invY;
+		double tyMax = (((local.signY == 0) ? p1.y : p0.y) - ro.y) * local.invY;
+		double tzMin = (((local.signZ == 0) ? p0.z : p1.z) - ro.z) * local.invZ;
+		double tzMax = (((local.signZ == 0) ? p1.z : p0.z) - ro.z) * local.invZ;
 
 		double t0, t1;
 
@@ -204,7 +190,11 @@ public class AxisAlignedBox implements Shape {
 		if (tzMax < t1)
 			t1 = tzMax;
 
-		return ((t0 < t1) && (t1 > Constants.epsilon));
+		if ((t0 < t1) && (t1 > local.getTMin())) {
+			return t0;
+		} else {
+			return Double.POSITIVE_INFINITY;
+		}
 	}
 
 	
@@ -222,12 +212,11 @@ public class AxisAlignedBox implements Shape {
 		double x1 = p1.x; double y1 = p1.y;	double z1 = p1.z;
 
 		double ox = ro.x; double oy = ro.y;	double oz = ro.z;
-		double dx = rd.x; double dy = rd.y;	double dz = rd.z;
 
 		double txMin, tyMin, tzMin;
 		double txMax, tyMax, tzMax;
 
-		double a = 1.0 / dx;
+		double a = rayInv.invX;
 		if (a >= 0) {
 			txMin = (x0 - ox) * a;
 			txMax = (x1 - ox) * a;
@@ -236,7 +225,7 @@ public class AxisAlignedBox implements Shape {
 			txMax = (x0 - ox) * a;
 		}
 
-		double b = 1.0 / dy;
+		double b = rayInv.invY;
 		if (b >= 0) {
 			tyMin = (y0 - oy) * b;
 			tyMax = (y1 - oy) * b;
@@ -245,7 +234,7 @@ public class AxisAlignedBox implements Shape {
 			tyMax = (y0 - oy) * b;
 		}
 
-		double c = 1.0 / dz;
+		double c = rayInv.invZ;
 		if (c >= 0) {
 			tzMin = (z0 - oz) * c;
 			tzMax = (z1 - oz) * c;
@@ -285,18 +274,18 @@ public class AxisAlignedBox implements Shape {
 			faceOut = (c >= 0.0) ? 5 : 2;
 		}
 
-		double tMin;
+		double tHit;
 		Normal normal;
 		Vector hitPoint;
-		if ((t0 < t1) && (t1 > Constants.epsilon)) { // hit condition
-			if (t0 > Constants.epsilon) {
-				tMin = t0;
+		if ((t0 < t1) && (t1 > rayInv.getTMin())) { // hit condition
+			if (t0 > rayInv.getTMin()) {
+				tHit = t0;
 				normal = getNormal(faceIn);
 			} else {
-				tMin = t1;
+				tHit = t1;
 				normal = getNormal(faceOut);
 			}
-			hitPoint = ro.toVector().add(rd.scale(tMin));
+			hitPoint = ro.toVector().add(rd.scale(tHit));
 			hitPoint = this.transformation.transform(hitPoint);
 
 			normal = this.transformation.transformInverseTranspose(normal);
@@ -338,9 +327,7 @@ public class AxisAlignedBox implements Shape {
 	public List<Intersection> intersect(Ray ray) {
 		List<Intersection> hits = new ArrayList<Intersection>();
 		
-		if (Constants.compVisualization){
-			ray.countIntersection();
-		}
+		ray.countIntersection();
 		
 		//maximum depth reached.
 		if (this.intersectBool(ray)){
@@ -351,6 +338,36 @@ public class AxisAlignedBox implements Shape {
 		return hits;
 	}
 	
+	@Override
+	public Intersection intersectClosest(Ray ray) {
+		ray.countIntersection();
+		
+		Intersection closest = null;
+		if (this.intersectEntry(ray) < ray.getTMax()){
+			for (Triangle tri :	this.trianglesInBox) {
+				Intersection hit = tri.intersectClosest(ray);
+				if (hit != null) {
+					closest = hit;
+				}
+			}
+		}
+		return closest;
+	}
+	
+	@Override
+	public boolean occluded(Ray ray, double maxDistance) {
+		ray.countIntersection();
+		
+		if (this.intersectEntry(ray) < maxDistance){
+			for (Triangle tri :	this.trianglesInBox) {
+				if (tri.occluded(ray, maxDistance)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
 	protected double smallestInLst(List<Triangle> lst, Character axis){
 		double smlst = lst.get(0).getSmallestCoord(axis);
 		double current;
@@ -446,7 +463,7 @@ public class AxisAlignedBox implements Shape {
 	public double getSurface(Character axis){
 		double x = Math.abs(p0.x - p1.x);
 		double y = Math.abs(p0.y - p1.y);
-		double z = Math.abs(p0.x - p1.z);
+		double z = Math.abs(p0.z - p1.z);
 		
 		if (axis == 'x'){
 			return x*y;
@@ -0,0 +1,287 @@
+package acceleration;
+
+import java.util.Arrays;
+import java.util.List;
+
+import math.Constants;
+import math.Transformation;
+import shape.Triangle;
+
+/**
+ * Builds a {@link LinearBvh} using the surface area heuristic evaluated
+ * on a fixed number of centroid bins along all three axes. The triangles
+ * are referenced through an index array which is partitioned in place,
+ * no intermediate box objects or triangle lists are created.
+ */
+public class BinnedSahBuilder {
+	/**
+	 * Cost of visiting an interior node relative to one triangle test.
+	 */
+	static final double traversalCost = 0.125;
+
+	protected final Triangle[] tris;
+	protected final Transformation transformation;
+	protected final int bins;
+	protected final int leafSize;
+
+	/**
+	 * Primitive bounds, six values per triangle: xMin, yMin, zMin, xMax, yMax, zMax.
+	 */
+	protected final double[] primBounds;
+
+	/**
+	 * Primitive centroids, three values per triangle.
+	 */
+	protected final double[] centroids;
+
+	/**
+	 * Triangle indices, ordered such that every leaf references a contiguous range.
+	 */
+	protected final int[] index;
+
+	protected double[] bounds;
+	protected int[] offsets;
+	protected int[] counts;
+	protected int nextNode = 0;
+
+	private final SahBins scratch;
+
+	/**
+	 * Prepare a builder for a list of triangles.
+	 * @param triangles the triangles in mesh space.
+	 * @param transformation transformation of the mesh the tree belongs to.
+	 */
+	public BinnedSahBuilder(List<Triangle> triangles, Transformation transformation) {
+		this(triangles.toArray(new Triangle[triangles.size()]), transformation);
+	}
+
+	private BinnedSahBuilder(Triangle[] tris, Transformation transformation) {
+		this(tris, triangleBounds(tris), transformation);
+	}
+
+	/**
+	 * Prepare a builder for arbitrary primitives given by their bounds only.
+	 * The tree is obtained through buildNodes and the node accessors.
+	 * @param primBounds six bounds per primitive.
+	 */
+	public BinnedSahBuilder(double[] primBounds) {
+		this(null, primBounds, null);
+	}
+
+	protected BinnedSahBuilder(Triangle[] tris, double[] primBounds, Transformation transformation) {
+		this.tris = tris;
+		this.transformation = transformation;
+		this.bins = Constants.sahBins;
+		this.leafSize = Constants.sahLeafSize;
+
+		int n = primBounds.length / 6;
+		this.primBounds = primBounds;
+		this.centroids = new double[3 * n];
+		this.index = new int[n];
+		for (int i = 0; i < n; i++) {
+			for (int k = 0; k < 3; k++) {
+				centroids[3 * i + k] = 0.5 * (primBounds[6 * i + k] + primBounds[6 * i + 3 + k]);
+			}
+			this.index[i] = i;
+		}
+
+		this.scratch = new SahBins(this.bins);
+	}
+
+	private static double[] triangleBounds(Triangle[] tris) {
+		double[] primBounds = new double[6 * tris.length];
+		for (int i = 0; i < tris.length; i++) {
+			Triangle tri = tris[i];
+			int b = 6 * i;
+			primBounds[b]     = Math.min(tri.a.x, Math.min(tri.b.x, tri.c.x));
+			primBounds[b + 1] = Math.min(tri.a.y, Math.min(tri.b.y, tri.c.y));
+			primBounds[b + 2] = Math.min(tri.a.z, Math.min(tri.b.z, tri.c.z));
+			primBounds[b + 3] = Math.max(tri.a.x, Math.max(tri.b.x, tri.c.x));
+			primBounds[b + 4] = Math.max(tri.a.y, Math.max(tri.b.y, tri.c.y));
+			primBounds[b + 5] = Math.max(tri.a.z, Math.max(tri.b.z, tri.c.z));
+		}
+		return primBounds;
+	}
+
+	/**
+	 * Build the tree.
+	 * @param maxDepth the maximum depth of the tree.
+	 * @return the tree stored in flat arrays.
+	 */
+	public LinearBvh build(int maxDepth) {
+		this.buildNodes(maxDepth);
+		return new LinearBvh(this.nodeBounds(), this.nodeOffsets(), this.nodeCounts(),
+				this.orderedTriangles(), this.transformation);
+	}
+
+	/**
+	 * Build the node arrays and order the index array.
+	 * @param maxDepth the maximum depth of the tree.
+	 */
+	public void buildNodes(int maxDepth) {
+		int n = this.index.length;
+		int maxNodes = Math.max(1, 2 * n - 1);
+		this.bounds = new double[6 * maxNodes];
+		this.offsets = new int[maxNodes];
+		this.counts = new int[maxNodes];
+		this.nextNode = 0;
+
+		if (n > 0) {
+			this.buildNode(0, n, maxDepth);
+		}
+	}
+
+	/**
+	 * @return six bounds per node of the last build.
+	 */
+	public double[] nodeBounds() {
+		return Arrays.copyOf(this.bounds, 6 * nextNode);
+	}
+
+	/**
+	 * @return second child or primitive offset per node of the last build.
+	 */
+	public int[] nodeOffsets() {
+		return Arrays.copyOf(this.offsets, nextNode);
+	}
+
+	/**
+	 * @return primitive count per node of the last build, zero for interior nodes.
+	 */
+	public int[] nodeCounts() {
+		return Arrays.copyOf(this.counts, nextNode);
+	}
+
+	/**
+	 * @return the primitive indices in leaf order.
+	 */
+	public int[] primitiveOrder() {
+		return this.index;
+	}
+
+	/**
+	 * @return the triangles in the order of the index array.
+	 */
+	protected Triangle[] orderedTriangles() {
+		Triangle[] ordered = new Triangle[this.tris.length];
+		for (int i = 0; i < ordered.length; i++) {
+			ordered[i] = this.tris[this.index[i]];
+		}
+		return ordered;
+	}
+
+	/**
+	 * Create the node for the index range [start, end) and its subtree.
+	 * @return the index of the created node.
+	 */
+	private int buildNode(int start, int end, int depth) {
+		int node = nextNode;
+		nextNode = nextNode + 1;
+
+		int mid = this.split(start, end, depth, bounds, 6 * node, scratch);
+		if (mid < 0) {
+			offsets[node] = start;
+			counts[node] = end - start;
+			return node;
+		}
+		counts[node] = 0;
+		this.buildNode(start, mid, depth - 1);
+		offsets[node] = this.buildNode(mid, end, depth - 1);
+		return node;
+	}
+
+	/**
+	 * Compute the bounds of the index range [start, end) and split it with
+	 * the surface area heuristic. Only touches the given range of the index
+	 * array and the given scratch space, so disjoint ranges can be split
+	 * concurrently.
+	 * @param box receives the six bounds of the range.
+	 * @param nb offset of the bounds in box.
+	 * @param scratch bins of the calling thread.
+	 * @return the first index of the right half after partitioning, or -1
+	 * 			if the range should become a leaf.
+	 */
+	int split(int start, int end, int depth, double[] box, int nb, SahBins scratch) {
+		//bounds of the primitives and of their centroids.
+		double[] cb = scratch.centroidBounds;
+		for (int k = 0; k < 3; k++) {
+			box[nb + k] = Double.POSITIVE_INFINITY;
+			box[nb + 3 + k] = Double.NEGATIVE_INFINITY;
+			cb[k] = Double.POSITIVE_INFINITY;
+			cb[3 + k] = Double.NEGATIVE_INFINITY;
+		}
+		for (int i = start; i < end; i++) {
+			int p = index[i];
+			for (int k = 0; k < 3; k++) {
+				box[nb + k] = Math.min(box[nb + k], primBounds[6 * p + k]);
+				box[nb + 3 + k] = Math.max(box[nb + 3 + k], primBounds[6 * p + 3 + k]);
+				cb[k] = Math.min(cb[k], centroids[3 * p + k]);
+				cb[3 + k] = Math.max(cb[3 + k], centroids[3 * p + k]);
+			}
+		}
+
+		int n = end - start;
+		if ((n <= leafSize) || (depth <= 0)) {
+			return -1;
+		}
+
+		//find the cheapest split over all axes.
+		double nodeArea = surfaceArea(box, nb);
+		scratch.reset();
+		for (int axis = 0; axis < 3; axis++) {
+			double extent = cb[3 + axis] - cb[axis];
+			if (extent <= 0) {
+				continue;
+			}
+			double scale = bins / extent;
+			scratch.clear();
+			for (int i = start; i < end; i++) {
+				int p = index[i];
+				scratch.add(scratch.binOf(centroids[3 * p + axis], cb[axis], scale), primBounds, 6 * p);
+			}
+			scratch.sweep(axis, nodeArea);
+		}
+
+		if ((scratch.axis < 0) || (scratch.cost >= n)) {
+			//all centroids coincide or a leaf is cheaper than any split.
+			return -1;
+		}
+
+		int axis = scratch.axis;
+		return this.partition(start, end, axis, scratch.bin, cb[axis], bins / (cb[3 + axis] - cb[axis]), scratch);
+	}
+
+	/**
+	 * Move all primitives in bins up to and including splitBin to the front.
+	 * @return the first index of the right side.
+	 */
+	private int partition(int start, int end, int axis, int splitBin, double min, double scale, SahBins scratch) {
+		int i = start;
+		int j = end - 1;
+		while (i <= j) {
+			if (scratch.binOf(centroids[3 * index[i] + axis], min, scale) <= splitBin) {
+				i++;
+			} else {
+				int tmp = index[i];
+				index[i] = index[j];
+				index[j] = tmp;
+				j--;
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * @return the surface area of the six bounds starting at b,
+	 * 			zero for empty bounds.
+	 */
+	static double surfaceArea(double[] box, int b) {
+		double x = box[b + 3] - box[b];
+		double y = box[b + 4] - box[b + 1];
+		double z = box[b + 5] - box[b + 2];
+		if ((x < 0) || (y < 0) || (z < 0)) {
+			return 0.0;
+		}
+		return 2.0 * (x * y + y * z + z * x);
+	}
+}
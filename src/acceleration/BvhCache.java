@@ -0,0 +1,225 @@
+package acceleration;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+import material.Material;
+import math.Constants;
+import math.Transformation;
+import shape.PackedMesh;
+
+/**
+ * A binary file holding a built binary flat tree and its packed triangles,
+ * so meshes loaded again are neither parsed nor split. The file is found
+ * from the obj path and checked against a key made of the obj path, a hash
+ * of the obj file, the mesh transformations and all build parameters.
+ * Reading maps the file into memory and copies the arrays out in bulk.
+ */
+public class BvhCache {
+	private static final int MAGIC = 0x42564843; //"BVHC"
+	private static final int VERSION = 2;
+
+	public final File file;
+	private final String key;
+
+	/**
+	 * Find the cache file of a mesh.
+	 * @param objPath path to the .obj file.
+	 * @param transformation the transformation of the mesh.
+	 * @param baked the transformation applied to the vertices while loading, or null.
+	 * @param treeDepth the depth of the acceleration tree.
+	 * @param treeEps the tree generation epsilon.
+	 * @throws IOException if the obj file can not be read.
+	 */
+	public BvhCache(String objPath, Transformation transformation, Transformation baked,
+			int treeDepth, double treeEps) throws IOException {
+		File obj = new File(objPath).getCanonicalFile();
+		StringBuilder k = new StringBuilder();
+		k.append(obj.getPath()).append('|').append(obj.length()).append('|').append(hash(obj));
+		k.append("|t").append(matrix(transformation));
+		k.append("|b").append((baked == null) ? "none" : matrix(baked));
+		k.append("|depth ").append(treeDepth).append(" eps ").append(treeEps);
+		k.append("|binned ").append(Constants.useBinnedSah);
+		k.append(" bins ").append(Constants.sahBins).append(" leaf ").append(Constants.sahLeafSize);
+		k.append(" spatial ").append(Constants.useSpatialSplits).append(" budget ").append(Constants.sbvhBudget);
+		k.append(" cuts ").append(Constants.sahCuts);
+		this.key = k.toString();
+		String name = obj.getName() + "-" + Integer.toHexString(this.key.hashCode()) + ".bvh";
+		this.file = new File(Constants.bvhCacheDir, name);
+	}
+
+	/**
+	 * @return CRC32 of the file content.
+	 */
+	private static long hash(File obj) throws IOException {
+		CRC32 crc = new CRC32();
+		RandomAccessFile in = new RandomAccessFile(obj, "r");
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			long position = 0;
+			//a single mapping is limited to 2GB.
+			while (position < size) {
+				long length = Math.min(size - position, Integer.MAX_VALUE);
+				crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+				position = position + length;
+			}
+		} finally {
+			in.close();
+		}
+		return crc.getValue();
+	}
+
+	private static String matrix(Transformation transformation) {
+		StringBuilder m = new StringBuilder();
+		for (int r = 0; r < 4; r++) {
+			for (int c = 0; c < 4; c++) {
+				m.append(' ').append(transformation.getTransformationMatrix().get(r, c));
+			}
+		}
+		return m.toString();
+	}
+
+	/**
+	 * Read the tree back.
+	 * @param mat the material of the mesh.
+	 * @param transformation the transformation of the mesh.
+	 * @return the binary tree or null if there is no valid cache file.
+	 */
+	public LinearBvh load(Material mat, Transformation transformation) {
+		if (this.file.isFile() == false) {
+			return null;
+		}
+		try {
+			RandomAccessFile in = new RandomAccessFile(this.file, "r");
+			try {
+				FileChannel channel = in.getChannel();
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				buffer.order(ByteOrder.nativeOrder());
+				if ((buffer.getInt() != MAGIC) || (buffer.getInt() != VERSION)) {
+					return null;
+				}
+				byte[] stored = new byte[buffer.getInt()];
+				buffer.get(stored);
+				if (this.key.equals(new String(stored, StandardCharsets.UTF_8)) == false) {
+					return null;
+				}
+				int triangles = buffer.getInt();
+				int nodes = buffer.getInt();
+
+				double[] vertices = new double[9 * triangles];
+				float[] normals = new float[9 * triangles];
+				float[] uvs = new float[6 * triangles];
+				double[] bounds = new double[6 * nodes];
+				int[] offsets = new int[nodes];
+				int[] counts = new int[nodes];
+				buffer.asDoubleBuffer().get(vertices);
+				buffer.position(buffer.position() + 8 * vertices.length);
+				buffer.asFloatBuffer().get(normals);
+				buffer.position(buffer.position() + 4 * normals.length);
+				buffer.asFloatBuffer().get(uvs);
+				buffer.position(buffer.position() + 4 * uvs.length);
+				buffer.asDoubleBuffer().get(bounds);
+				buffer.position(buffer.position() + 8 * bounds.length);
+				buffer.asIntBuffer().get(offsets);
+				buffer.position(buffer.position() + 4 * offsets.length);
+				buffer.asIntBuffer().get(counts);
+				buffer.position(buffer.position() + 4 * counts.length);
+				int[] ids = new int[buffer.getInt()];
+				buffer.asIntBuffer().get(ids);
+
+				PackedMesh mesh = new PackedMesh(vertices, normals, uvs, mat, transformation);
+				LinearBvh tree = new LinearBvh(bounds, offsets, counts, mesh);
+				if (ids.length > 0) {
+					tree.triangleIds = ids;
+				}
+				return tree;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			System.out.println("Could not read tree cache: " + e.getMessage());
+			return null;
+		} catch (RuntimeException e) {
+			//truncated or otherwise broken files are rebuilt.
+			System.out.println("Broken tree cache: " + this.file);
+			return null;
+		}
+	}
+
+	/**
+	 * Write a binary tree to the cache file. The file is written under a
+	 * temporary name and moved in place, an interrupted write never leaves
+	 * a broken cache behind.
+	 * @param tree a binary tree over triangles which shade plainly.
+	 */
+	public void store(LinearBvh tree) {
+		PackedMesh mesh = tree.getMesh();
+		if (mesh.keepsTriangles() || (tree.nodeCount == 0)) {
+			return;
+		}
+		byte[] stored = this.key.getBytes(StandardCharsets.UTF_8);
+		int triangles = mesh.size;
+		int nodes = tree.nodeCount;
+		int[] ids = (tree.triangleIds == null) ? new int[0] : tree.triangleIds;
+		long size = 6 * 4 + stored.length + 8L * 9 * triangles + 4L * 9 * triangles
+				+ 4L * 6 * triangles + 8L * 6 * nodes + 4L * 2 * nodes + 4L * ids.length;
+		File dir = this.file.getAbsoluteFile().getParentFile();
+		File tmp = new File(dir, this.file.getName() + ".tmp");
+		try {
+			dir.mkdirs();
+			RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+			try {
+				out.setLength(size);
+				MappedByteBuffer buffer = out.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+				buffer.order(ByteOrder.nativeOrder());
+				buffer.putInt(MAGIC);
+				buffer.putInt(VERSION);
+				buffer.putInt(stored.length);
+				buffer.put(stored);
+				buffer.putInt(triangles);
+				buffer.putInt(nodes);
+				put(buffer, mesh.getVertices());
+				put(buffer, mesh.getNormals());
+				put(buffer, mesh.getUvs());
+				put(buffer, tree.bounds);
+				put(buffer, tree.offsets);
+				put(buffer, tree.counts);
+				buffer.putInt(ids.length);
+				put(buffer, ids);
+				buffer.force();
+			} finally {
+				out.close();
+			}
+			Files.move(tmp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.out.println("Could not write tree cache: " + e.getMessage());
+			tmp.delete();
+		}
+	}
+
+	private static void put(ByteBuffer buffer, double[] values) {
+		buffer.asDoubleBuffer().put(values);
+		buffer.position(buffer.position() + 8 * values.length);
+	}
+
+	private static void put(ByteBuffer buffer, float[] values) {
+		buffer.asFloatBuffer().put(values);
+		buffer.position(buffer.position() + 4 * values.length);
+	}
+
+	private static void put(ByteBuffer buffer, int[] values) {
+		buffer.asIntBuffer().put(values);
+		buffer.position(buffer.position() + 4 * values.length);
+	}
+}
@@ -0,0 +1,509 @@
+package acceleration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import math.Intersection;
+import math.Point;
+import math.Ray;
+import math.Vector;
+
+/**
+ * A binary flat tree whose node bounds are quantized to 8 or 16 bits per
+ * value relative to the bounds of the parent node. Only the root keeps
+ * double bounds, every other node costs 6 or 12 bytes of bounds instead
+ * of 48. Quantized bounds are rounded outwards, so a decoded node always
+ * contains the exact one and no hit is lost, rays just enter some nodes
+ * a little earlier. Children are decoded while their parent is visited,
+ * the traversal stack keeps the decoded bounds of the nodes on it.
+ */
+public class CompressedBvh extends LinearBvh {
+	/**
+	 * Bits per quantized value, 8 or 16.
+	 */
+	public final int bits;
+	private final int levels;
+	private final double stepScale;
+
+	/**
+	 * Quantized bounds, six values per node in the same order as the double
+	 * bounds. Only the array matching the bit count is used.
+	 */
+	protected final byte[] quant8;
+	protected final short[] quant16;
+
+	/**
+	 * The surface area cost of the decoded tree when it was quantized,
+	 * refits are compared against it.
+	 */
+	private final double quantizedBuiltCost;
+
+	/**
+	 * Quantize the bounds of a binary tree, nodes and triangles are shared.
+	 * @param tree the binary tree.
+	 * @param bits bits per bound value, 8 or 16.
+	 */
+	public CompressedBvh(LinearBvh tree, int bits) {
+		super(tree, Arrays.copyOf(tree.bounds, 6));
+		if ((bits != 8) && (bits != 16)) {
+			throw new IllegalArgumentException("Compressed trees use 8 or 16 bits per bound.");
+		}
+		this.bits = bits;
+		this.levels = (1 << bits) - 1;
+		this.stepScale = (1.0 + 1e-12) / this.levels;
+		this.quant8 = (bits == 8) ? new byte[6 * this.nodeCount] : null;
+		this.quant16 = (bits == 16) ? new short[6 * this.nodeCount] : null;
+
+		//grow parents around their children, so every child fits its parent's frame.
+		double[] exact = Arrays.copyOf(tree.bounds, tree.bounds.length);
+		for (int node = this.nodeCount - 1; node >= 0; node--) {
+			if (isLeaf(node) == false) {
+				grow(exact, node, node + 1);
+				grow(exact, node, offsets[node]);
+			}
+		}
+		this.quantize(exact);
+		this.quantizedBuiltCost = this.sahCost();
+	}
+
+	/**
+	 * Keep the exact root bounds and quantize every other node relative to
+	 * its decoded parent.
+	 * @param exact six exact bounds per node, every node contains its children.
+	 */
+	private void quantize(double[] exact) {
+		System.arraycopy(exact, 0, this.bounds, 0, Math.min(6, exact.length));
+		if (this.nodeCount > 0) {
+			this.encode(0, exact, this.bounds, 0);
+		}
+	}
+
+	private static void grow(double[] box, int node, int child) {
+		for (int k = 0; k < 3; k++) {
+			box[6 * node + k] = Math.min(box[6 * node + k], box[6 * child + k]);
+			box[6 * node + 3 + k] = Math.max(box[6 * node + 3 + k], box[6 * child + 3 + k]);
+		}
+	}
+
+	/**
+	 * Quantize the children of a node and recurse into them.
+	 * @param frame the decoded bounds of the node at frame[f].
+	 */
+	private void encode(int node, double[] exact, double[] frame, int f) {
+		if (isLeaf(node)) {
+			return;
+		}
+		int[] children = { node + 1, offsets[node] };
+		for (int child : children) {
+			for (int k = 0; k < 3; k++) {
+				double lo = frame[f + k];
+				double step = this.step(lo, frame[f + 3 + k]);
+				double scale = (step > 0.0) ? 1.0 / step : 0.0;
+				int qMin = clamp((int) Math.floor((exact[6 * child + k] - lo) * scale));
+				while ((qMin > 0) && (lo + qMin * step > exact[6 * child + k])) {
+					qMin--;
+				}
+				int qMax = clamp((int) Math.ceil((exact[6 * child + 3 + k] - lo) * scale));
+				while ((qMax < this.levels) && (lo + qMax * step < exact[6 * child + 3 + k])) {
+					qMax++;
+				}
+				this.setQuant(6 * child + k, qMin);
+				this.setQuant(6 * child + 3 + k, qMax);
+			}
+			double[] decoded = new double[6];
+			this.decodeNode(child, frame, f, decoded, 0);
+			this.encode(child, exact, decoded, 0);
+		}
+	}
+
+	private int clamp(int q) {
+		return Math.min(Math.max(q, 0), this.levels);
+	}
+
+	private void setQuant(int i, int q) {
+		if (this.bits == 8) {
+			quant8[i] = (byte) q;
+		} else {
+			quant16[i] = (short) q;
+		}
+	}
+
+	private int getQuant(int i) {
+		if (this.bits == 8) {
+			return quant8[i] & 0xff;
+		}
+		return quant16[i] & 0xffff;
+	}
+
+	/**
+	 * The size of one quantization step of a frame. It is rounded up a bit, so
+	 * the largest value never decodes below the upper end of the frame.
+	 */
+	private double step(double lo, double hi) {
+		return (hi - lo) * this.stepScale;
+	}
+
+	/**
+	 * Decode the bounds of a node.
+	 * @param frame the decoded bounds of its parent at frame[f].
+	 * @param out receives the six bounds at out[o].
+	 */
+	private void decodeNode(int node, double[] frame, int f, double[] out, int o) {
+		int q = 6 * node;
+		for (int k = 0; k < 3; k++) {
+			double lo = frame[f + k];
+			double step = this.step(lo, frame[f + 3 + k]);
+			out[o + k] = lo + this.getQuant(q + k) * step;
+			out[o + 3 + k] = lo + this.getQuant(q + 3 + k) * step;
+		}
+	}
+
+	/**
+	 * @return the bytes of node data, bounds, offsets and counts.
+	 */
+	public long nodeBytes() {
+		return (long) this.nodeCount * (6 * this.bits / 8 + 8) + 6 * 8;
+	}
+
+	@Override
+	public List<Intersection> intersect(Ray ray) {
+		List<Intersection> hits = new ArrayList<Intersection>();
+		if (this.nodeCount == 0) {
+			return hits;
+		}
+
+		Ray rayInv = this.toMeshSpace(ray);
+		Point ro = rayInv.origin;
+		Vector rd = rayInv.direction;
+		double ox = ro.x; double oy = ro.y; double oz = ro.z;
+		double ix = rayInv.invX; double iy = rayInv.invY; double iz = rayInv.invZ;
+		double tMin = rayInv.getTMin();
+		if (slabEntry(bounds, 0, ox, oy, oz, ix, iy, iz, tMin) == Double.POSITIVE_INFINITY) {
+			return hits;
+		}
+
+		double[] bary = new double[2];
+		Set<Integer> seen = this.newSeenSet();
+		double[] pair = new double[12];
+		int[] stack = new int[this.maxDepth + 1];
+		double[] boxes = new double[6 * (this.maxDepth + 1)];
+		int top = 0;
+		stack[top] = 0;
+		System.arraycopy(bounds, 0, boxes, 0, 6);
+		top++;
+		while (top > 0) {
+			top--;
+			int node = stack[top];
+			ray.countIntersection();
+			if (isLeaf(node)) {
+				int end = offsets[node] + counts[node];
+				for (int i = offsets[node]; i < end; i++) {
+					ray.countIntersection();
+					double t = mesh.intersect(i, ro, rd, tMin, Double.POSITIVE_INFINITY, bary);
+					if ((t != Double.POSITIVE_INFINITY) && this.firstHit(seen, i)) {
+						hits.add(mesh.createHit(i, ro, rd, t, bary[0], bary[1]));
+					}
+				}
+			} else {
+				this.decodeNode(node + 1, boxes, 6 * top, pair, 0);
+				this.decodeNode(offsets[node], boxes, 6 * top, pair, 6);
+				if (slabEntry(pair, 1, ox, oy, oz, ix, iy, iz, tMin) != Double.POSITIVE_INFINITY) {
+					stack[top] = offsets[node];
+					System.arraycopy(pair, 6, boxes, 6 * top, 6);
+					top++;
+				}
+				if (slabEntry(pair, 0, ox, oy, oz, ix, iy, iz, tMin) != Double.POSITIVE_INFINITY) {
+					stack[top] = node + 1;
+					System.arraycopy(pair, 0, boxes, 6 * top, 6);
+					top++;
+				}
+			}
+		}
+		return hits;
+	}
+
+	@Override
+	public Intersection intersectClosest(Ray ray) {
+		if (this.nodeCount == 0) {
+			return null;
+		}
+
+		Ray rayInv = this.toMeshSpace(ray);
+		Point ro = rayInv.origin;
+		Vector rd = rayInv.direction;
+		double ox = ro.x; double oy = ro.y; double oz = ro.z;
+		double ix = rayInv.invX; double iy = rayInv.invY; double iz = rayInv.invZ;
+		double tMin = rayInv.getTMin();
+
+		double tMax = ray.getTMax();
+		double rootEntry = slabEntry(bounds, 0, ox, oy, oz, ix, iy, iz, tMin);
+		if (rootEntry >= tMax) {
+			return null;
+		}
+
+		double[] pair = new double[12];
+		int[] stack = new int[this.maxDepth + 1];
+		double[] entries = new double[this.maxDepth + 1];
+		double[] boxes = new double[6 * (this.maxDepth + 1)];
+		int top = 0;
+		stack[top] = 0;
+		entries[top] = rootEntry;
+		System.arraycopy(bounds, 0, boxes, 0, 6);
+		top++;
+
+		int visited = 0; //nodes and triangles tested, the render cost of the ray.
+		double[] bary = new double[2];
+		int closest = -1;
+		double closestBeta = 0;
+		double closestGamma = 0;
+		while (top > 0) {
+			top--;
+			int node = stack[top];
+			if (entries[top] >= tMax) {
+				continue;
+			}
+			visited++;
+			if (isLeaf(node)) {
+				int end = offsets[node] + counts[node];
+				for (int i = offsets[node]; i < end; i++) {
+					visited++;
+					double t = mesh.intersect(i, ro, rd, tMin, tMax, bary);
+					if (t < tMax) {
+						tMax = t;
+						closest = i;
+						closestBeta = bary[0];
+						closestGamma = bary[1];
+					}
+				}
+			} else {
+				this.decodeNode(node + 1, boxes, 6 * top, pair, 0);
+				this.decodeNode(offsets[node], boxes, 6 * top, pair, 6);
+				int near = node + 1;
+				int far = offsets[node];
+				int nearBox = 0;
+				int farBox = 6;
+				double nearEntry = slabEntry(pair, 0, ox, oy, oz, ix, iy, iz, tMin);
+				double farEntry = slabEntry(pair, 1, ox, oy, oz, ix, iy, iz, tMin);
+				if (farEntry < nearEntry) {
+					int tmp = near; near = far; far = tmp;
+					nearBox = 6; farBox = 0;
+					double tmpEntry = nearEntry; nearEntry = farEntry; farEntry = tmpEntry;
+				}
+				//push the far child first so the near child is visited next.
+				if (farEntry < tMax) {
+					stack[top] = far;
+					entries[top] = farEntry;
+					System.arraycopy(pair, farBox, boxes, 6 * top, 6);
+					top++;
+				}
+				if (nearEntry < tMax) {
+					stack[top] = near;
+					entries[top] = nearEntry;
+					System.arraycopy(pair, nearBox, boxes, 6 * top, 6);
+					top++;
+				}
+			}
+		}
+		ray.countIntersections(visited);
+		if (closest < 0) {
+			return null;
+		}
+		ray.setTMax(tMax);
+		return mesh.createHit(closest, ro, rd, tMax, closestBeta, closestGamma);
+	}
+
+	@Override
+	public void intersectClosest(RayPacket packet) {
+		if (this.nodeCount == 0) {
+			return;
+		}
+		PacketKernel kernel = PacketKernel.get();
+		RayPacket meshPacket = packet.toMeshSpace(this.transformation);
+		double rootEntry = kernel.slabEntry(bounds, 0, meshPacket);
+		if (rootEntry == Double.POSITIVE_INFINITY) {
+			return;
+		}
+
+		double[] pair = new double[12];
+		int[] stack = new int[this.maxDepth + 1];
+		double[] entries = new double[this.maxDepth + 1];
+		double[] boxes = new double[6 * (this.maxDepth + 1)];
+		int top = 0;
+		stack[top] = 0;
+		entries[top] = rootEntry;
+		System.arraycopy(bounds, 0, boxes, 0, 6);
+		top++;
+
+		int[] closest = new int[meshPacket.lanes];
+		Arrays.fill(closest, -1);
+		double[] beta = new double[meshPacket.lanes];
+		double[] gamma = new double[meshPacket.lanes];
+		double tMax = meshPacket.maxTMax();
+		while (top > 0) {
+			top--;
+			int node = stack[top];
+			if (entries[top] >= tMax) {
+				continue;
+			}
+			if (isLeaf(node)) {
+				int end = offsets[node] + counts[node];
+				double[] vertices = mesh.getVertices();
+				for (int i = offsets[node]; i < end; i++) {
+					kernel.intersect(vertices, i, meshPacket, closest, beta, gamma);
+				}
+				tMax = meshPacket.maxTMax();
+			} else {
+				this.decodeNode(node + 1, boxes, 6 * top, pair, 0);
+				this.decodeNode(offsets[node], boxes, 6 * top, pair, 6);
+				int near = node + 1;
+				int far = offsets[node];
+				int nearBox = 0;
+				int farBox = 6;
+				double nearEntry = kernel.slabEntry(pair, 0, meshPacket);
+				double farEntry = kernel.slabEntry(pair, 1, meshPacket);
+				if (farEntry < nearEntry) {
+					int tmp = near; near = far; far = tmp;
+					nearBox = 6; farBox = 0;
+					double tmpEntry = nearEntry; nearEntry = farEntry; farEntry = tmpEntry;
+				}
+				if (farEntry < tMax) {
+					stack[top] = far;
+					entries[top] = farEntry;
+					System.arraycopy(pair, farBox, boxes, 6 * top, 6);
+					top++;
+				}
+				if (nearEntry < tMax) {
+					stack[top] = near;
+					entries[top] = nearEntry;
+					System.arraycopy(pair, nearBox, boxes, 6 * top, 6);
+					top++;
+				}
+			}
+		}
+		for (int k = 0; k < packet.size; k++) {
+			if (closest[k] >= 0) {
+				Intersection hit = mesh.createHit(closest[k], meshPacket.origin(k),
+						meshPacket.direction(k), meshPacket.tMax[k], beta[k], gamma[k]);
+				packet.setHit(k, hit, meshPacket.tMax[k]);
+			}
+		}
+	}
+
+	@Override
+	public boolean occluded(Ray ray, double maxDistance) {
+		if (this.nodeCount == 0) {
+			return false;
+		}
+
+		Ray rayInv = this.toMeshSpace(ray);
+		Point ro = rayInv.origin;
+		Vector rd = rayInv.direction;
+		double ox = ro.x; double oy = ro.y; double oz = ro.z;
+		double ix = rayInv.invX; double iy = rayInv.invY; double iz = rayInv.invZ;
+		double tMin = rayInv.getTMin();
+		if (slabEntry(bounds, 0, ox, oy, oz, ix, iy, iz, tMin) >= maxDistance) {
+			return false;
+		}
+
+		double[] pair = new double[12];
+		int[] stack = new int[this.maxDepth + 1];
+		double[] boxes = new double[6 * (this.maxDepth + 1)];
+		int top = 0;
+		stack[top] = 0;
+		System.arraycopy(bounds, 0, boxes, 0, 6);
+		top++;
+		while (top > 0) {
+			top--;
+			int node = stack[top];
+			ray.countIntersection();
+			if (isLeaf(node)) {
+				int end = offsets[node] + counts[node];
+				for (int i = offsets[node]; i < end; i++) {
+					ray.countIntersection();
+					if (mesh.intersect(i, ro, rd, tMin, maxDistance, null) != Double.POSITIVE_INFINITY) {
+						return true;
+					}
+				}
+			} else {
+				this.decodeNode(node + 1, boxes, 6 * top, pair, 0);
+				this.decodeNode(offsets[node], boxes, 6 * top, pair, 6);
+				if (slabEntry(pair, 1, ox, oy, oz, ix, iy, iz, tMin) < maxDistance) {
+					stack[top] = offsets[node];
+					System.arraycopy(pair, 6, boxes, 6 * top, 6);
+					top++;
+				}
+				if (slabEntry(pair, 0, ox, oy, oz, ix, iy, iz, tMin) < maxDistance) {
+					stack[top] = node + 1;
+					System.arraycopy(pair, 0, boxes, 6 * top, 6);
+					top++;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The surface area cost of the decoded tree, which is a little higher than
+	 * the one of the exact tree as every node grew by the rounding.
+	 */
+	@Override
+	public double sahCost() {
+		if (this.nodeCount == 0) {
+			return 0.0;
+		}
+		double[] decoded = new double[6 * this.nodeCount];
+		System.arraycopy(bounds, 0, decoded, 0, 6);
+		//parents precede their children in the depth first order.
+		for (int node = 0; node < this.nodeCount; node++) {
+			if (isLeaf(node) == false) {
+				this.decodeNode(node + 1, decoded, 6 * node, decoded, 6 * (node + 1));
+				this.decodeNode(offsets[node], decoded, 6 * node, decoded, 6 * offsets[node]);
+			}
+		}
+		double rootArea = BinnedSahBuilder.surfaceArea(decoded, 0);
+		double cost = 0.0;
+		for (int node = 0; node < this.nodeCount; node++) {
+			double p = BinnedSahBuilder.surfaceArea(decoded, 6 * node) / rootArea;
+			if (isLeaf(node)) {
+				cost = cost + p * counts[node];
+			} else {
+				cost = cost + p * BinnedSahBuilder.traversalCost;
+			}
+		}
+		return cost;
+	}
+
+	/**
+	 * Recompute the exact node bounds bottom up after the triangles of the
+	 * mesh moved, then quantize them again from the root down, as every
+	 * node is encoded in the frame of its parent.
+	 * @return the surface area cost of the refit decoded tree relative to
+	 * 			the cost it had when it was quantized.
+	 */
+	@Override
+	public double refit() {
+		//children follow their parents in the depth first order.
+		double[] exact = new double[6 * this.nodeCount];
+		double[] tri = new double[6];
+		for (int node = this.nodeCount - 1; node >= 0; node--) {
+			SahBins.setEmpty(exact, 6 * node);
+			if (isLeaf(node)) {
+				int end = offsets[node] + counts[node];
+				for (int i = offsets[node]; i < end; i++) {
+					mesh.bounds(i, tri, 0);
+					SahBins.grow(exact, 6 * node, tri, 0);
+				}
+			} else {
+				grow(exact, node, node + 1);
+				grow(exact, node, offsets[node]);
+			}
+		}
+		this.quantize(exact);
+		if (this.quantizedBuiltCost <= 0.0) {
+			return 1.0;
+		}
+		return this.sahCost() / this.quantizedBuiltCost;
+	}
+}
@@ -0,0 +1,162 @@
+package acceleration;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import math.Constants;
+import math.Transformation;
+import shape.Triangle;
+
+/**
+ * A binned surface area heuristic builder which splits subtrees as fork join
+ * tasks. Ranges smaller than Constants.sahTaskSize are built by the task that
+ * created them. Subtrees are collected as linked nodes and copied into flat
+ * arrays once all tasks have finished.
+ */
+public class ForkJoinSahBuilder extends BinnedSahBuilder {
+	private static int threads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Set the number of threads used for building trees.
+	 * @param threadCount at least one.
+	 */
+	public static void setThreads(int threadCount) {
+		if (threadCount < 1) {
+			throw new IllegalArgumentException("At least one build thread is needed.");
+		}
+		threads = threadCount;
+	}
+
+	/**
+	 * @return the number of threads used for building trees.
+	 */
+	public static int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * A node of the tree while it is built.
+	 */
+	private static class BuildNode {
+		final double[] box = new double[6];
+		int start;
+		int count;
+		BuildNode left = null;
+		BuildNode right = null;
+	}
+
+	/**
+	 * Builds the subtree of an index range, forking the larger halves.
+	 */
+	private class BuildTask extends RecursiveTask<BuildNode> {
+		private static final long serialVersionUID = 1L;
+		private final int start;
+		private final int end;
+		private final int depth;
+
+		BuildTask(int start, int end, int depth) {
+			this.start = start;
+			this.end = end;
+			this.depth = depth;
+		}
+
+		@Override
+		protected BuildNode compute() {
+			SahBins scratch = new SahBins(bins);
+			if ((end - start) < Constants.sahTaskSize) {
+				return buildSubtree(start, end, depth, scratch);
+			}
+			BuildNode node = new BuildNode();
+			int mid = split(start, end, depth, node.box, 0, scratch);
+			if (mid < 0) {
+				node.start = start;
+				node.count = end - start;
+				return node;
+			}
+			BuildTask leftTask = new BuildTask(start, mid, depth - 1);
+			leftTask.fork();
+			node.right = new BuildTask(mid, end, depth - 1).compute();
+			node.left = leftTask.join();
+			return node;
+		}
+	}
+
+	/**
+	 * Prepare a builder for a list of triangles.
+	 * @param triangles the triangles in mesh space.
+	 * @param transformation transformation of the mesh the tree belongs to.
+	 */
+	public ForkJoinSahBuilder(List<Triangle> triangles, Transformation transformation) {
+		super(triangles, transformation);
+	}
+
+	/**
+	 * Build the node arrays on the configured number of threads.
+	 * @param maxDepth the maximum depth of the tree.
+	 */
+	@Override
+	public void buildNodes(int maxDepth) {
+		int n = this.index.length;
+		if (n == 0) {
+			super.buildNodes(maxDepth);
+			return;
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		BuildNode root;
+		try {
+			root = pool.invoke(new BuildTask(0, n, maxDepth));
+		} finally {
+			pool.shutdown();
+		}
+
+		int nodes = countNodes(root);
+		this.bounds = new double[6 * nodes];
+		this.offsets = new int[nodes];
+		this.counts = new int[nodes];
+		this.nextNode = flatten(root, 0, this.bounds, this.offsets, this.counts);
+	}
+
+	/**
+	 * Sequentially build the subtree of an index range.
+	 */
+	private BuildNode buildSubtree(int start, int end, int depth, SahBins scratch) {
+		BuildNode node = new BuildNode();
+		int mid = this.split(start, end, depth, node.box, 0, scratch);
+		if (mid < 0) {
+			node.start = start;
+			node.count = end - start;
+		} else {
+			node.left = this.buildSubtree(start, mid, depth - 1, scratch);
+			node.right = this.buildSubtree(mid, end, depth - 1, scratch);
+		}
+		return node;
+	}
+
+	private static int countNodes(BuildNode node) {
+		if (node.left == null) {
+			return 1;
+		}
+		return 1 + countNodes(node.left) + countNodes(node.right);
+	}
+
+	/**
+	 * Depth first copy of the linked nodes into node arrays.
+	 * @return the next free node index.
+	 */
+	private static int flatten(BuildNode node, int next, double[] bounds,
+			int[] offsets, int[] counts) {
+		int index = next;
+		System.arraycopy(node.box, 0, bounds, 6 * index, 6);
+		if (node.left == null) {
+			offsets[index] = node.start;
+			counts[index] = node.count;
+			return index + 1;
+		}
+		counts[index] = 0;
+		int rightIndex = flatten(node.left, index + 1, bounds, offsets, counts);
+		offsets[index] = rightIndex;
+		return flatten(node.right, rightIndex, bounds, offsets, counts);
+	}
+}
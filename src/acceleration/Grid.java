@@ -0,0 +1,499 @@
+package acceleration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import math.Constants;
+import math.Intersection;
+import math.Point;
+import math.Ray;
+import math.Transformation;
+import math.Vector;
+import shape.PackedMesh;
+import shape.Shape;
+import shape.Triangle;
+
+/**
+ * A uniform grid over the triangles of a mesh, traversed cell by cell with a
+ * three dimensional digital differential analyzer. The resolution follows
+ * from the triangle count, aiming at Constants.gridDensity cells per
+ * triangle. Cells holding more than Constants.gridRefine triangles get a
+ * grid of their own, which suits meshes whose triangles cluster, while
+ * evenly spread meshes like height fields need a single level only.
+ */
+public class Grid implements Shape {
+	/**
+	 * Upper limit of cells along one axis.
+	 */
+	private static final int maxResolution = 512;
+
+	protected final PackedMesh mesh;
+	public final Transformation transformation;
+
+	/**
+	 * Grid bounds in mesh space: xMin, yMin, zMin, xMax, yMax, zMax.
+	 */
+	protected final double[] box = new double[6];
+
+	/**
+	 * Cells along x, y and z.
+	 */
+	public final int[] resolution = new int[3];
+	protected final double[] cellSize = new double[3];
+
+	/**
+	 * The triangles of cell i are cellTriangles[cellStart[i]] up to
+	 * cellTriangles[cellStart[i + 1]], cells are numbered x fastest.
+	 */
+	protected final int[] cellStart;
+	protected final int[] cellTriangles;
+
+	/**
+	 * Nested grids of refined cells, null where a cell is not refined.
+	 */
+	protected final Grid[] subGrids;
+
+	/**
+	 * Create a grid over a list of triangles sharing a transformation.
+	 * @param triangles the triangles in mesh space.
+	 * @param transformation transformation of the mesh.
+	 */
+	public Grid(List<Triangle> triangles, Transformation transformation) {
+		this(new PackedMesh(triangles.toArray(new Triangle[triangles.size()]), transformation));
+	}
+
+	/**
+	 * Create a grid over all triangles of a packed mesh.
+	 * @param mesh the triangles.
+	 */
+	public Grid(PackedMesh mesh) {
+		this(mesh, allTriangles(mesh.size), Constants.gridRefine);
+	}
+
+	/**
+	 * Create a grid over some triangles of a packed mesh.
+	 * @param refine cells with more triangles get their own grid, zero
+	 * 			disables refinement.
+	 */
+	private Grid(PackedMesh mesh, int[] triangles, int refine) {
+		this.mesh = mesh;
+		this.transformation = mesh.transformation;
+		int n = triangles.length;
+		double[] triBounds = new double[6 * n];
+		for (int k = 0; k < 3; k++) {
+			box[k] = Double.POSITIVE_INFINITY;
+			box[3 + k] = Double.NEGATIVE_INFINITY;
+		}
+		double[] v = mesh.getVertices();
+		for (int i = 0; i < n; i++) {
+			int t = 9 * triangles[i];
+			for (int k = 0; k < 3; k++) {
+				double a = v[t + k];
+				double b = a + v[t + 3 + k];
+				double c = a + v[t + 6 + k];
+				triBounds[6 * i + k] = Math.min(a, Math.min(b, c));
+				triBounds[6 * i + 3 + k] = Math.max(a, Math.max(b, c));
+				box[k] = Math.min(box[k], triBounds[6 * i + k]);
+				box[3 + k] = Math.max(box[3 + k], triBounds[6 * i + 3 + k]);
+			}
+		}
+
+		if (n == 0) {
+			for (int k = 0; k < 6; k++) {
+				box[k] = 0.0;
+			}
+		}
+
+		//choose about gridDensity cells per triangle, flat axes get one cell.
+		double maxExtent = 0.0;
+		for (int k = 0; k < 3; k++) {
+			maxExtent = Math.max(maxExtent, box[3 + k] - box[k]);
+		}
+		//a slightly larger box keeps flat meshes and boundary hits inside.
+		for (int k = 0; k < 3; k++) {
+			box[k] = box[k] - 1e-6 * maxExtent;
+			box[3 + k] = box[3 + k] + 1e-6 * maxExtent;
+		}
+		double volume = 1.0;
+		for (int k = 0; k < 3; k++) {
+			volume = volume * Math.max(box[3 + k] - box[k], 1e-3 * maxExtent);
+		}
+		double cellsPerUnit = (n > 0) ? Math.cbrt(Constants.gridDensity * n / volume) : 0.0;
+		int cells = 1;
+		for (int k = 0; k < 3; k++) {
+			double extent = box[3 + k] - box[k];
+			int res = (int) Math.round(extent * cellsPerUnit);
+			resolution[k] = Math.min(Math.max(res, 1), maxResolution);
+			cellSize[k] = extent / resolution[k];
+			cells = cells * resolution[k];
+		}
+
+		//pad the triangle bounds, so rounding in the walk can not skip a cell.
+		for (int i = 0; i < n; i++) {
+			for (int k = 0; k < 3; k++) {
+				triBounds[6 * i + k] = triBounds[6 * i + k] - 1e-6 * cellSize[k];
+				triBounds[6 * i + 3 + k] = triBounds[6 * i + 3 + k] + 1e-6 * cellSize[k];
+			}
+		}
+
+		//count, then fill the triangle references of every overlapped cell.
+		this.cellStart = new int[cells + 1];
+		int[] range = new int[6];
+		for (int i = 0; i < n; i++) {
+			this.cellRange(triBounds, 6 * i, range);
+			for (int z = range[2]; z <= range[5]; z++) {
+				for (int y = range[1]; y <= range[4]; y++) {
+					for (int x = range[0]; x <= range[3]; x++) {
+						cellStart[this.cell(x, y, z) + 1]++;
+					}
+				}
+			}
+		}
+		for (int c = 0; c < cells; c++) {
+			cellStart[c + 1] = cellStart[c + 1] + cellStart[c];
+		}
+		this.cellTriangles = new int[cellStart[cells]];
+		int[] fill = new int[cells];
+		for (int i = 0; i < n; i++) {
+			this.cellRange(triBounds, 6 * i, range);
+			for (int z = range[2]; z <= range[5]; z++) {
+				for (int y = range[1]; y <= range[4]; y++) {
+					for (int x = range[0]; x <= range[3]; x++) {
+						int c = this.cell(x, y, z);
+						cellTriangles[cellStart[c] + fill[c]] = triangles[i];
+						fill[c]++;
+					}
+				}
+			}
+		}
+
+		this.subGrids = new Grid[cells];
+		if (refine > 0) {
+			for (int c = 0; c < cells; c++) {
+				int count = cellStart[c + 1] - cellStart[c];
+				//refining a cell holding nearly all triangles gains nothing.
+				if ((count > refine) && (count < n)) {
+					int[] sub = new int[count];
+					System.arraycopy(cellTriangles, cellStart[c], sub, 0, count);
+					subGrids[c] = new Grid(mesh, sub, 0);
+				}
+			}
+		}
+	}
+
+	private static int[] allTriangles(int n) {
+		int[] all = new int[n];
+		for (int i = 0; i < n; i++) {
+			all[i] = i;
+		}
+		return all;
+	}
+
+	private int cell(int x, int y, int z) {
+		return x + resolution[0] * (y + resolution[1] * z);
+	}
+
+	private int cellCoordinate(double value, int axis) {
+		int c = (int) ((value - box[axis]) / cellSize[axis]);
+		return Math.min(Math.max(c, 0), resolution[axis] - 1);
+	}
+
+	/**
+	 * The first and last cell along every axis overlapped by some bounds.
+	 */
+	private void cellRange(double[] bounds, int b, int[] range) {
+		for (int k = 0; k < 3; k++) {
+			range[k] = this.cellCoordinate(bounds[b + k], k);
+			range[3 + k] = this.cellCoordinate(bounds[b + 3 + k], k);
+		}
+	}
+
+	/**
+	 * The state of a walk through the cells pierced by a ray.
+	 */
+	private class Walk {
+		int x, y, z;
+		int stepX, stepY, stepZ;
+		int stopX, stopY, stopZ;
+		double nextX, nextY, nextZ;
+		double deltaX, deltaY, deltaZ;
+		double tEnter;
+		double tExit;
+
+		/**
+		 * Set up the walk for a mesh space ray.
+		 * @return false if the ray misses the grid between its tMin and tMax.
+		 */
+		boolean start(Ray ray, double tMax) {
+			if (cellTriangles.length == 0) {
+				return false;
+			}
+			Point ro = ray.origin;
+			Vector rd = ray.direction;
+			double t0 = ray.getTMin();
+			double t1 = tMax;
+			double[] o = { ro.x, ro.y, ro.z };
+			double[] d = { rd.x, rd.y, rd.z };
+			double[] inv = { ray.invX, ray.invY, ray.invZ };
+			for (int k = 0; k < 3; k++) {
+				if ((d[k] == 0.0) && (o[k] < box[k] || o[k] > box[3 + k])) {
+					return false;
+				}
+				double near = (box[k] - o[k]) * inv[k];
+				double far = (box[3 + k] - o[k]) * inv[k];
+				if (near > far) {
+					double tmp = near; near = far; far = tmp;
+				}
+				//NaN from flat grids parallel to the ray keeps the current interval.
+				t0 = (near > t0) ? near : t0;
+				t1 = (far < t1) ? far : t1;
+			}
+			if (t0 > t1) {
+				return false;
+			}
+			this.tEnter = t0;
+			this.x = cellCoordinate(ro.x + t0 * rd.x, 0);
+			this.y = cellCoordinate(ro.y + t0 * rd.y, 1);
+			this.z = cellCoordinate(ro.z + t0 * rd.z, 2);
+			if (rd.x > 0) {
+				stepX = 1; stopX = resolution[0];
+				nextX = (box[0] + (x + 1) * cellSize[0] - ro.x) * ray.invX;
+				deltaX = cellSize[0] * ray.invX;
+			} else {
+				stepX = -1; stopX = -1;
+				nextX = (rd.x < 0) ? (box[0] + x * cellSize[0] - ro.x) * ray.invX : Double.POSITIVE_INFINITY;
+				deltaX = (rd.x < 0) ? -cellSize[0] * ray.invX : Double.POSITIVE_INFINITY;
+			}
+			if (rd.y > 0) {
+				stepY = 1; stopY = resolution[1];
+				nextY = (box[1] + (y + 1) * cellSize[1] - ro.y) * ray.invY;
+				deltaY = cellSize[1] * ray.invY;
+			} else {
+				stepY = -1; stopY = -1;
+				nextY = (rd.y < 0) ? (box[1] + y * cellSize[1] - ro.y) * ray.invY : Double.POSITIVE_INFINITY;
+				deltaY = (rd.y < 0) ? -cellSize[1] * ray.invY : Double.POSITIVE_INFINITY;
+			}
+			if (rd.z > 0) {
+				stepZ = 1; stopZ = resolution[2];
+				nextZ = (box[2] + (z + 1) * cellSize[2] - ro.z) * ray.invZ;
+				deltaZ = cellSize[2] * ray.invZ;
+			} else {
+				stepZ = -1; stopZ = -1;
+				nextZ = (rd.z < 0) ? (box[2] + z * cellSize[2] - ro.z) * ray.invZ : Double.POSITIVE_INFINITY;
+				deltaZ = (rd.z < 0) ? -cellSize[2] * ray.invZ : Double.POSITIVE_INFINITY;
+			}
+			this.tExit = Math.min(nextX, Math.min(nextY, nextZ));
+			return true;
+		}
+
+		int index() {
+			return cell(x, y, z);
+		}
+
+		/**
+		 * Move to the next cell along the ray.
+		 * @return false once the ray leaves the grid.
+		 */
+		boolean next() {
+			if ((nextX < nextY) && (nextX < nextZ)) {
+				x = x + stepX;
+				if (x == stopX) {
+					return false;
+				}
+				tEnter = nextX;
+				nextX = nextX + deltaX;
+			} else if (nextY < nextZ) {
+				y = y + stepY;
+				if (y == stopY) {
+					return false;
+				}
+				tEnter = nextY;
+				nextY = nextY + deltaY;
+			} else {
+				z = z + stepZ;
+				if (z == stopZ) {
+					return false;
+				}
+				tEnter = nextZ;
+				nextZ = nextZ + deltaZ;
+			}
+			tExit = Math.min(nextX, Math.min(nextY, nextZ));
+			return true;
+		}
+	}
+
+	/**
+	 * Find the closest triangle hit along a mesh space ray.
+	 * @param hit receives t, beta and gamma of the closest hit.
+	 * @return the triangle index or -1.
+	 */
+	private int closest(Ray ray, double tMax, double[] hit) {
+		Walk walk = new Walk();
+		if (walk.start(ray, tMax) == false) {
+			return -1;
+		}
+		Point ro = ray.origin;
+		Vector rd = ray.direction;
+		double tMin = ray.getTMin();
+		double[] bary = new double[2];
+		int closest = -1;
+		do {
+			int c = walk.index();
+			if (subGrids[c] != null) {
+				int sub = subGrids[c].closest(ray, tMax, hit);
+				if (sub >= 0) {
+					closest = sub;
+					tMax = hit[0];
+				}
+			} else {
+				for (int i = cellStart[c]; i < cellStart[c + 1]; i++) {
+					int tri = cellTriangles[i];
+					double t = mesh.intersect(tri, ro, rd, tMin, tMax, bary);
+					if (t < tMax) {
+						tMax = t;
+						closest = tri;
+						hit[0] = t;
+						hit[1] = bary[0];
+						hit[2] = bary[1];
+					}
+				}
+			}
+			//a hit inside the current cell can not be beaten by later cells.
+			if (tMax <= walk.tExit) {
+				break;
+			}
+		} while (walk.next());
+		return closest;
+	}
+
+	/**
+	 * @return true if any triangle is hit before maxDistance.
+	 */
+	private boolean any(Ray ray, double maxDistance) {
+		Walk walk = new Walk();
+		if (walk.start(ray, maxDistance) == false) {
+			return false;
+		}
+		Point ro = ray.origin;
+		Vector rd = ray.direction;
+		double tMin = ray.getTMin();
+		do {
+			if (walk.tEnter >= maxDistance) {
+				return false;
+			}
+			int c = walk.index();
+			if (subGrids[c] != null) {
+				if (subGrids[c].any(ray, maxDistance)) {
+					return true;
+				}
+			} else {
+				for (int i = cellStart[c]; i < cellStart[c + 1]; i++) {
+					if (mesh.intersect(cellTriangles[i], ro, rd, tMin, maxDistance, null) != Double.POSITIVE_INFINITY) {
+						return true;
+					}
+				}
+			}
+		} while (walk.next());
+		return false;
+	}
+
+	/**
+	 * Collect every triangle hit along a mesh space ray once.
+	 * @param tested triangles which were already tested.
+	 */
+	private void all(Ray ray, boolean[] tested, List<Intersection> hits) {
+		Walk walk = new Walk();
+		if (walk.start(ray, Double.POSITIVE_INFINITY) == false) {
+			return;
+		}
+		Point ro = ray.origin;
+		Vector rd = ray.direction;
+		double tMin = ray.getTMin();
+		double[] bary = new double[2];
+		do {
+			int c = walk.index();
+			if (subGrids[c] != null) {
+				subGrids[c].all(ray, tested, hits);
+				continue;
+			}
+			for (int i = cellStart[c]; i < cellStart[c + 1]; i++) {
+				int tri = cellTriangles[i];
+				if (tested[tri]) {
+					continue;
+				}
+				tested[tri] = true;
+				double t = mesh.intersect(tri, ro, rd, tMin, Double.POSITIVE_INFINITY, bary);
+				if (t != Double.POSITIVE_INFINITY) {
+					hits.add(mesh.createHit(tri, ro, rd, t, bary[0], bary[1]));
+				}
+			}
+		} while (walk.next());
+	}
+
+	private Ray toMeshSpace(Ray ray) {
+		if (this.transformation == Transformation.IDENTITY) {
+			return ray;
+		}
+		return this.transformation.transformInverse(ray);
+	}
+
+	@Override
+	public List<Intersection> intersect(Ray ray) {
+		List<Intersection> hits = new ArrayList<Intersection>();
+		Ray rayInv = this.toMeshSpace(ray);
+		this.all(rayInv, new boolean[mesh.size], hits);
+		return hits;
+	}
+
+	@Override
+	public Intersection intersectClosest(Ray ray) {
+		Ray rayInv = this.toMeshSpace(ray);
+		double[] hit = new double[3];
+		int tri = this.closest(rayInv, ray.getTMax(), hit);
+		if (tri < 0) {
+			return null;
+		}
+		ray.setTMax(hit[0]);
+		return mesh.createHit(tri, rayInv.origin, rayInv.direction, hit[0], hit[1], hit[2]);
+	}
+
+	@Override
+	public boolean occluded(Ray ray, double maxDistance) {
+		Ray rayInv = this.toMeshSpace(ray);
+		return this.any(rayInv, maxDistance);
+	}
+
+	/**
+	 * @return the lower corner of the grid in mesh space.
+	 */
+	public Point getMin() {
+		return new Point(box[0], box[1], box[2]);
+	}
+
+	/**
+	 * @return the upper corner of the grid in mesh space.
+	 */
+	public Point getMax() {
+		return new Point(box[3], box[4], box[5]);
+	}
+
+	/**
+	 * @return the packed triangles of the grid.
+	 */
+	public PackedMesh getMesh() {
+		return mesh;
+	}
+
+	/**
+	 * @return the number of cells with a nested grid.
+	 */
+	public int refinedCells() {
+		int refined = 0;
+		for (Grid sub : this.subGrids) {
+			if (sub != null) {
+				refined++;
+			}
+		}
+		return refined;
+	}
+}
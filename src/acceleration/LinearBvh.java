@@ -0,0 +1,682 @@
+package acceleration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import math.Intersection;
+import math.Point;
+import math.Ray;
+import math.Transformation;
+import math.Vector;
+import shape.PackedMesh;
+import shape.Shape;
+import shape.Triangle;
+
+/**
+ * A bounding volume hierarchy stored in flat arrays instead of a linked
+ * tree of box objects. Nodes are laid out in depth first order, the first
+ * child of an interior node directly follows its parent. Only the
+ * transformation of the whole mesh is kept, rays are transformed once
+ * per traversal and the triangle kernels run in mesh space.
+ */
+public class LinearBvh implements Shape {
+	/**
+	 * Node bounds, six values per node: xMin, yMin, zMin, xMax, yMax, zMax.
+	 */
+	protected final double[] bounds;
+
+	/**
+	 * For interior nodes the index of the second child, for leaves the
+	 * offset of the first triangle in the triangle array.
+	 */
+	protected final int[] offsets;
+
+	/**
+	 * The number of triangles in a leaf, zero for interior nodes.
+	 */
+	protected final int[] counts;
+
+	/**
+	 * The packed triangles, ordered such that every leaf references a contiguous range.
+	 */
+	protected final PackedMesh mesh;
+
+	public final Transformation transformation;
+	public final int nodeCount;
+	public final int maxDepth;
+
+	/**
+	 * The surface area cost of the tree when it was built, refits are
+	 * compared against it.
+	 */
+	protected final double builtCost;
+
+	/**
+	 * For trees built with spatial splits the source triangle of every
+	 * packed triangle, the copies of a split triangle share it. Null for
+	 * trees which reference every triangle once.
+	 */
+	protected int[] triangleIds = null;
+
+	/**
+	 * Create a linear bvh from already filled node arrays.
+	 * @param bounds six bounds per node.
+	 * @param offsets second child or triangle offset per node.
+	 * @param counts triangle count per node, zero for interior nodes.
+	 * @param triangles leaf ordered triangles, they are packed into a {@link PackedMesh}.
+	 * @param transformation transformation of the mesh the tree belongs to.
+	 */
+	protected LinearBvh(double[] bounds, int[] offsets, int[] counts,
+			Triangle[] triangles, Transformation transformation) {
+		this(bounds, offsets, counts, new PackedMesh(triangles, transformation));
+	}
+
+	/**
+	 * Create a linear bvh over an already packed mesh.
+	 * @param mesh leaf ordered triangles.
+	 */
+	protected LinearBvh(double[] bounds, int[] offsets, int[] counts, PackedMesh mesh) {
+		this.bounds = bounds;
+		this.offsets = offsets;
+		this.counts = counts;
+		this.mesh = mesh;
+		this.transformation = mesh.transformation;
+		this.nodeCount = counts.length;
+		this.maxDepth = this.depth(0);
+		this.builtCost = this.sahCost();
+	}
+
+	/**
+	 * Share the node arrays and triangles of another tree.
+	 * @param tree the tree to share.
+	 */
+	protected LinearBvh(LinearBvh tree) {
+		this(tree, tree.bounds);
+	}
+
+	/**
+	 * Share the node arrays and triangles of another tree but not its bounds.
+	 * @param tree the tree to share.
+	 * @param bounds bounds replacing the ones of the tree, subclasses
+	 * 			keeping them in another form pass the root bounds only.
+	 */
+	protected LinearBvh(LinearBvh tree, double[] bounds) {
+		this.bounds = bounds;
+		this.offsets = tree.offsets;
+		this.counts = tree.counts;
+		this.mesh = tree.mesh;
+		this.transformation = tree.transformation;
+		this.nodeCount = tree.nodeCount;
+		this.maxDepth = tree.maxDepth;
+		this.builtCost = tree.builtCost;
+		this.triangleIds = tree.triangleIds;
+	}
+
+	/**
+	 * A tree without binary nodes over a packed mesh, for subclasses with a
+	 * node layout of their own. The node arrays are left empty, so such
+	 * subclasses override every traversal as well as sahCost and refit,
+	 * and isLeaf must not be called on them.
+	 * @param mesh leaf ordered triangles.
+	 * @param rootBounds the six bounds of the root.
+	 * @param nodeCount the number of nodes of the tree the subclass was made from.
+	 * @param maxDepth the depth of the tree the subclass was made from.
+	 * @param builtCost the surface area cost of the tree the subclass was made from.
+	 */
+	protected LinearBvh(PackedMesh mesh, double[] rootBounds, int nodeCount, int maxDepth, double builtCost) {
+		this.bounds = rootBounds;
+		this.offsets = new int[0];
+		this.counts = new int[0];
+		this.mesh = mesh;
+		this.transformation = mesh.transformation;
+		this.nodeCount = nodeCount;
+		this.maxDepth = maxDepth;
+		this.builtCost = builtCost;
+	}
+
+	/**
+	 * Flatten a tree built with the surface area heuristic.
+	 * @param root the top level box of a split tree.
+	 * @return the same tree stored in flat arrays.
+	 */
+	public static LinearBvh fromTree(SahBox root) {
+		int[] sizes = new int[2];
+		countNodes(root, sizes);
+		Flattener flat = new Flattener(sizes[0], sizes[1]);
+		if (sizes[1] > 0) {
+			flat.add(root);
+		}
+		return new LinearBvh(flat.bounds, flat.offsets, flat.counts,
+				flat.triangles, root.transformation);
+	}
+
+	/**
+	 * Count the nodes and leaf triangles of a tree. Nodes with a single child
+	 * are skipped, as only the child box is tested during traversal.
+	 */
+	private static void countNodes(SahBox box, int[] sizes) {
+		if ((box.left != null) && (box.right != null)) {
+			sizes[0] = sizes[0] + 1;
+			countNodes(box.left, sizes);
+			countNodes(box.right, sizes);
+		} else if (box.left != null) {
+			countNodes(box.left, sizes);
+		} else if (box.right != null) {
+			countNodes(box.right, sizes);
+		} else if (box.trianglesInBox.isEmpty() == false) {
+			sizes[0] = sizes[0] + 1;
+			sizes[1] = sizes[1] + box.trianglesInBox.size();
+		}
+	}
+
+	/**
+	 * Depth first copy of a linked tree into node arrays.
+	 */
+	private static class Flattener {
+		final double[] bounds;
+		final int[] offsets;
+		final int[] counts;
+		final Triangle[] triangles;
+		int nextNode = 0;
+		int nextTriangle = 0;
+
+		Flattener(int nodes, int tris) {
+			this.bounds = new double[6 * nodes];
+			this.offsets = new int[nodes];
+			this.counts = new int[nodes];
+			this.triangles = new Triangle[tris];
+		}
+
+		void add(SahBox box) {
+			if ((box.left != null) && (box.right == null)) {
+				add(box.left);
+				return;
+			}
+			if ((box.right != null) && (box.left == null)) {
+				add(box.right);
+				return;
+			}
+			int node = nextNode;
+			nextNode = nextNode + 1;
+			setBounds(node, box.p0, box.p1);
+
+			if (box.left == null) {
+				offsets[node] = nextTriangle;
+				counts[node] = box.trianglesInBox.size();
+				for (Triangle tri : box.trianglesInBox) {
+					triangles[nextTriangle] = tri;
+					nextTriangle = nextTriangle + 1;
+				}
+			} else {
+				counts[node] = 0;
+				add(box.left);
+				offsets[node] = nextNode;
+				add(box.right);
+			}
+		}
+
+		void setBounds(int node, Point p0, Point p1) {
+			int i = 6 * node;
+			bounds[i]     = p0.x; bounds[i + 1] = p0.y; bounds[i + 2] = p0.z;
+			bounds[i + 3] = p1.x; bounds[i + 4] = p1.y; bounds[i + 5] = p1.z;
+		}
+	}
+
+	private int depth(int node) {
+		if ((counts.length == 0) || isLeaf(node)) {
+			return 1;
+		}
+		return 1 + Math.max(depth(node + 1), depth(offsets[node]));
+	}
+
+	/**
+	 * Bring a world ray into mesh space, the triangles all share the mesh
+	 * transformation so their kernels run on this ray directly.
+	 */
+	protected Ray toMeshSpace(Ray ray) {
+		if (this.transformation == Transformation.IDENTITY) {
+			return ray;
+		}
+		return this.transformation.transformInverse(ray);
+	}
+
+	/**
+	 * @return true if the node holds triangles.
+	 */
+	public boolean isLeaf(int node) {
+		return counts[node] > 0;
+	}
+
+	/**
+	 * Slab test of a node against a ray in mesh space.
+	 * @return the ray parameter where the node is entered, or positive
+	 * 			infinity if the node is missed or lies before tMin.
+	 */
+	protected double nodeEntry(int node, double ox, double oy, double oz,
+			double ix, double iy, double iz, double tMin) {
+		return slabEntry(this.bounds, node, ox, oy, oz, ix, iy, iz, tMin);
+	}
+
+	/**
+	 * Slab test of a node stored in a bounds array, shared by the flat trees.
+	 * @param ix inverse ray direction along x, likewise iy and iz.
+	 * @param tMin nodes left before this ray parameter are missed.
+	 * @return the ray parameter where the node is entered, or positive
+	 * 			infinity if the node is missed or lies before tMin.
+	 */
+	static double slabEntry(double[] bounds, int node, double ox, double oy, double oz,
+			double ix, double iy, double iz, double tMin) {
+		int b = 6 * node;
+		double txMin, txMax, tyMin, tyMax, tzMin, tzMax;
+		if (ix >= 0) {
+			txMin = (bounds[b] - ox) * ix;
+			txMax = (bounds[b + 3] - ox) * ix;
+		} else {
+			txMin = (bounds[b + 3] - ox) * ix;
+			txMax = (bounds[b] - ox) * ix;
+		}
+		if (iy >= 0) {
+			tyMin = (bounds[b + 1] - oy) * iy;
+			tyMax = (bounds[b + 4] - oy) * iy;
+		} else {
+			tyMin = (bounds[b + 4] - oy) * iy;
+			tyMax = (bounds[b + 1] - oy) * iy;
+		}
+		if (iz >= 0) {
+			tzMin = (bounds[b + 2] - oz) * iz;
+			tzMax = (bounds[b + 5] - oz) * iz;
+		} else {
+			tzMin = (bounds[b + 5] - oz) * iz;
+			tzMax = (bounds[b + 2] - oz) * iz;
+		}
+		double t0 = Math.max(txMin, Math.max(tyMin, tzMin));
+		double t1 = Math.min(txMax, Math.min(tyMax, tzMax));
+		//flat nodes around planar geometry are entered and left at the same t.
+		if ((t0 <= t1) && (t1 > tMin)) {
+			return t0;
+		} else {
+			return Double.POSITIVE_INFINITY;
+		}
+	}
+
+	/**
+	 * Intersect the tree with a ray.
+	 * @param ray the ray in world coordinates.
+	 * @return list of found intersections.
+	 */
+	@Override
+	public List<Intersection> intersect(Ray ray) {
+		List<Intersection> hits = new ArrayList<Intersection>();
+		if (this.nodeCount == 0) {
+			return hits;
+		}
+
+		Ray rayInv = this.toMeshSpace(ray);
+		Point ro = rayInv.origin;
+		Vector rd = rayInv.direction;
+		double ox = ro.x; double oy = ro.y; double oz = ro.z;
+		double ix = rayInv.invX; double iy = rayInv.invY; double iz = rayInv.invZ;
+		double tMin = rayInv.getTMin();
+
+		double[] bary = new double[2];
+		Set<Integer> seen = this.newSeenSet();
+		int[] stack = new int[this.maxDepth + 1];
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			ray.countIntersection();
+			if (nodeEntry(node, ox, oy, oz, ix, iy, iz, tMin) == Double.POSITIVE_INFINITY) {
+				continue;
+			}
+			if (isLeaf(node)) {
+				int end = offsets[node] + counts[node];
+				for (int i = offsets[node]; i < end; i++) {
+					ray.countIntersection();
+					double t = mesh.intersect(i, ro, rd, tMin, Double.POSITIVE_INFINITY, bary);
+					if ((t != Double.POSITIVE_INFINITY) && this.firstHit(seen, i)) {
+						hits.add(mesh.createHit(i, ro, rd, t, bary[0], bary[1]));
+					}
+				}
+			} else {
+				stack[top++] = offsets[node];
+				stack[top++] = node + 1;
+			}
+		}
+		return hits;
+	}
+
+	/**
+	 * @return an empty set of source triangles for an all hits query, or
+	 * 			null if the tree references every triangle once.
+	 */
+	protected Set<Integer> newSeenSet() {
+		return (this.triangleIds == null) ? null : new HashSet<Integer>();
+	}
+
+	/**
+	 * Trees built with spatial splits hold copies of a triangle in several
+	 * leaves, the copies produce the same hit and only the first is kept.
+	 * @param seen the source triangles hit so far, or null.
+	 * @param i the packed triangle that was hit.
+	 * @return true if the hit is the first of its source triangle.
+	 */
+	protected boolean firstHit(Set<Integer> seen, int i) {
+		return (seen == null) || seen.add(this.triangleIds[i]);
+	}
+
+	/**
+	 * Find the closest intersection with a ray. Nodes are visited front to back
+	 * and every node entered beyond the closest hit so far is skipped.
+	 * @param ray the ray in world coordinates, its t-max shrinks with every hit.
+	 * @return the closest intersection or null.
+	 */
+	@Override
+	public Intersection intersectClosest(Ray ray) {
+		if (this.nodeCount == 0) {
+			return null;
+		}
+
+		Ray rayInv = this.toMeshSpace(ray);
+		Point ro = rayInv.origin;
+		Vector rd = rayInv.direction;
+		double ox = ro.x; double oy = ro.y; double oz = ro.z;
+		double ix = rayInv.invX; double iy = rayInv.invY; double iz = rayInv.invZ;
+		double tMin = rayInv.getTMin();
+
+		double tMax = ray.getTMax();
+		double rootEntry = nodeEntry(0, ox, oy, oz, ix, iy, iz, tMin);
+		if (rootEntry >= tMax) {
+			return null;
+		}
+
+		int[] stack = new int[this.maxDepth + 1];
+		double[] entries = new double[this.maxDepth + 1];
+		int top = 0;
+		stack[top] = 0;
+		entries[top] = rootEntry;
+		top++;
+
+		//only the closest triangle is turned into an intersection object.
+		int visited = 0; //nodes and triangles tested, the render cost of the ray.
+		double[] bary = new double[2];
+		int closest = -1;
+		double closestBeta = 0;
+		double closestGamma = 0;
+		while (top > 0) {
+			top--;
+			int node = stack[top];
+			if (entries[top] >= tMax) {
+				continue;
+			}
+			visited++;
+			if (isLeaf(node)) {
+				int end = offsets[node] + counts[node];
+				for (int i = offsets[node]; i < end; i++) {
+					visited++;
+					double t = mesh.intersect(i, ro, rd, tMin, tMax, bary);
+					if (t < tMax) {
+						tMax = t;
+						closest = i;
+						closestBeta = bary[0];
+						closestGamma = bary[1];
+					}
+				}
+			} else {
+				int near = node + 1;
+				int far = offsets[node];
+				double nearEntry = nodeEntry(near, ox, oy, oz, ix, iy, iz, tMin);
+				double farEntry = nodeEntry(far, ox, oy, oz, ix, iy, iz, tMin);
+				if (farEntry < nearEntry) {
+					int tmp = near; near = far; far = tmp;
+					double tmpEntry = nearEntry; nearEntry = farEntry; farEntry = tmpEntry;
+				}
+				//push the far child first so the near child is visited next.
+				if (farEntry < tMax) {
+					stack[top] = far;
+					entries[top] = farEntry;
+					top++;
+				}
+				if (nearEntry < tMax) {
+					stack[top] = near;
+					entries[top] = nearEntry;
+					top++;
+				}
+			}
+		}
+		ray.countIntersections(visited);
+		if (closest < 0) {
+			return null;
+		}
+		ray.setTMax(tMax);
+		return mesh.createHit(closest, ro, rd, tMax, closestBeta, closestGamma);
+	}
+
+	/**
+	 * Find the closest intersections of a packet of coherent rays. The whole
+	 * packet visits a node as soon as one of its rays enters it, children are
+	 * ordered by the smallest entry over the packet.
+	 * @param packet the rays in world coordinates, closer hits are stored in it.
+	 */
+	public void intersectClosest(RayPacket packet) {
+		if (this.nodeCount == 0) {
+			return;
+		}
+		PacketKernel kernel = PacketKernel.get();
+		RayPacket meshPacket = packet.toMeshSpace(this.transformation);
+		double rootEntry = kernel.slabEntry(bounds, 0, meshPacket);
+		if (rootEntry == Double.POSITIVE_INFINITY) {
+			return;
+		}
+
+		int[] stack = new int[this.maxDepth + 1];
+		double[] entries = new double[this.maxDepth + 1];
+		int top = 0;
+		stack[top] = 0;
+		entries[top] = rootEntry;
+		top++;
+
+		int[] closest = new int[meshPacket.lanes];
+		Arrays.fill(closest, -1);
+		double[] beta = new double[meshPacket.lanes];
+		double[] gamma = new double[meshPacket.lanes];
+		double tMax = meshPacket.maxTMax();
+		while (top > 0) {
+			top--;
+			int node = stack[top];
+			if (entries[top] >= tMax) {
+				continue;
+			}
+			if (isLeaf(node)) {
+				int end = offsets[node] + counts[node];
+				double[] vertices = mesh.getVertices();
+				for (int i = offsets[node]; i < end; i++) {
+					kernel.intersect(vertices, i, meshPacket, closest, beta, gamma);
+				}
+				tMax = meshPacket.maxTMax();
+			} else {
+				int near = node + 1;
+				int far = offsets[node];
+				double nearEntry = kernel.slabEntry(bounds, near, meshPacket);
+				double farEntry = kernel.slabEntry(bounds, far, meshPacket);
+				if (farEntry < nearEntry) {
+					int tmp = near; near = far; far = tmp;
+					double tmpEntry = nearEntry; nearEntry = farEntry; farEntry = tmpEntry;
+				}
+				if (farEntry < tMax) {
+					stack[top] = far;
+					entries[top] = farEntry;
+					top++;
+				}
+				if (nearEntry < tMax) {
+					stack[top] = near;
+					entries[top] = nearEntry;
+					top++;
+				}
+			}
+		}
+		for (int k = 0; k < packet.size; k++) {
+			if (closest[k] >= 0) {
+				Intersection hit = mesh.createHit(closest[k], meshPacket.origin(k),
+						meshPacket.direction(k), meshPacket.tMax[k], beta[k], gamma[k]);
+				packet.setHit(k, hit, meshPacket.tMax[k]);
+			}
+		}
+	}
+
+	/**
+	 * Any hit query, traversal stops at the first triangle that blocks the ray.
+	 * @param ray the ray in world coordinates.
+	 * @param maxDistance blockers at or beyond this ray parameter are ignored.
+	 * @return true when the ray is blocked.
+	 */
+	@Override
+	public boolean occluded(Ray ray, double maxDistance) {
+		if (this.nodeCount == 0) {
+			return false;
+		}
+
+		Ray rayInv = this.toMeshSpace(ray);
+		Point ro = rayInv.origin;
+		Vector rd = rayInv.direction;
+		double ox = ro.x; double oy = ro.y; double oz = ro.z;
+		double ix = rayInv.invX; double iy = rayInv.invY; double iz = rayInv.invZ;
+		double tMin = rayInv.getTMin();
+
+		int[] stack = new int[this.maxDepth + 1];
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			ray.countIntersection();
+			if (nodeEntry(node, ox, oy, oz, ix, iy, iz, tMin) >= maxDistance) {
+				continue;
+			}
+			if (isLeaf(node)) {
+				int end = offsets[node] + counts[node];
+				for (int i = offsets[node]; i < end; i++) {
+					ray.countIntersection();
+					if (mesh.intersect(i, ro, rd, tMin, maxDistance, null) != Double.POSITIVE_INFINITY) {
+						return true;
+					}
+				}
+			} else {
+				stack[top++] = offsets[node];
+				stack[top++] = node + 1;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Estimate the traversal cost of the tree with the surface area heuristic.
+	 * Every node is weighted with the probability that a random ray hitting
+	 * the root also hits the node.
+	 * @return the expected cost of a ray hitting the root, in triangle tests.
+	 */
+	public double sahCost() {
+		if (this.nodeCount == 0) {
+			return 0.0;
+		}
+		double rootArea = BinnedSahBuilder.surfaceArea(bounds, 0);
+		double cost = 0.0;
+		for (int node = 0; node < this.nodeCount; node++) {
+			double p = BinnedSahBuilder.surfaceArea(bounds, 6 * node) / rootArea;
+			if (isLeaf(node)) {
+				cost = cost + p * counts[node];
+			} else {
+				cost = cost + p * BinnedSahBuilder.traversalCost;
+			}
+		}
+		return cost;
+	}
+
+	/**
+	 * Recompute the node bounds bottom up after the triangles of the mesh
+	 * moved. The topology of the tree is kept, so the tree gets worse the
+	 * further the triangles move from where they were when it was built.
+	 * @return the surface area cost of the refit tree relative to the cost
+	 * 			the tree had when it was built.
+	 */
+	public double refit() {
+		//children follow their parents in the depth first order.
+		double[] box = new double[6];
+		for (int node = this.nodeCount - 1; node >= 0; node--) {
+			int b = 6 * node;
+			for (int k = 0; k < 3; k++) {
+				bounds[b + k] = Double.POSITIVE_INFINITY;
+				bounds[b + 3 + k] = Double.NEGATIVE_INFINITY;
+			}
+			if (isLeaf(node)) {
+				int end = offsets[node] + counts[node];
+				for (int i = offsets[node]; i < end; i++) {
+					mesh.bounds(i, box, 0);
+					grow(node, box, 0);
+				}
+			} else {
+				grow(node, bounds, 6 * (node + 1));
+				grow(node, bounds, 6 * offsets[node]);
+			}
+		}
+		if (this.builtCost <= 0.0) {
+			return 1.0;
+		}
+		return this.sahCost() / this.builtCost;
+	}
+
+	private void grow(int node, double[] box, int b) {
+		for (int k = 0; k < 3; k++) {
+			bounds[6 * node + k] = Math.min(bounds[6 * node + k], box[b + k]);
+			bounds[6 * node + 3 + k] = Math.max(bounds[6 * node + 3 + k], box[b + 3 + k]);
+		}
+	}
+
+	/**
+	 * Build a new binned tree over the current triangles of this tree.
+	 * @param maxDepth the maximum depth of the new tree.
+	 * @return the new tree, the mesh of this tree is not changed.
+	 */
+	public LinearBvh rebuild(int maxDepth) {
+		double[] primBounds = new double[6 * mesh.size];
+		for (int i = 0; i < mesh.size; i++) {
+			mesh.bounds(i, primBounds, 6 * i);
+		}
+		BinnedSahBuilder builder = new BinnedSahBuilder(primBounds);
+		builder.buildNodes(maxDepth);
+		int[] order = builder.primitiveOrder();
+		LinearBvh tree = new LinearBvh(builder.nodeBounds(), builder.nodeOffsets(), builder.nodeCounts(),
+				mesh.reorder(order));
+		//the copies of split triangles stay in the mesh, so does their source.
+		if (this.triangleIds != null) {
+			tree.triangleIds = new int[order.length];
+			for (int i = 0; i < order.length; i++) {
+				tree.triangleIds[i] = this.triangleIds[order[i]];
+			}
+		}
+		return tree;
+	}
+
+	/**
+	 * @return the lower corner of the root node.
+	 */
+	public Point getMin() {
+		return new Point(bounds[0], bounds[1], bounds[2]);
+	}
+
+	/**
+	 * @return the upper corner of the root node.
+	 */
+	public Point getMax() {
+		return new Point(bounds[3], bounds[4], bounds[5]);
+	}
+
+	/**
+	 * @return the packed triangles of the tree.
+	 */
+	public PackedMesh getMesh() {
+		return mesh;
+	}
+}
@@ -3,13 +3,10 @@ package acceleration;
 import java.util.ArrayList;
 import java.util.List;
 
-import camera.Camera;
-import math.Constants;
 import math.Intersection;
 import math.Point;
 import math.Ray;
 import math.Transformation;
-import math.Vector;
 import shape.Triangle;
 
 public class MiddleSplitBox extends AxisAlignedBox {
@@ -22,12 +19,11 @@ public class MiddleSplitBox extends AxisAlignedBox {
 	 * @param p0 bottom position of the axis aligned box.
 	 * @param p1 top position of the axis aligned box
 	 * @param transformation matrix of the top level box.
-	 * @param cam the camera.
 	 * @param treeEpsilon tree generation epsilon.
 	 * @param objIntersEpsilon object intersection epsilon.
 	 */		
-	public MiddleSplitBox(Point p0, Point p1, Transformation transformation, Camera cam, double treeEps, double oEps) {
-		super(p0, p1, transformation, cam, treeEps, oEps);
+	public MiddleSplitBox(Point p0, Point p1, Transformation transformation, double treeEps, double oEps) {
+		super(p0, p1, transformation, treeEps, oEps);
 
 	}
 
@@ -128,11 +124,11 @@ public class MiddleSplitBox extends AxisAlignedBox {
 
 				}
 				this.left = new MiddleSplitBox(this.p0, pLeft,
-						this.transformation, this.cam, this.treeEpsilon, this.objIntersEpsilon);
+						this.transformation, this.treeEpsilon, this.objIntersEpsilon);
 				this.left.trianglesInBox = leftList;
 
 				this.right = new MiddleSplitBox(pRight, this.p1,
-						this.transformation, this.cam, this.treeEpsilon, this.objIntersEpsilon);
+						this.transformation, this.treeEpsilon, this.objIntersEpsilon);
 				this.right.trianglesInBox = rightList;
 				this.left.split(depth);
 				this.right.split(depth);
@@ -151,9 +147,7 @@ public class MiddleSplitBox extends AxisAlignedBox {
 	public List<Intersection> intersect(Ray ray) {
 			List<Intersection> hits = new ArrayList<Intersection>();
 
-			if (Constants.compVisualization){
-				ray.countIntersection();
-			}
+			ray.countIntersection();
 			
 			if (this.left != null)  {
 				if (this.left.intersectBool(ray)) {
@@ -176,102 +170,4 @@ public class MiddleSplitBox extends AxisAlignedBox {
 			return hits;
 		}
 
-	//@Override
-	public List<Intersection> intersectNew(Ray ray) {
-		List<Intersection> hits = new ArrayList<Intersection>();
-
-		if (Constants.compVisualization){
-			ray.countIntersection();
-		}
-		
-		if ((this.getLeft() != null) && (this.getRight() != null)) {
-			Point leftCenter = this.left.getCenter();
-			leftCenter = this.transformation.transform(leftCenter);
-			Point rightCenter = this.right.getCenter();
-			rightCenter = this.transformation.transform(rightCenter);
-			
-			Vector camPos = super.cam.getOrigin().toVector();
-
-			double leftDist = camPos.subtract(leftCenter.toVector()).length();
-			double rightDist = camPos.subtract(rightCenter.toVector()).length();
-			
-			//check if the distance is significant.
-			//if (false) {
-			if ((Math.abs(leftDist - rightDist)) > 0.1) {			
-				if (leftDist < rightDist){
-					if (this.left.intersectBool(ray)) {
-						hits.addAll(left.intersect(ray));
-					}
-					if (hits.isEmpty()) {
-						if (this.right.intersectBool(ray)) {
-							hits.addAll(right.intersect(ray));
-						}
-					} else {
-						boolean checkBox = false;
-						for(Intersection inter: hits ){
-							if (right.pointInBox(inter.point)) {
-								checkBox = true;
-							}
-						}
-						if (checkBox) {
-							if (this.right.intersectBool(ray)) {
-								hits.addAll(right.intersect(ray));
-							}
-						}
-					} 
-				} else {
-					if (this.right.intersectBool(ray)) {
-						hits.addAll(right.intersect(ray));
-					}
-					if (hits.isEmpty()) {
-						if (this.left.intersectBool(ray)) {
-							hits.addAll(left.intersect(ray));
-						}
-					} else {
-						boolean checkBox = false;
-						for(Intersection inter: hits ){
-							if (left.pointInBox(inter.point)) {
-								checkBox = true;
-							}
-						}
-						if (checkBox) {
-							if (this.left.intersectBool(ray)) {
-								hits.addAll(left.intersect(ray));
-							}
-						}
-					} 
-				}
-			} else {
-				if (this.right.intersectBool(ray)) {
-					hits.addAll(right.intersect(ray));
-				}
-				if (this.left.intersectBool(ray)) {
-					hits.addAll(left.intersect(ray));
-				}
-			} 
-		} 
-
-		if ((this.getLeft() != null) && (this.getRight() == null)) {
-			if (this.left.intersectBool(ray)) {
-				hits.addAll(left.intersect(ray));
-			}
-		}
-		if ((this.getRight() != null) && (this.getLeft() == null)) {
-			if (this.right.intersectBool(ray)) {
-				hits.addAll(right.intersect(ray));
-			}
-		}
-		if ((this.getLeft() == null) && (this.getRight() == null)) {
-			//maximum depth reached.
-			if (this.intersectBool(ray)){
-				for (Triangle tri :	this.trianglesInBox) {
-					hits.addAll(tri.intersect(ray));
-				}
-			}
-		}		
-		return hits;
-	}
-
 }
-
-
@@ -0,0 +1,58 @@
+package acceleration;
+
+/**
+ * The slab and triangle tests used by packet traversal. The vector kernel
+ * needs the incubating jdk.incubator.vector module, it is loaded by name so
+ * the renderer still runs with the scalar kernel when the module is missing.
+ */
+public abstract class PacketKernel {
+	private static final PacketKernel instance = load();
+
+	private static PacketKernel load() {
+		try {
+			Class<?> kernel = Class.forName("acceleration.VectorPacketKernel");
+			return (PacketKernel) kernel.getDeclaredConstructor().newInstance();
+		} catch (Exception e) {
+			return new ScalarPacketKernel();
+		} catch (LinkageError e) {
+			//the module was not added with --add-modules jdk.incubator.vector.
+			return new ScalarPacketKernel();
+		}
+	}
+
+	/**
+	 * @return the fastest kernel available on this virtual machine.
+	 */
+	public static PacketKernel get() {
+		return instance;
+	}
+
+	/**
+	 * @return a short description of the kernel.
+	 */
+	public abstract String getName();
+
+	/**
+	 * Slab test of a node against every lane of a packet.
+	 * @param bounds node bounds, six values per node.
+	 * @param node the node index.
+	 * @param packet the rays in the space of the bounds.
+	 * @return the smallest entry parameter of the lanes which enter the node
+	 * 			before their t-max, or positive infinity if no lane does.
+	 */
+	public abstract double slabEntry(double[] bounds, int node, RayPacket packet);
+
+	/**
+	 * Moeller-Trumbore test of one triangle against every lane of a packet.
+	 * Lanes with a closer hit get a new t-max, triangle index and barycentric
+	 * coordinates.
+	 * @param vertices packed triangles, first vertex and two edges per triangle.
+	 * @param tri the triangle index.
+	 * @param packet the rays in mesh space.
+	 * @param closest the closest triangle per lane.
+	 * @param beta barycentric coordinate of the second vertex per lane.
+	 * @param gamma barycentric coordinate of the third vertex per lane.
+	 */
+	public abstract void intersect(double[] vertices, int tri, RayPacket packet,
+			int[] closest, double[] beta, double[] gamma);
+}
@@ -9,7 +9,6 @@ import java.util.concurrent.TimeUnit;
 import math.Constants;
 import math.Point;
 import math.Transformation;
-import camera.Camera;
 
 public class ParallelSahBox extends SahBox {
 	public int maxDepth;
@@ -23,13 +22,12 @@ public class ParallelSahBox extends SahBox {
 	 * @param p0 bottom position of the axis aligned box.
 	 * @param p1 top position of the axis aligned box
 	 * @param transformation matrix of the top level box.
-	 * @param cam the camera.
 	 * @param treeEpsilon tree generation epsilon.
 	 * @param objIntersEpsilon object intersection epsilon.
 	 */	
 	public ParallelSahBox(Point p0, Point p1, Transformation transformation,
-			Camera cam, int maxDepth, int depth, ExecutorService service, double treeEpsilon, double objIntersEpsilon) {
-		super(p0, p1, transformation, cam, treeEpsilon, objIntersEpsilon);
+			int maxDepth, int depth, ExecutorService service, double treeEpsilon, double objIntersEpsilon) {
+		super(p0, p1, transformation, treeEpsilon, objIntersEpsilon);
 		this.maxDepth = maxDepth;
 		this.cores = Runtime.getRuntime().availableProcessors();
 
@@ -68,7 +66,7 @@ public class ParallelSahBox extends SahBox {
 					Point pSt = new Point(xSrt, this.p0.y, this.p0.z);
 					Point pEd = new Point(xEnd, this.p1.y, this.p1.z);
 					SahBox xBox = new ParallelSahBox(pSt,pEd,this.transformation,
-							this.cam, this.maxDepth, depth -1,
+							this.maxDepth, depth -1,
 							this.service, treeEpsilon, objIntersEpsilon); 
 
 					xBox.checkAndAdd(depth,trianglesInBox);
@@ -89,7 +87,7 @@ public class ParallelSahBox extends SahBox {
 					Point pEd = new Point(this.p1.x, yEnd, this.p1.z);
 
 					SahBox yBox = new ParallelSahBox(pSt,pEd,this.transformation,
-							this.cam, this.maxDepth, depth -1,
+							this.maxDepth, depth -1,
 							this.service, treeEpsilon, objIntersEpsilon);  
 
 					yBox.checkAndAdd(depth,trianglesInBox);
@@ -108,7 +106,7 @@ public class ParallelSahBox extends SahBox {
 					Point pSt = new Point(this.p0.x, this.p0.y, zSrt);
 					Point pEd = new Point(this.p1.x, this.p1.y, zEnd);
 					SahBox zBox= new ParallelSahBox(pSt,pEd,this.transformation,
-							this.cam, this.maxDepth, depth -1,
+							this.maxDepth, depth -1,
 							this.service, treeEpsilon, objIntersEpsilon);  
 
 					zBox.checkAndAdd(depth,trianglesInBox);
@@ -117,6 +115,7 @@ public class ParallelSahBox extends SahBox {
 				}
 			}
 
+			this.splitAxis = axis;
 			//Explore various box combinations.
 			SahBox lftBoxBest = null;
 			SahBox rgtBoxBest = null;
@@ -129,9 +128,9 @@ public class ParallelSahBox extends SahBox {
 
 			for (int i = 1; i < (cuts+1); i++){
 				//create large boxes. Dimensions will change according to assigned triangles.
-				SahBox lftBox = new ParallelSahBox(this.p0,this.p1,this.transformation,this.cam,
+				SahBox lftBox = new ParallelSahBox(this.p0,this.p1,this.transformation,
 						this.maxDepth, depth - 1,	this.service, treeEpsilon, objIntersEpsilon);
-				SahBox rgtBox = new ParallelSahBox(this.p0,this.p1,this.transformation,this.cam,
+				SahBox rgtBox = new ParallelSahBox(this.p0,this.p1,this.transformation,
 						this.maxDepth, depth - 1,	this.service, treeEpsilon, objIntersEpsilon);
 				for(AxisAlignedBox lftPartBox : boxes.subList(0, i)) {
 					lftBox.trianglesInBox.addAll(lftPartBox.trianglesInBox);
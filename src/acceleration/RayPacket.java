@@ -0,0 +1,169 @@
+package acceleration;
+
+import math.Intersection;
+import math.Point;
+import math.Ray;
+import math.Transformation;
+import math.Vector;
+import shape.ObjShape;
+import shape.Shape;
+
+/**
+ * A group of coherent rays traced together, usually the camera rays of
+ * neighbouring pixels. Origins, directions and inverse directions are stored
+ * per component, so the packet kernels can load several rays at once. The
+ * number of lanes is rounded up to a multiple of {@link #laneMultiple}, the
+ * padding lanes can never hit anything.
+ */
+public class RayPacket {
+	/**
+	 * Lane counts are multiples of this, the widest double vector holds eight lanes.
+	 */
+	public static final int laneMultiple = 8;
+
+	/**
+	 * The number of rays in the packet.
+	 */
+	public final int size;
+
+	/**
+	 * The number of lanes including the padding.
+	 */
+	public final int lanes;
+
+	public final double[] ox, oy, oz;
+	public final double[] dx, dy, dz;
+	public final double[] ix, iy, iz;
+
+	/**
+	 * The largest ray parameter of interest per lane, shared between a packet
+	 * and its mesh space copies.
+	 */
+	public final double[] tMax;
+
+	/**
+	 * The smallest ray parameter of interest per lane.
+	 */
+	public final double[] tMin;
+
+	/**
+	 * The rays of the packet in world coordinates.
+	 */
+	public final Ray[] rays;
+
+	/**
+	 * The closest intersection found so far per ray, null for misses.
+	 */
+	public final Intersection[] hits;
+
+	/**
+	 * Create a packet from a set of world space rays.
+	 * @param rays at least one ray.
+	 */
+	public RayPacket(Ray[] rays) {
+		if (rays.length == 0) {
+			throw new IllegalArgumentException("A packet needs at least one ray.");
+		}
+		this.size = rays.length;
+		this.lanes = ((this.size + laneMultiple - 1) / laneMultiple) * laneMultiple;
+		this.rays = rays;
+		this.hits = new Intersection[this.size];
+		this.tMax = new double[this.lanes];
+		this.tMin = new double[this.lanes];
+		this.ox = new double[lanes]; this.oy = new double[lanes]; this.oz = new double[lanes];
+		this.dx = new double[lanes]; this.dy = new double[lanes]; this.dz = new double[lanes];
+		this.ix = new double[lanes]; this.iy = new double[lanes]; this.iz = new double[lanes];
+		for (int k = 0; k < this.lanes; k++) {
+			Ray ray = rays[(k < this.size) ? k : 0];
+			this.setLane(k, ray);
+			this.tMin[k] = ray.getTMin();
+			//padding lanes repeat the first ray but accept no hits.
+			this.tMax[k] = (k < this.size) ? ray.getTMax() : Double.NEGATIVE_INFINITY;
+		}
+	}
+
+	/**
+	 * Copy a packet into the space of a mesh, the ray parameters and hits are shared.
+	 */
+	private RayPacket(RayPacket world, Transformation transformation) {
+		this.size = world.size;
+		this.lanes = world.lanes;
+		this.rays = world.rays;
+		this.hits = world.hits;
+		this.tMax = world.tMax;
+		this.tMin = world.tMin;
+		this.ox = new double[lanes]; this.oy = new double[lanes]; this.oz = new double[lanes];
+		this.dx = new double[lanes]; this.dy = new double[lanes]; this.dz = new double[lanes];
+		this.ix = new double[lanes]; this.iy = new double[lanes]; this.iz = new double[lanes];
+		for (int k = 0; k < this.lanes; k++) {
+			Ray ray = transformation.transformInverse(world.rays[(k < this.size) ? k : 0]);
+			this.setLane(k, ray);
+		}
+	}
+
+	private void setLane(int k, Ray ray) {
+		ox[k] = ray.origin.x; oy[k] = ray.origin.y; oz[k] = ray.origin.z;
+		dx[k] = ray.direction.x; dy[k] = ray.direction.y; dz[k] = ray.direction.z;
+		ix[k] = ray.invX; iy[k] = ray.invY; iz[k] = ray.invZ;
+	}
+
+	/**
+	 * @param transformation the transformation of a mesh.
+	 * @return the packet in mesh space, the packet itself for the identity.
+	 */
+	public RayPacket toMeshSpace(Transformation transformation) {
+		if (transformation == Transformation.IDENTITY) {
+			return this;
+		}
+		return new RayPacket(this, transformation);
+	}
+
+	public Point origin(int lane) {
+		return new Point(ox[lane], oy[lane], oz[lane]);
+	}
+
+	public Vector direction(int lane) {
+		return new Vector(dx[lane], dy[lane], dz[lane]);
+	}
+
+	/**
+	 * @return the largest t-max of all rays.
+	 */
+	public double maxTMax() {
+		double max = Double.NEGATIVE_INFINITY;
+		for (int k = 0; k < this.size; k++) {
+			max = Math.max(max, tMax[k]);
+		}
+		return max;
+	}
+
+	/**
+	 * Store a closer hit of a ray.
+	 * @param lane the ray index.
+	 * @param hit the new closest intersection.
+	 * @param t its ray parameter.
+	 */
+	public void setHit(int lane, Intersection hit, double t) {
+		this.hits[lane] = hit;
+		this.tMax[lane] = t;
+		this.rays[lane].setTMax(t);
+	}
+
+	/**
+	 * Intersect a shape with all rays. Meshes with a flat tree are traversed
+	 * by the whole packet, other shapes ray by ray.
+	 * @param shape the shape to test.
+	 */
+	public void intersect(Shape shape) {
+		if (shape instanceof ObjShape) {
+			((ObjShape) shape).intersectClosest(this);
+			return;
+		}
+		for (int k = 0; k < this.size; k++) {
+			Intersection hit = shape.intersectClosest(this.rays[k]);
+			if (hit != null) {
+				this.setHit(k, hit, this.rays[k].getTMax());
+			}
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package acceleration;
+
+import java.util.Arrays;
+
+/**
+ * The object split search of the binned surface area heuristic, shared by
+ * the tree builders, together with the helpers on six value bounds they
+ * use. Primitives are counted into centroid bins along one axis at a
+ * time, a sweep over the bins then keeps the cheapest split found over all
+ * axes of a node. It is scratch space, every thread building nodes needs
+ * its own.
+ */
+final class SahBins {
+	final int bins;
+	private final int[] binCounts;
+	private final double[] binBounds;
+	private final int[] rightCounts;
+	private final double[] rightBoxes;
+
+	/**
+	 * Bounds of the centroids of the node being split.
+	 */
+	final double[] centroidBounds = new double[6];
+
+	/**
+	 * The cheapest split since the last reset, axis is -1 if none was found.
+	 * A split after bin puts bins 0..bin on the left.
+	 */
+	double cost;
+	int axis;
+	int bin;
+
+	/**
+	 * Bounds of the two sides of the cheapest split.
+	 */
+	final double[] leftBox = new double[6];
+	final double[] rightBox = new double[6];
+
+	SahBins(int bins) {
+		this.bins = bins;
+		this.binCounts = new int[bins];
+		this.binBounds = new double[6 * bins];
+		this.rightCounts = new int[bins];
+		this.rightBoxes = new double[6 * bins];
+		this.reset();
+	}
+
+	/**
+	 * Forget the cheapest split, before the axes of a new node are searched.
+	 */
+	void reset() {
+		this.cost = Double.POSITIVE_INFINITY;
+		this.axis = -1;
+		this.bin = -1;
+	}
+
+	/**
+	 * Empty the bins, before the primitives are counted along the next axis.
+	 */
+	void clear() {
+		Arrays.fill(binCounts, 0);
+		for (int b = 0; b < bins; b++) {
+			setEmpty(binBounds, 6 * b);
+		}
+	}
+
+	/**
+	 * @return the bin of a centroid, centroids outside the range are clamped.
+	 */
+	int binOf(double centroid, double min, double scale) {
+		int b = (int) ((centroid - min) * scale);
+		return Math.min(Math.max(b, 0), bins - 1);
+	}
+
+	/**
+	 * Count a primitive into a bin and grow the bin around its bounds.
+	 * @param bounds the bounds of the primitive at bounds[b].
+	 */
+	void add(int bin, double[] bounds, int b) {
+		binCounts[bin] = binCounts[bin] + 1;
+		grow(binBounds, 6 * bin, bounds, b);
+	}
+
+	/**
+	 * Sweep the filled bins of an axis and keep the cheapest split along it
+	 * if it is cheaper than the one found so far.
+	 * @param nodeArea the surface area of the node being split.
+	 */
+	void sweep(int axis, double nodeArea) {
+		//sweep from the right to get the bounds of every right side.
+		double[] acc = emptyBounds();
+		int rightCount = 0;
+		for (int b = bins - 1; b > 0; b--) {
+			grow(acc, 0, binBounds, 6 * b);
+			rightCount = rightCount + binCounts[b];
+			rightCounts[b] = rightCount;
+			System.arraycopy(acc, 0, rightBoxes, 6 * b, 6);
+		}
+		//sweep from the left, a split after bin b puts bins 0..b on the left.
+		setEmpty(acc, 0);
+		int leftCount = 0;
+		for (int b = 0; b < bins - 1; b++) {
+			grow(acc, 0, binBounds, 6 * b);
+			leftCount = leftCount + binCounts[b];
+			if ((leftCount == 0) || (rightCounts[b + 1] == 0)) {
+				continue;
+			}
+			double cost = BinnedSahBuilder.traversalCost + (leftCount * BinnedSahBuilder.surfaceArea(acc, 0)
+					+ rightCounts[b + 1] * BinnedSahBuilder.surfaceArea(rightBoxes, 6 * (b + 1))) / nodeArea;
+			if (cost < this.cost) {
+				this.cost = cost;
+				this.axis = axis;
+				this.bin = b;
+				System.arraycopy(acc, 0, leftBox, 0, 6);
+				System.arraycopy(rightBoxes, 6 * (b + 1), rightBox, 0, 6);
+			}
+		}
+	}
+
+	static double[] emptyBounds() {
+		double[] box = new double[6];
+		setEmpty(box, 0);
+		return box;
+	}
+
+	static void setEmpty(double[] box, int b) {
+		for (int k = 0; k < 3; k++) {
+			box[b + k] = Double.POSITIVE_INFINITY;
+			box[b + 3 + k] = Double.NEGATIVE_INFINITY;
+		}
+	}
+
+	/**
+	 * Grow the bounds at dst[d] around the bounds at src[s].
+	 */
+	static void grow(double[] dst, int d, double[] src, int s) {
+		for (int k = 0; k < 3; k++) {
+			dst[d + k] = Math.min(dst[d + k], src[s + k]);
+			dst[d + 3 + k] = Math.max(dst[d + 3 + k], src[s + 3 + k]);
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package acceleration;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import shape.Triangle;
@@ -9,12 +10,14 @@ import math.Intersection;
 import math.Point;
 import math.Ray;
 import math.Transformation;
-import math.Vector;
-import camera.Camera;
 
 public class SahBox extends AxisAlignedBox  {
 	public SahBox left = null;
 	public SahBox right = null;
+	/** The axis of the last split, decides which child a ray enters first. */
+	public char splitAxis = 'x';
+	/** initial traversal stack size, grows for deeper trees. */
+	private static final int STACK_SIZE = 64;
 
 	/**
 	 * Create an axis aligned box with an acceleration structure generated
@@ -22,12 +25,11 @@ public class SahBox extends AxisAlignedBox  {
 	 * @param p0 bottom position of the axis aligned box.
 	 * @param p1 top position of the axis aligned box
 	 * @param transformation matrix of the top level box.
-	 * @param cam the camera.
 	 * @param treeEpsilon tree generation epsilon.
 	 * @param objIntersEpsilon object intersection epsilon.
 	 */	
-	public SahBox(Point p0, Point p1, Transformation transformation, Camera cam, double treeEps, double objEps) {
-		super(p0, p1, transformation, cam, treeEps, objEps);
+	public SahBox(Point p0, Point p1, Transformation transformation, double treeEps, double objEps) {
+		super(p0, p1, transformation, treeEps, objEps);
 	}
 	
 	/**
@@ -60,7 +62,7 @@ public class SahBox extends AxisAlignedBox  {
 						
 						Point pSt = new Point(xSrt, this.p0.y, this.p0.z);
 						Point pEd = new Point(xEnd, this.p1.y, this.p1.z);
-						SahBox xBox = new SahBox(pSt,pEd,this.transformation,this.cam,
+						SahBox xBox = new SahBox(pSt,pEd,this.transformation,
 											this.treeEpsilon, this.objIntersEpsilon); 
 
 						xBox.checkAndAdd(depth, trianglesInBox);
@@ -80,7 +82,7 @@ public class SahBox extends AxisAlignedBox  {
 						Point pSt = new Point(this.p0.x, ySrt, this.p0.z);
 						Point pEd = new Point(this.p1.x, yEnd, this.p1.z);
 						
-						SahBox yBox = new SahBox(pSt,pEd,this.transformation,this.cam,
+						SahBox yBox = new SahBox(pSt,pEd,this.transformation,
 											this.treeEpsilon, this.objIntersEpsilon); 
 
 						yBox.checkAndAdd(depth, trianglesInBox);
@@ -98,7 +100,7 @@ public class SahBox extends AxisAlignedBox  {
 						
 						Point pSt = new Point(this.p0.x, this.p0.y, zSrt);
 						Point pEd = new Point(this.p1.x, this.p1.y, zEnd);
-						SahBox zBox= new SahBox(pSt,pEd,this.transformation,this.cam,
+						SahBox zBox= new SahBox(pSt,pEd,this.transformation,
 								this.treeEpsilon, this.objIntersEpsilon); 
 
 						zBox.checkAndAdd(depth, trianglesInBox);
@@ -107,6 +109,7 @@ public class SahBox extends AxisAlignedBox  {
 					}
 				}
 				
+				this.splitAxis = axis;
 				//Explore various box combinations.
 				SahBox lftBoxBest = null;
 				SahBox rgtBoxBest = null;
@@ -119,9 +122,9 @@ public class SahBox extends AxisAlignedBox  {
 				
 				for (int i = 1; i < (cuts+1); i++){
 					//create large boxes. Dimensions will change according to assigned triangles.
-					SahBox lftBox = new SahBox(this.p0,this.p1,this.transformation,this.cam,
+					SahBox lftBox = new SahBox(this.p0,this.p1,this.transformation,
 							this.treeEpsilon, this.objIntersEpsilon);
-					SahBox rgtBox = new SahBox(this.p0,this.p1,this.transformation,this.cam, 
+					SahBox rgtBox = new SahBox(this.p0,this.p1,this.transformation, 
 							this.treeEpsilon, this.objIntersEpsilon);
 					for(AxisAlignedBox lftPartBox : boxes.subList(0, i)) {
 						lftBox.trianglesInBox.addAll(lftPartBox.trianglesInBox);
@@ -198,7 +201,7 @@ public class SahBox extends AxisAlignedBox  {
 				adjP0 = new Point(this.p0.x, this.p0.y, minZ);
 				adjP1 = new Point(this.p1.x, this.p1.y, maxZ);
 			}
-			SahBox fixedBox = new SahBox(adjP0,adjP1,this.transformation,this.cam, 
+			SahBox fixedBox = new SahBox(adjP0,adjP1,this.transformation, 
 					this.treeEpsilon, this.objIntersEpsilon);
 			fixedBox.trianglesInBox.addAll(this.trianglesInBox);
 			return fixedBox;
@@ -208,117 +211,167 @@ public class SahBox extends AxisAlignedBox  {
 	}
 
 	/**
-	 * Intersect this box with a ray.
+	 * Check if the left child is the near child for a ray. The left child
+	 * holds the lower part of the split axis, a ray pointing in positive 
+	 * direction along that axis reaches it first.
+	 * @param local the ray in box coordinates.
+	 * @return true if the left child should be visited first.
+	 */
+	private boolean leftFirst(Ray local) {
+		if (this.splitAxis == 'x') {
+			return local.signX == 0;
+		} else if (this.splitAxis == 'y') {
+			return local.signY == 0;
+		} else {
+			return local.signZ == 0;
+		}
+	}
+
+	/**
+	 * Intersect this box with a ray. The tree is walked with an explicit
+	 * stack, the near child on the split axis is visited first.
 	 * @param ray the ray to intersect the box with.
 	 * @return list of found intersections.
 	 */	
 	@Override
 	public List<Intersection> intersect(Ray ray) {
 		List<Intersection> hits = new ArrayList<Intersection>();
+		Ray local = this.transformation.transformInverse(ray);
 
-		if (Constants.compVisualization){
+		SahBox[] stack = new SahBox[STACK_SIZE];
+		int top = 0;
+		stack[top++] = this;
+		while (top > 0) {
+			SahBox box = stack[--top];
 			ray.countIntersection();
+			if (box.localEntry(local) == Double.POSITIVE_INFINITY) {
+				continue;
+			}
+			if ((box.left == null) && (box.right == null)) {
+				//maximum depth reached.
+				for (Triangle tri :	box.trianglesInBox) {
+					hits.addAll(tri.intersect(ray));
+				}
+			} else {
+				if (top + 2 > stack.length) {
+					stack = Arrays.copyOf(stack, 2 * stack.length);
+				}
+				SahBox near = box.left;
+				SahBox far = box.right;
+				if (box.leftFirst(local) == false) {
+					near = box.right;
+					far = box.left;
+				}
+				if (far != null) {
+					stack[top++] = far;
+				}
+				if (near != null) {
+					stack[top++] = near;
+				}
+			}
 		}
-		
-		if ((this.left != null) && (this.right != null)) {
-			Point leftCenter = this.left.getCenter();
-			leftCenter = this.transformation.transform(leftCenter);
-			Point rightCenter = this.right.getCenter();
-			rightCenter = this.transformation.transform(rightCenter);
-
-			Vector camPos = super.cam.getOrigin().toVector();
+		return hits;
+	}
+	
+	
+	/**
+	 * Find the closest intersection of this box with a ray. The near child
+	 * on the split axis is visited first and boxes entered beyond the
+	 * closest hit found so far are skipped when they come off the stack.
+	 * @param ray the ray to intersect the box with, its t-max shrinks with every hit.
+	 * @return the closest intersection or null.
+	 */
+	@Override
+	public Intersection intersectClosest(Ray ray) {
+		Ray local = this.transformation.transformInverse(ray);
 
-			double leftDist = camPos.subtract(leftCenter.toVector()).lengthSquared();
-			double rightDist = camPos.subtract(rightCenter.toVector()).lengthSquared();
-			
-			if (Math.abs(leftDist - rightDist) > this.objIntersEpsilon) {
-				if (leftDist < rightDist){
-					if (this.left.intersectBool(ray)) {
-						hits.addAll(left.intersect(ray));
-					}
-					if (hits.isEmpty()) {
-						if (this.right.intersectBool(ray)) {
-							hits.addAll(right.intersect(ray));
-						}
-					} else {
-						boolean checkBox = false;
-						for(Intersection inter: hits ){
-							if (right.pointInBox(inter.point)) {
-								checkBox = true;
-							}
-						}
-						if (checkBox) {
-							if (this.right.intersectBool(ray)) {
-								hits.addAll(right.intersect(ray));
-							}
-						}
-					} 
-				} else {
-					if (this.right.intersectBool(ray)) {
-						hits.addAll(right.intersect(ray));
+		Intersection closest = null;
+		SahBox[] stack = new SahBox[STACK_SIZE];
+		int top = 0;
+		stack[top++] = this;
+		while (top > 0) {
+			SahBox box = stack[--top];
+			ray.countIntersection();
+			if ((box.localEntry(local) < ray.getTMax()) == false) {
+				continue;
+			}
+			if ((box.left == null) && (box.right == null)) {
+				//maximum depth reached.
+				for (Triangle tri :	box.trianglesInBox) {
+					Intersection hit = tri.intersectClosest(ray);
+					if (hit != null) {
+						closest = hit;
 					}
-					//if (true) {
-					if (hits.isEmpty()) {
-						if (this.left.intersectBool(ray)) {
-							hits.addAll(left.intersect(ray));
-						}
-					} else {
-						boolean checkBox = false;
-						for(Intersection inter: hits ){
-							if (left.pointInBox(inter.point)) {
-								checkBox = true;
-							}
-						}
-						if (checkBox) {
-							if (this.left.intersectBool(ray)) {
-								hits.addAll(left.intersect(ray));
-							}
-						}
-					} 
 				}
-		} else {
-			if (this.left != null)  {
-				if (this.left.intersectBool(ray)) {
-					hits.addAll(left.intersect(ray));
+			} else {
+				if (top + 2 > stack.length) {
+					stack = Arrays.copyOf(stack, 2 * stack.length);
 				}
-			}
-			if (this.right != null) {
-				if (this.right.intersectBool(ray)) {
-					hits.addAll(right.intersect(ray));
+				SahBox near = box.left;
+				SahBox far = box.right;
+				if (box.leftFirst(local) == false) {
+					near = box.right;
+					far = box.left;
+				}
+				if (far != null) {
+					stack[top++] = far;
+				}
+				if (near != null) {
+					stack[top++] = near;
 				}
 			}
 		}
-			
-		}
+		return closest;
+	}
+	
+	/**
+	 * Any hit query, returns as soon as the first blocking triangle is found.
+	 */
+	@Override
+	public boolean occluded(Ray ray, double maxDistance) {
+		Ray local = this.transformation.transformInverse(ray);
 
-		if ((this.left != null) && (this.right == null)) {
-			if (this.left.intersectBool(ray)) {
-				hits.addAll(left.intersect(ray));
-			}
-		}
-		if ((this.right != null) && (this.left == null)) {
-			if (this.right.intersectBool(ray)) {
-				hits.addAll(right.intersect(ray));
+		SahBox[] stack = new SahBox[STACK_SIZE];
+		int top = 0;
+		stack[top++] = this;
+		while (top > 0) {
+			SahBox box = stack[--top];
+			ray.countIntersection();
+			if ((box.localEntry(local) < maxDistance) == false) {
+				continue;
 			}
-		}
-		if ((this.left == null) && (this.right == null)) {
-			//maximum depth reached.
-			if (this.intersectBool(ray)){
-				for (Triangle tri :	this.trianglesInBox) {
-					hits.addAll(tri.intersect(ray));
+			if ((box.left == null) && (box.right == null)) {
+				//maximum depth reached.
+				for (Triangle tri :	box.trianglesInBox) {
+					if (tri.occluded(ray, maxDistance)) {
+						return true;
+					}
+				}
+			} else {
+				if (top + 2 > stack.length) {
+					stack = Arrays.copyOf(stack, 2 * stack.length);
+				}
+				SahBox near = box.left;
+				SahBox far = box.right;
+				if (box.leftFirst(local) == false) {
+					near = box.right;
+					far = box.left;
+				}
+				if (far != null) {
+					stack[top++] = far;
+				}
+				if (near != null) {
+					stack[top++] = near;
 				}
 			}
-		}		
-		return hits;
+		}
+		return false;
 	}
 	
-	
 	public List<Intersection> intersectOld(Ray ray) {
 		List<Intersection> hits = new ArrayList<Intersection>();
 
-		if (Constants.compVisualization){
-			ray.countIntersection();
-		}
+		ray.countIntersection();
 		
 		if (this.left != null)  {
 			if (this.left.intersectBool(ray)) {
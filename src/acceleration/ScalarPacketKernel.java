@@ -0,0 +1,64 @@
+package acceleration;
+
+/**
+ * Packet kernel which runs the single ray tests lane by lane.
+ */
+public class ScalarPacketKernel extends PacketKernel {
+
+	@Override
+	public String getName() {
+		return "scalar";
+	}
+
+	@Override
+	public double slabEntry(double[] bounds, int node, RayPacket packet) {
+		double entry = Double.POSITIVE_INFINITY;
+		for (int k = 0; k < packet.lanes; k++) {
+			double t = LinearBvh.slabEntry(bounds, node, packet.ox[k], packet.oy[k], packet.oz[k],
+					packet.ix[k], packet.iy[k], packet.iz[k], packet.tMin[k]);
+			if ((t < packet.tMax[k]) && (t < entry)) {
+				entry = t;
+			}
+		}
+		return entry;
+	}
+
+	@Override
+	public void intersect(double[] vertices, int tri, RayPacket packet,
+			int[] closest, double[] beta, double[] gamma) {
+		int v = 9 * tri;
+		double v0x = vertices[v];     double v0y = vertices[v + 1]; double v0z = vertices[v + 2];
+		double e1x = vertices[v + 3]; double e1y = vertices[v + 4]; double e1z = vertices[v + 5];
+		double e2x = vertices[v + 6]; double e2y = vertices[v + 7]; double e2z = vertices[v + 8];
+		for (int k = 0; k < packet.lanes; k++) {
+			double dx = packet.dx[k]; double dy = packet.dy[k]; double dz = packet.dz[k];
+			double px = dy * e2z - dz * e2y;
+			double py = dz * e2x - dx * e2z;
+			double pz = dx * e2y - dy * e2x;
+			double det = e1x * px + e1y * py + e1z * pz;
+			if (det == 0.0) {
+				continue;
+			}
+			double invDet = 1.0 / det;
+			double sx = packet.ox[k] - v0x; double sy = packet.oy[k] - v0y; double sz = packet.oz[k] - v0z;
+			double b = (sx * px + sy * py + sz * pz) * invDet;
+			if ((b < 0.0) || (b > 1.0)) {
+				continue;
+			}
+			double qx = sy * e1z - sz * e1y;
+			double qy = sz * e1x - sx * e1z;
+			double qz = sx * e1y - sy * e1x;
+			double g = (dx * qx + dy * qy + dz * qz) * invDet;
+			if ((g < 0.0) || (b + g > 1.0)) {
+				continue;
+			}
+			double t = (e2x * qx + e2y * qy + e2z * qz) * invDet;
+			if ((t >= packet.tMin[k]) && (t < packet.tMax[k])) {
+				packet.tMax[k] = t;
+				closest[k] = tri;
+				beta[k] = b;
+				gamma[k] = g;
+			}
+		}
+	}
+}
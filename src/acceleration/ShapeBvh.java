@@ -0,0 +1,345 @@
+package acceleration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import math.Constants;
+import math.Intersection;
+import math.Point;
+import math.Ray;
+import shape.Bounded;
+import shape.Shape;
+
+/**
+ * Top level bounding volume hierarchy over the shapes of a scene. Meshes keep
+ * their own trees, only their world space bounds are used here. Shapes
+ * without finite bounds, like planes, are kept in a separate list and are
+ * tested for every ray.
+ */
+public class ShapeBvh implements Shape {
+	/**
+	 * Depth limit of the scene tree.
+	 */
+	private static final int maxTreeDepth = 64;
+
+	/**
+	 * Node bounds in world coordinates, six values per node.
+	 */
+	protected final double[] bounds;
+
+	/**
+	 * For interior nodes the index of the second child, for leaves the
+	 * offset of the first shape in the shape array.
+	 */
+	protected final int[] offsets;
+
+	/**
+	 * The number of shapes in a leaf, zero for interior nodes.
+	 */
+	protected final int[] counts;
+
+	/**
+	 * The bounded shapes, ordered such that every leaf references a contiguous range.
+	 */
+	protected final Shape[] shapes;
+
+	/**
+	 * Shapes without bounds.
+	 */
+	public final List<Shape> unbounded = new ArrayList<Shape>();
+
+	public final int nodeCount;
+	public final int maxDepth;
+
+	/**
+	 * Build a scene tree.
+	 * @param shapeList all shapes of the scene.
+	 */
+	public ShapeBvh(List<Shape> shapeList) {
+		List<Shape> bounded = new ArrayList<Shape>();
+		List<Point[]> boxes = new ArrayList<Point[]>();
+		for (Shape shape : shapeList) {
+			Point[] box = null;
+			if (shape instanceof Bounded) {
+				box = ((Bounded) shape).getWorldBounds();
+			}
+			if (box == null) {
+				this.unbounded.add(shape);
+			} else {
+				bounded.add(shape);
+				boxes.add(box);
+			}
+		}
+
+		//pad the boxes, flat shapes would otherwise be missed due to rounding.
+		double pad = Constants.epsilon;
+		double[] primBounds = new double[6 * bounded.size()];
+		for (int i = 0; i < bounded.size(); i++) {
+			Point[] box = boxes.get(i);
+			primBounds[6 * i]     = box[0].x - pad; primBounds[6 * i + 1] = box[0].y - pad; primBounds[6 * i + 2] = box[0].z - pad;
+			primBounds[6 * i + 3] = box[1].x + pad; primBounds[6 * i + 4] = box[1].y + pad; primBounds[6 * i + 5] = box[1].z + pad;
+		}
+		BinnedSahBuilder builder = new BinnedSahBuilder(primBounds);
+		builder.buildNodes(maxTreeDepth);
+		this.bounds = builder.nodeBounds();
+		this.offsets = builder.nodeOffsets();
+		this.counts = builder.nodeCounts();
+		this.nodeCount = this.counts.length;
+
+		int[] order = builder.primitiveOrder();
+		this.shapes = new Shape[order.length];
+		for (int i = 0; i < order.length; i++) {
+			this.shapes[i] = bounded.get(order[i]);
+		}
+		this.maxDepth = this.depth(0);
+	}
+
+	private int depth(int node) {
+		if ((this.nodeCount == 0) || isLeaf(node)) {
+			return 1;
+		}
+		return 1 + Math.max(depth(node + 1), depth(offsets[node]));
+	}
+
+	/**
+	 * Recompute the node bounds after shapes of the scene moved or were
+	 * deformed, the tree keeps its topology.
+	 */
+	public void refit() {
+		double pad = Constants.epsilon;
+		for (int node = this.nodeCount - 1; node >= 0; node--) {
+			int b = 6 * node;
+			for (int k = 0; k < 3; k++) {
+				bounds[b + k] = Double.POSITIVE_INFINITY;
+				bounds[b + 3 + k] = Double.NEGATIVE_INFINITY;
+			}
+			if (isLeaf(node)) {
+				int end = offsets[node] + counts[node];
+				for (int i = offsets[node]; i < end; i++) {
+					Point[] box = ((Bounded) shapes[i]).getWorldBounds();
+					double[] padded = { box[0].x - pad, box[0].y - pad, box[0].z - pad,
+										box[1].x + pad, box[1].y + pad, box[1].z + pad };
+					grow(node, padded, 0);
+				}
+			} else {
+				grow(node, bounds, 6 * (node + 1));
+				grow(node, bounds, 6 * offsets[node]);
+			}
+		}
+	}
+
+	private void grow(int node, double[] box, int b) {
+		for (int k = 0; k < 3; k++) {
+			bounds[6 * node + k] = Math.min(bounds[6 * node + k], box[b + k]);
+			bounds[6 * node + 3 + k] = Math.max(bounds[6 * node + 3 + k], box[b + 3 + k]);
+		}
+	}
+
+	/**
+	 * @return true if the node holds shapes.
+	 */
+	public boolean isLeaf(int node) {
+		return counts[node] > 0;
+	}
+
+	/**
+	 * Find all intersections with a ray.
+	 * @param ray the ray in world coordinates.
+	 * @return list of found intersections.
+	 */
+	@Override
+	public List<Intersection> intersect(Ray ray) {
+		List<Intersection> hits = new ArrayList<Intersection>();
+		for (Shape shape : this.unbounded) {
+			hits.addAll(shape.intersect(ray));
+		}
+		if (this.nodeCount == 0) {
+			return hits;
+		}
+
+		double ox = ray.origin.x; double oy = ray.origin.y; double oz = ray.origin.z;
+		double ix = ray.invX; double iy = ray.invY; double iz = ray.invZ;
+		double tMin = ray.getTMin();
+
+		int[] stack = new int[this.maxDepth + 1];
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			if (LinearBvh.slabEntry(bounds, node, ox, oy, oz, ix, iy, iz, tMin) == Double.POSITIVE_INFINITY) {
+				continue;
+			}
+			if (isLeaf(node)) {
+				int end = offsets[node] + counts[node];
+				for (int i = offsets[node]; i < end; i++) {
+					hits.addAll(shapes[i].intersect(ray));
+				}
+			} else {
+				stack[top++] = offsets[node];
+				stack[top++] = node + 1;
+			}
+		}
+		return hits;
+	}
+
+	/**
+	 * Find the closest intersection with a ray. Unbounded shapes are tested
+	 * first, so their hits already prune the tree.
+	 * @param ray the ray in world coordinates, its t-max shrinks with every hit.
+	 * @return the closest intersection or null.
+	 */
+	@Override
+	public Intersection intersectClosest(Ray ray) {
+		Intersection closest = null;
+		for (Shape shape : this.unbounded) {
+			Intersection hit = shape.intersectClosest(ray);
+			if (hit != null) {
+				closest = hit;
+			}
+		}
+		if (this.nodeCount == 0) {
+			return closest;
+		}
+
+		double ox = ray.origin.x; double oy = ray.origin.y; double oz = ray.origin.z;
+		double ix = ray.invX; double iy = ray.invY; double iz = ray.invZ;
+		double tMin = ray.getTMin();
+
+		double rootEntry = LinearBvh.slabEntry(bounds, 0, ox, oy, oz, ix, iy, iz, tMin);
+		if (rootEntry >= ray.getTMax()) {
+			return closest;
+		}
+
+		int[] stack = new int[this.maxDepth + 1];
+		double[] entries = new double[this.maxDepth + 1];
+		int top = 0;
+		stack[top] = 0;
+		entries[top] = rootEntry;
+		top++;
+
+		int visited = 0; //nodes and triangles tested, the render cost of the ray.
+		while (top > 0) {
+			top--;
+			int node = stack[top];
+			if (entries[top] >= ray.getTMax()) {
+				continue;
+			}
+			visited++;
+			if (isLeaf(node)) {
+				int end = offsets[node] + counts[node];
+				for (int i = offsets[node]; i < end; i++) {
+					Intersection hit = shapes[i].intersectClosest(ray);
+					if (hit != null) {
+						closest = hit;
+					}
+				}
+			} else {
+				int near = node + 1;
+				int far = offsets[node];
+				double nearEntry = LinearBvh.slabEntry(bounds, near, ox, oy, oz, ix, iy, iz, tMin);
+				double farEntry = LinearBvh.slabEntry(bounds, far, ox, oy, oz, ix, iy, iz, tMin);
+				if (farEntry < nearEntry) {
+					int tmp = near; near = far; far = tmp;
+					double tmpEntry = nearEntry; nearEntry = farEntry; farEntry = tmpEntry;
+				}
+				//push the far child first so the near child is visited next.
+				if (farEntry < ray.getTMax()) {
+					stack[top] = far;
+					entries[top] = farEntry;
+					top++;
+				}
+				if (nearEntry < ray.getTMax()) {
+					stack[top] = near;
+					entries[top] = nearEntry;
+					top++;
+				}
+			}
+		}
+		ray.countIntersections(visited);
+		return closest;
+	}
+
+	/**
+	 * Find the closest intersections of a packet of rays. The packet visits a
+	 * node as soon as one of its rays enters it, meshes are traversed by the
+	 * whole packet.
+	 * @param packet the rays in world coordinates, closer hits are stored in it.
+	 */
+	public void intersectClosest(RayPacket packet) {
+		for (Shape shape : this.unbounded) {
+			packet.intersect(shape);
+		}
+		if (this.nodeCount == 0) {
+			return;
+		}
+
+		PacketKernel kernel = PacketKernel.get();
+		int[] stack = new int[this.maxDepth + 1];
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			if (kernel.slabEntry(bounds, node, packet) == Double.POSITIVE_INFINITY) {
+				continue;
+			}
+			if (isLeaf(node)) {
+				int end = offsets[node] + counts[node];
+				for (int i = offsets[node]; i < end; i++) {
+					packet.intersect(shapes[i]);
+				}
+			} else {
+				stack[top++] = offsets[node];
+				stack[top++] = node + 1;
+			}
+		}
+	}
+
+	@Override
+	public boolean occluded(Ray ray, double maxDistance) {
+		return this.occluded(ray, maxDistance, null);
+	}
+
+	/**
+	 * Any hit query over the scene.
+	 * @param ray the ray in world coordinates.
+	 * @param maxDistance blockers at or beyond this ray parameter are ignored.
+	 * @param ignore shape which can not block the ray, may be null.
+	 * @return true when the ray is blocked.
+	 */
+	public boolean occluded(Ray ray, double maxDistance, Shape ignore) {
+		for (Shape shape : this.unbounded) {
+			if ((shape != ignore) && shape.occluded(ray, maxDistance)) {
+				return true;
+			}
+		}
+		if (this.nodeCount == 0) {
+			return false;
+		}
+
+		double ox = ray.origin.x; double oy = ray.origin.y; double oz = ray.origin.z;
+		double ix = ray.invX; double iy = ray.invY; double iz = ray.invZ;
+		double tMin = ray.getTMin();
+
+		int[] stack = new int[this.maxDepth + 1];
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			if (LinearBvh.slabEntry(bounds, node, ox, oy, oz, ix, iy, iz, tMin) >= maxDistance) {
+				continue;
+			}
+			if (isLeaf(node)) {
+				int end = offsets[node] + counts[node];
+				for (int i = offsets[node]; i < end; i++) {
+					if ((shapes[i] != ignore) && shapes[i].occluded(ray, maxDistance)) {
+						return true;
+					}
+				}
+			} else {
+				stack[top++] = offsets[node];
+				stack[top++] = node + 1;
+			}
+		}
+		return false;
+	}
+}
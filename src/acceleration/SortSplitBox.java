@@ -4,14 +4,11 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
-import camera.Camera;
 import shape.Triangle;
-import math.Constants;
 import math.Intersection;
 import math.Point;
 import math.Ray;
 import math.Transformation;
-import math.Vector;
 
 public class SortSplitBox extends AxisAlignedBox {
 	public SortSplitBox left = null;
@@ -25,12 +22,11 @@ public class SortSplitBox extends AxisAlignedBox {
 	 * @param p0 bottom position of the axis aligned box.
 	 * @param p1 top position of the axis aligned box
 	 * @param transformation matrix of the top level box.
-	 * @param cam the camera.
 	 * @param treeEpsilon tree generation epsilon.
 	 * @param objIntersEpsilon object intersection epsilon.
 	 */	
-	public SortSplitBox(Point p0, Point p1, Transformation transformation, Camera cam, double treeEpsilon, double objIntersEpsilon) {
-		super(p0, p1, transformation, cam, treeEpsilon, objIntersEpsilon);
+	public SortSplitBox(Point p0, Point p1, Transformation transformation, double treeEpsilon, double objIntersEpsilon) {
+		super(p0, p1, transformation, treeEpsilon, objIntersEpsilon);
 		
 	}
 	
@@ -115,9 +111,9 @@ public class SortSplitBox extends AxisAlignedBox {
 				
 			
 			this.left = new SortSplitBox(this.p0, pLeft,
-					this.transformation, this.cam, treeEpsilon, objIntersEpsilon);
+					this.transformation, treeEpsilon, objIntersEpsilon);
 			this.right = new SortSplitBox(pRight, this.p1,
-					this.transformation, this.cam, treeEpsilon, objIntersEpsilon);
+					this.transformation, treeEpsilon, objIntersEpsilon);
 
 			left.trianglesInBox = leftList;
 			right.trianglesInBox = rightList;
@@ -139,75 +135,15 @@ public class SortSplitBox extends AxisAlignedBox {
 	public List<Intersection> intersect(Ray ray) {
 		List<Intersection> hits = new ArrayList<Intersection>();
 
-		if (Constants.compVisualization){
-			ray.countIntersection();
-		}
+		ray.countIntersection();
 		
 		if ((this.getLeft() != null) && (this.getRight() != null)) {
-			Point leftCenter = this.left.getCenter();
-			leftCenter = this.transformation.transform(leftCenter);
-			Point rightCenter = this.right.getCenter();
-			rightCenter = this.transformation.transform(rightCenter);
-			
-			Vector camPos = super.cam.getOrigin().toVector();
-
-			double leftDist = camPos.subtract(leftCenter.toVector()).length();
-			double rightDist = camPos.subtract(rightCenter.toVector()).length();
-			
-			//check if the distance is significant.
-			//if (false) {
-			if ((Math.abs(leftDist - rightDist)) > 0.1) {			
-				if (leftDist < rightDist){
-					if (this.left.intersectBool(ray)) {
-						hits.addAll(left.intersect(ray));
-					}
-					if (hits.isEmpty()) {
-						if (this.right.intersectBool(ray)) {
-							hits.addAll(right.intersect(ray));
-						}
-					} else {
-						boolean checkBox = false;
-						for(Intersection inter: hits ){
-							if (right.pointInBox(inter.point)) {
-								checkBox = true;
-							}
-						}
-						if (checkBox) {
-							if (this.right.intersectBool(ray)) {
-								hits.addAll(right.intersect(ray));
-							}
-						}
-					} 
-				} else {
-					if (this.right.intersectBool(ray)) {
-						hits.addAll(right.intersect(ray));
-					}
-					if (hits.isEmpty()) {
-						if (this.left.intersectBool(ray)) {
-							hits.addAll(left.intersect(ray));
-						}
-					} else {
-						boolean checkBox = false;
-						for(Intersection inter: hits ){
-							if (left.pointInBox(inter.point)) {
-								checkBox = true;
-							}
-						}
-						if (checkBox) {
-							if (this.left.intersectBool(ray)) {
-								hits.addAll(left.intersect(ray));
-							}
-						}
-					} 
-				}
-			} else {
-				if (this.right.intersectBool(ray)) {
-					hits.addAll(right.intersect(ray));
-				}
-				if (this.left.intersectBool(ray)) {
-					hits.addAll(left.intersect(ray));
-				}
-			} 
+			if (this.left.intersectBool(ray)) {
+				hits.addAll(left.intersect(ray));
+			}
+			if (this.right.intersectBool(ray)) {
+				hits.addAll(right.intersect(ray));
+			}
 		} 
 
 		if ((this.getLeft() != null) && (this.getRight() == null)) {
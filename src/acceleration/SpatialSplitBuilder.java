@@ -0,0 +1,420 @@
+package acceleration;
+
+import java.util.Arrays;
+import java.util.List;
+
+import math.Constants;
+import math.Point;
+import math.Transformation;
+import shape.Triangle;
+
+/**
+ * Builds a {@link LinearBvh} with spatial splits. Besides the binned object
+ * split of {@link BinnedSahBuilder} every node may be cut by an axis aligned
+ * plane, triangles crossing the plane are then referenced from both sides
+ * with their bounds clipped to each side. Spatial splits are only searched
+ * where the children of the best object split overlap, and the number of
+ * duplicated references is limited by Constants.sbvhBudget.
+ */
+public class SpatialSplitBuilder {
+	/**
+	 * Spatial splits are searched when the overlap of the object split
+	 * children exceeds this fraction of the root surface.
+	 */
+	static final double overlapThreshold = 1e-5;
+
+	private final Triangle[] tris;
+	private final Transformation transformation;
+	private final int bins;
+	private final int leafSize;
+	private final int maxReferences;
+	private final SahBins objectBins;
+	private int references;
+	private double rootArea;
+
+	private double[] bounds;
+	private int[] offsets;
+	private int[] counts;
+	private int nextNode = 0;
+	private int[] leafTriangles;
+	private int nextLeafTriangle = 0;
+
+	/**
+	 * Prepare a builder for a list of triangles.
+	 * @param triangles the triangles in mesh space.
+	 * @param transformation transformation of the mesh the tree belongs to.
+	 */
+	public SpatialSplitBuilder(List<Triangle> triangles, Transformation transformation) {
+		this.tris = triangles.toArray(new Triangle[triangles.size()]);
+		this.transformation = transformation;
+		this.bins = Constants.sahBins;
+		this.leafSize = Constants.sahLeafSize;
+		this.maxReferences = this.tris.length + (int) (Constants.sbvhBudget * this.tris.length);
+		this.objectBins = new SahBins(this.bins);
+	}
+
+	/**
+	 * @return the number of references added by spatial splits in the last build.
+	 */
+	public int duplicatedReferences() {
+		return this.references - this.tris.length;
+	}
+
+	/**
+	 * Build the tree.
+	 * @param maxDepth the maximum depth of the tree.
+	 * @return the tree stored in flat arrays, triangles split by a plane
+	 * 			appear once per leaf referencing them.
+	 */
+	public LinearBvh build(int maxDepth) {
+		int n = this.tris.length;
+		this.references = n;
+		this.nextNode = 0;
+		this.nextLeafTriangle = 0;
+		this.bounds = new double[6 * Math.max(1, 2 * n)];
+		this.offsets = new int[Math.max(1, 2 * n)];
+		this.counts = new int[Math.max(1, 2 * n)];
+		this.leafTriangles = new int[Math.max(1, n)];
+
+		if (n > 0) {
+			int[] refs = new int[n];
+			double[] refBounds = new double[6 * n];
+			for (int i = 0; i < n; i++) {
+				refs[i] = i;
+				triangleBounds(this.tris[i], refBounds, 6 * i);
+			}
+			double[] root = SahBins.emptyBounds();
+			for (int i = 0; i < n; i++) {
+				SahBins.grow(root, 0, refBounds, 6 * i);
+			}
+			this.rootArea = BinnedSahBuilder.surfaceArea(root, 0);
+			this.buildNode(refs, refBounds, n, maxDepth);
+		}
+
+		Triangle[] ordered = new Triangle[nextLeafTriangle];
+		for (int i = 0; i < ordered.length; i++) {
+			ordered[i] = this.tris[leafTriangles[i]];
+		}
+		LinearBvh tree = new LinearBvh(Arrays.copyOf(bounds, 6 * nextNode), Arrays.copyOf(offsets, nextNode),
+				Arrays.copyOf(counts, nextNode), ordered, this.transformation);
+		if (this.duplicatedReferences() > 0) {
+			tree.triangleIds = Arrays.copyOf(leafTriangles, nextLeafTriangle);
+		}
+		return tree;
+	}
+
+	/**
+	 * Create the node for a set of references and its subtree.
+	 * @return the index of the created node.
+	 */
+	private int buildNode(int[] refs, double[] refBounds, int n, int depth) {
+		if (nextNode == counts.length) {
+			bounds = Arrays.copyOf(bounds, 2 * bounds.length);
+			offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+			counts = Arrays.copyOf(counts, 2 * counts.length);
+		}
+		int node = nextNode;
+		nextNode = nextNode + 1;
+
+		double[] box = SahBins.emptyBounds();
+		double[] cb = SahBins.emptyBounds();
+		for (int i = 0; i < n; i++) {
+			SahBins.grow(box, 0, refBounds, 6 * i);
+			for (int k = 0; k < 3; k++) {
+				double c = centroid(refBounds, i, k);
+				cb[k] = Math.min(cb[k], c);
+				cb[3 + k] = Math.max(cb[3 + k], c);
+			}
+		}
+		System.arraycopy(box, 0, bounds, 6 * node, 6);
+
+		if ((n <= leafSize) || (depth <= 0)) {
+			return this.makeLeaf(node, refs, n);
+		}
+
+		double nodeArea = BinnedSahBuilder.surfaceArea(box, 0);
+		Split object = this.findObjectSplit(refBounds, n, cb, nodeArea);
+		Split spatial = null;
+		if ((references < maxReferences) && (object.overlap / rootArea > overlapThreshold)) {
+			spatial = this.findSpatialSplit(refs, refBounds, n, box, nodeArea);
+		}
+
+		int[] leftRefs = null;
+		double[] leftBounds = null;
+		int[] rightRefs = null;
+		double[] rightBounds = null;
+		int nLeft = 0;
+		int nRight = 0;
+		if ((spatial != null) && (spatial.cost < object.cost) && (spatial.cost < n)) {
+			//references crossing the plane go to both sides.
+			double plane = spatial.position;
+			int axis = spatial.axis;
+			int crossing = 0;
+			for (int i = 0; i < n; i++) {
+				if ((refBounds[6 * i + axis] < plane) && (refBounds[6 * i + 3 + axis] > plane)) {
+					crossing++;
+				}
+			}
+			if ((crossing == 0) || (references + crossing <= maxReferences)) {
+				leftRefs = new int[n]; leftBounds = new double[6 * n];
+				rightRefs = new int[n]; rightBounds = new double[6 * n];
+				double[] l = new double[6];
+				double[] r = new double[6];
+				for (int i = 0; i < n; i++) {
+					if (refBounds[6 * i + 3 + axis] <= plane) {
+						leftRefs[nLeft] = refs[i];
+						System.arraycopy(refBounds, 6 * i, leftBounds, 6 * nLeft, 6);
+						nLeft++;
+					} else if (refBounds[6 * i + axis] >= plane) {
+						rightRefs[nRight] = refs[i];
+						System.arraycopy(refBounds, 6 * i, rightBounds, 6 * nRight, 6);
+						nRight++;
+					} else {
+						//a side can be empty where the reference box is looser than the triangle.
+						this.splitReference(refs[i], refBounds, 6 * i, axis, plane, l, r);
+						if (isEmpty(l) == false) {
+							leftRefs[nLeft] = refs[i];
+							System.arraycopy(l, 0, leftBounds, 6 * nLeft, 6);
+							nLeft++;
+						}
+						if (isEmpty(r) == false) {
+							rightRefs[nRight] = refs[i];
+							System.arraycopy(r, 0, rightBounds, 6 * nRight, 6);
+							nRight++;
+						}
+					}
+				}
+				if ((nLeft == 0) || (nRight == 0)) {
+					leftRefs = null;
+				} else {
+					references = references + (nLeft + nRight - n);
+				}
+			}
+		}
+		if ((leftRefs == null) && (object.axis >= 0) && (object.cost < n)) {
+			leftRefs = new int[n]; leftBounds = new double[6 * n];
+			rightRefs = new int[n]; rightBounds = new double[6 * n];
+			nLeft = 0;
+			nRight = 0;
+			double scale = bins / (cb[3 + object.axis] - cb[object.axis]);
+			for (int i = 0; i < n; i++) {
+				if (objectBins.binOf(centroid(refBounds, i, object.axis), cb[object.axis], scale) <= object.bin) {
+					leftRefs[nLeft] = refs[i];
+					System.arraycopy(refBounds, 6 * i, leftBounds, 6 * nLeft, 6);
+					nLeft++;
+				} else {
+					rightRefs[nRight] = refs[i];
+					System.arraycopy(refBounds, 6 * i, rightBounds, 6 * nRight, 6);
+					nRight++;
+				}
+			}
+		}
+		if (leftRefs == null) {
+			return this.makeLeaf(node, refs, n);
+		}
+
+		counts[node] = 0;
+		this.buildNode(leftRefs, leftBounds, nLeft, depth - 1);
+		leftRefs = null;
+		leftBounds = null;
+		int right = this.buildNode(rightRefs, rightBounds, nRight, depth - 1);
+		offsets[node] = right;
+		return node;
+	}
+
+	private int makeLeaf(int node, int[] refs, int n) {
+		if (nextLeafTriangle + n > leafTriangles.length) {
+			leafTriangles = Arrays.copyOf(leafTriangles, Math.max(2 * leafTriangles.length, nextLeafTriangle + n));
+		}
+		offsets[node] = nextLeafTriangle;
+		counts[node] = n;
+		System.arraycopy(refs, 0, leafTriangles, nextLeafTriangle, n);
+		nextLeafTriangle = nextLeafTriangle + n;
+		return node;
+	}
+
+	/**
+	 * The best split found for a node.
+	 */
+	private static class Split {
+		double cost = Double.POSITIVE_INFINITY;
+		int axis = -1;
+		int bin = -1;
+		double position;
+		double overlap = 0.0;
+	}
+
+	/**
+	 * Binned surface area heuristic over the reference centroids.
+	 */
+	private Split findObjectSplit(double[] refBounds, int n, double[] cb, double nodeArea) {
+		objectBins.reset();
+		for (int axis = 0; axis < 3; axis++) {
+			double extent = cb[3 + axis] - cb[axis];
+			if (extent <= 0) {
+				continue;
+			}
+			double scale = bins / extent;
+			objectBins.clear();
+			for (int i = 0; i < n; i++) {
+				objectBins.add(objectBins.binOf(centroid(refBounds, i, axis), cb[axis], scale), refBounds, 6 * i);
+			}
+			objectBins.sweep(axis, nodeArea);
+		}
+		Split best = new Split();
+		if (objectBins.axis >= 0) {
+			best.cost = objectBins.cost;
+			best.axis = objectBins.axis;
+			best.bin = objectBins.bin;
+			double[] overlap = new double[6];
+			for (int k = 0; k < 3; k++) {
+				overlap[k] = Math.max(objectBins.leftBox[k], objectBins.rightBox[k]);
+				overlap[3 + k] = Math.min(objectBins.leftBox[3 + k], objectBins.rightBox[3 + k]);
+			}
+			best.overlap = BinnedSahBuilder.surfaceArea(overlap, 0);
+		}
+		return best;
+	}
+
+	/**
+	 * Binned surface area heuristic over planes evenly spread in the node,
+	 * references are clipped into every bin they cross.
+	 */
+	private Split findSpatialSplit(int[] refs, double[] refBounds, int n, double[] box, double nodeArea) {
+		Split best = new Split();
+		int[] entries = new int[bins];
+		int[] exits = new int[bins];
+		double[] binBounds = new double[6 * bins];
+		int[] rightCounts = new int[bins];
+		double[] rightAreas = new double[bins];
+		double[] current = new double[6];
+		double[] l = new double[6];
+		double[] r = new double[6];
+		for (int axis = 0; axis < 3; axis++) {
+			double min = box[axis];
+			double extent = box[3 + axis] - min;
+			if (extent <= 0) {
+				continue;
+			}
+			double binWidth = extent / bins;
+			double scale = bins / extent;
+			Arrays.fill(entries, 0);
+			Arrays.fill(exits, 0);
+			for (int b = 0; b < bins; b++) {
+				SahBins.setEmpty(binBounds, 6 * b);
+			}
+			for (int i = 0; i < n; i++) {
+				int first = objectBins.binOf(refBounds[6 * i + axis], min, scale);
+				int last = objectBins.binOf(refBounds[6 * i + 3 + axis], min, scale);
+				System.arraycopy(refBounds, 6 * i, current, 0, 6);
+				for (int b = first; b < last; b++) {
+					this.splitReference(refs[i], current, 0, axis, min + (b + 1) * binWidth, l, r);
+					SahBins.grow(binBounds, 6 * b, l, 0);
+					System.arraycopy(r, 0, current, 0, 6);
+				}
+				SahBins.grow(binBounds, 6 * last, current, 0);
+				entries[first] = entries[first] + 1;
+				exits[last] = exits[last] + 1;
+			}
+			double[] acc = SahBins.emptyBounds();
+			int rightCount = 0;
+			for (int b = bins - 1; b > 0; b--) {
+				SahBins.grow(acc, 0, binBounds, 6 * b);
+				rightCount = rightCount + exits[b];
+				rightCounts[b] = rightCount;
+				rightAreas[b] = BinnedSahBuilder.surfaceArea(acc, 0);
+			}
+			acc = SahBins.emptyBounds();
+			int leftCount = 0;
+			for (int b = 0; b < bins - 1; b++) {
+				SahBins.grow(acc, 0, binBounds, 6 * b);
+				leftCount = leftCount + entries[b];
+				if ((leftCount == 0) || (rightCounts[b + 1] == 0)) {
+					continue;
+				}
+				double cost = BinnedSahBuilder.traversalCost + (leftCount * BinnedSahBuilder.surfaceArea(acc, 0)
+						+ rightCounts[b + 1] * rightAreas[b + 1]) / nodeArea;
+				if (cost < best.cost) {
+					best.cost = cost;
+					best.axis = axis;
+					best.bin = b;
+					best.position = min + (b + 1) * binWidth;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Split the part of a triangle inside a reference box at a plane.
+	 * @param tri the triangle index.
+	 * @param box the bounds of the reference.
+	 * @param b offset of the bounds in box.
+	 * @param left receives the bounds of the part below the plane.
+	 * @param right receives the bounds of the part above the plane.
+	 */
+	private void splitReference(int tri, double[] box, int b, int axis, double plane,
+			double[] left, double[] right) {
+		SahBins.setEmpty(left, 0);
+		SahBins.setEmpty(right, 0);
+		Triangle t = this.tris[tri];
+		Point[] v = { t.a, t.b, t.c };
+		for (int i = 0; i < 3; i++) {
+			Point p = v[i];
+			Point q = v[(i + 1) % 3];
+			double pc = coordinate(p, axis);
+			double qc = coordinate(q, axis);
+			if (pc <= plane) {
+				growPoint(left, p.x, p.y, p.z);
+			}
+			if (pc >= plane) {
+				growPoint(right, p.x, p.y, p.z);
+			}
+			if (((pc < plane) && (qc > plane)) || ((pc > plane) && (qc < plane))) {
+				double s = (plane - pc) / (qc - pc);
+				double[] x = { p.x + s * (q.x - p.x), p.y + s * (q.y - p.y), p.z + s * (q.z - p.z) };
+				x[axis] = plane;
+				growPoint(left, x[0], x[1], x[2]);
+				growPoint(right, x[0], x[1], x[2]);
+			}
+		}
+		left[3 + axis] = Math.min(left[3 + axis], plane);
+		right[axis] = Math.max(right[axis], plane);
+		for (int k = 0; k < 3; k++) {
+			left[k] = Math.max(left[k], box[b + k]);
+			left[3 + k] = Math.min(left[3 + k], box[b + 3 + k]);
+			right[k] = Math.max(right[k], box[b + k]);
+			right[3 + k] = Math.min(right[3 + k], box[b + 3 + k]);
+		}
+	}
+
+	private static double centroid(double[] refBounds, int i, int axis) {
+		return 0.5 * (refBounds[6 * i + axis] + refBounds[6 * i + 3 + axis]);
+	}
+
+	private static double coordinate(Point p, int axis) {
+		if (axis == 0) {
+			return p.x;
+		} else if (axis == 1) {
+			return p.y;
+		}
+		return p.z;
+	}
+
+	private static void triangleBounds(Triangle tri, double[] dst, int d) {
+		SahBins.setEmpty(dst, d);
+		for (Point p : new Point[] { tri.a, tri.b, tri.c }) {
+			dst[d]     = Math.min(dst[d], p.x);     dst[d + 1] = Math.min(dst[d + 1], p.y); dst[d + 2] = Math.min(dst[d + 2], p.z);
+			dst[d + 3] = Math.max(dst[d + 3], p.x); dst[d + 4] = Math.max(dst[d + 4], p.y); dst[d + 5] = Math.max(dst[d + 5], p.z);
+		}
+	}
+
+	private static boolean isEmpty(double[] box) {
+		return (box[0] > box[3]) || (box[1] > box[4]) || (box[2] > box[5]);
+	}
+
+	private static void growPoint(double[] box, double x, double y, double z) {
+		box[0] = Math.min(box[0], x); box[1] = Math.min(box[1], y); box[2] = Math.min(box[2], z);
+		box[3] = Math.max(box[3], x); box[4] = Math.max(box[4], y); box[5] = Math.max(box[5], z);
+	}
+}
@@ -0,0 +1,114 @@
+package acceleration;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Packet kernel running the slab and triangle tests on as many lanes at once
+ * as the preferred double vector of the machine holds. Only loaded through
+ * {@link PacketKernel#get()}, which falls back to the scalar kernel when
+ * the vector module is not available.
+ */
+public class VectorPacketKernel extends PacketKernel {
+	private static final VectorSpecies<Double> species = DoubleVector.SPECIES_PREFERRED;
+
+	public VectorPacketKernel() {
+		if (RayPacket.laneMultiple % species.length() != 0) {
+			throw new IllegalStateException("Packet lanes do not fill the vector species.");
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "vector, " + species.length() + " lanes";
+	}
+
+	@Override
+	public double slabEntry(double[] bounds, int node, RayPacket packet) {
+		int b = 6 * node;
+		double entry = Double.POSITIVE_INFINITY;
+		for (int k = 0; k < packet.lanes; k += species.length()) {
+			DoubleVector ox = DoubleVector.fromArray(species, packet.ox, k);
+			DoubleVector ix = DoubleVector.fromArray(species, packet.ix, k);
+			DoubleVector tx0 = ox.neg().add(bounds[b]).mul(ix);
+			DoubleVector tx1 = ox.neg().add(bounds[b + 3]).mul(ix);
+			DoubleVector oy = DoubleVector.fromArray(species, packet.oy, k);
+			DoubleVector iy = DoubleVector.fromArray(species, packet.iy, k);
+			DoubleVector ty0 = oy.neg().add(bounds[b + 1]).mul(iy);
+			DoubleVector ty1 = oy.neg().add(bounds[b + 4]).mul(iy);
+			DoubleVector oz = DoubleVector.fromArray(species, packet.oz, k);
+			DoubleVector iz = DoubleVector.fromArray(species, packet.iz, k);
+			DoubleVector tz0 = oz.neg().add(bounds[b + 2]).mul(iz);
+			DoubleVector tz1 = oz.neg().add(bounds[b + 5]).mul(iz);
+
+			DoubleVector t0 = tx0.min(tx1).max(ty0.min(ty1)).max(tz0.min(tz1));
+			DoubleVector t1 = tx0.max(tx1).min(ty0.max(ty1)).min(tz0.max(tz1));
+			DoubleVector tMin = DoubleVector.fromArray(species, packet.tMin, k);
+			DoubleVector tMax = DoubleVector.fromArray(species, packet.tMax, k);
+			//flat nodes around planar geometry are entered and left at the same t.
+			VectorMask<Double> hit = t0.compare(VectorOperators.LE, t1)
+					.and(t1.compare(VectorOperators.GT, tMin))
+					.and(t0.compare(VectorOperators.LT, tMax));
+			if (hit.anyTrue()) {
+				entry = Math.min(entry, t0.reduceLanes(VectorOperators.MIN, hit));
+			}
+		}
+		return entry;
+	}
+
+	@Override
+	public void intersect(double[] vertices, int tri, RayPacket packet,
+			int[] closest, double[] beta, double[] gamma) {
+		int v = 9 * tri;
+		double v0x = vertices[v];     double v0y = vertices[v + 1]; double v0z = vertices[v + 2];
+		double e1x = vertices[v + 3]; double e1y = vertices[v + 4]; double e1z = vertices[v + 5];
+		double e2x = vertices[v + 6]; double e2y = vertices[v + 7]; double e2z = vertices[v + 8];
+		for (int k = 0; k < packet.lanes; k += species.length()) {
+			DoubleVector dx = DoubleVector.fromArray(species, packet.dx, k);
+			DoubleVector dy = DoubleVector.fromArray(species, packet.dy, k);
+			DoubleVector dz = DoubleVector.fromArray(species, packet.dz, k);
+			DoubleVector px = dy.mul(e2z).sub(dz.mul(e2y));
+			DoubleVector py = dz.mul(e2x).sub(dx.mul(e2z));
+			DoubleVector pz = dx.mul(e2y).sub(dy.mul(e2x));
+			DoubleVector det = px.mul(e1x).add(py.mul(e1y)).add(pz.mul(e1z));
+			VectorMask<Double> valid = det.compare(VectorOperators.NE, 0.0);
+			if (valid.anyTrue() == false) {
+				continue;
+			}
+			DoubleVector invDet = DoubleVector.broadcast(species, 1.0).div(det);
+
+			DoubleVector sx = DoubleVector.fromArray(species, packet.ox, k).sub(v0x);
+			DoubleVector sy = DoubleVector.fromArray(species, packet.oy, k).sub(v0y);
+			DoubleVector sz = DoubleVector.fromArray(species, packet.oz, k).sub(v0z);
+			DoubleVector b = sx.mul(px).add(sy.mul(py)).add(sz.mul(pz)).mul(invDet);
+			valid = valid.and(b.compare(VectorOperators.GE, 0.0)).and(b.compare(VectorOperators.LE, 1.0));
+			if (valid.anyTrue() == false) {
+				continue;
+			}
+
+			DoubleVector qx = sy.mul(e1z).sub(sz.mul(e1y));
+			DoubleVector qy = sz.mul(e1x).sub(sx.mul(e1z));
+			DoubleVector qz = sx.mul(e1y).sub(sy.mul(e1x));
+			DoubleVector g = dx.mul(qx).add(dy.mul(qy)).add(dz.mul(qz)).mul(invDet);
+			DoubleVector t = qx.mul(e2x).add(qy.mul(e2y)).add(qz.mul(e2z)).mul(invDet);
+			DoubleVector tMin = DoubleVector.fromArray(species, packet.tMin, k);
+			DoubleVector tMax = DoubleVector.fromArray(species, packet.tMax, k);
+			valid = valid.and(g.compare(VectorOperators.GE, 0.0))
+					.and(b.add(g).compare(VectorOperators.LE, 1.0))
+					.and(t.compare(VectorOperators.GE, tMin))
+					.and(t.compare(VectorOperators.LT, tMax));
+			if (valid.anyTrue()) {
+				t.intoArray(packet.tMax, k, valid);
+				b.intoArray(beta, k, valid);
+				g.intoArray(gamma, k, valid);
+				for (int j = 0; j < species.length(); j++) {
+					if (valid.laneIsSet(j)) {
+						closest[k + j] = tri;
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,592 @@
+package acceleration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import math.Intersection;
+import math.Point;
+import math.Ray;
+import math.Vector;
+
+/**
+ * A bounding volume hierarchy with four or eight children per node, made by
+ * collapsing a binary flat tree. The bounds of all children of a node are
+ * stored next to each other, one run per bound component, so a node visit
+ * tests all its children in one pass. Children are sorted along one axis
+ * per node and are visited in the order given by the sign of the ray
+ * direction on that axis, which is front to back for any ray. The binary
+ * tree is only read while collapsing it, its node arrays are not kept,
+ * only the packed triangles and the root bounds are shared with it. Ray
+ * packets traverse the wide nodes as well.
+ */
+public class WideBvh extends LinearBvh {
+	/**
+	 * Number of child slots per node.
+	 */
+	public final int width;
+
+	/**
+	 * Child bounds, for node n and bound component k the children's values
+	 * start at (6 * n + k) * width.
+	 */
+	protected final double[] childBounds;
+
+	/**
+	 * Per child slot the index of the child node, or the triangle offset
+	 * if the child is a leaf.
+	 */
+	protected final int[] children;
+
+	/**
+	 * Per child slot the number of triangles of a leaf, zero for interior
+	 * children and -1 for empty slots.
+	 */
+	protected final int[] childCounts;
+
+	/**
+	 * The axis along which the children of a node are sorted.
+	 */
+	protected final int[] sortAxis;
+
+	public final int wideNodeCount;
+	public final int wideDepth;
+
+	/**
+	 * The surface area cost of the wide tree when it was collapsed, refits
+	 * are compared against it.
+	 */
+	private final double wideBuiltCost;
+
+	private int nextWide = 0;
+
+	/**
+	 * Collapse a binary tree into a wide tree, the triangles are shared. The
+	 * inherited node count and depth are the ones of the binary tree.
+	 * @param tree the binary tree.
+	 * @param width children per node, 4 or 8.
+	 */
+	public WideBvh(LinearBvh tree, int width) {
+		super(tree.mesh, Arrays.copyOf(tree.bounds, 6), tree.nodeCount, tree.maxDepth, tree.builtCost);
+		if ((width != 4) && (width != 8)) {
+			throw new IllegalArgumentException("Wide trees have 4 or 8 children per node.");
+		}
+		this.width = width;
+		this.triangleIds = tree.triangleIds;
+		//every wide node consumes at least one binary interior node.
+		int maxNodes = Math.max(1, tree.nodeCount / 2 + 1);
+		double[] cb = new double[6 * width * maxNodes];
+		int[] ch = new int[width * maxNodes];
+		int[] cc = new int[width * maxNodes];
+		int[] ax = new int[maxNodes];
+		if (this.nodeCount > 0) {
+			this.collapse(tree, 0, cb, ch, cc, ax);
+		}
+		this.wideNodeCount = this.nextWide;
+		this.childBounds = Arrays.copyOf(cb, 6 * width * this.wideNodeCount);
+		this.children = Arrays.copyOf(ch, width * this.wideNodeCount);
+		this.childCounts = Arrays.copyOf(cc, width * this.wideNodeCount);
+		this.sortAxis = Arrays.copyOf(ax, this.wideNodeCount);
+		this.wideDepth = (this.wideNodeCount > 0) ? this.wideDepth(0) : 0;
+		this.wideBuiltCost = this.sahCost();
+	}
+
+	/**
+	 * Turn a binary node and its descendants into a wide node. Interior
+	 * children with the largest surface are opened until the node is full.
+	 * @return the index of the wide node.
+	 */
+	private int collapse(LinearBvh tree, int root, double[] cb, int[] ch, int[] cc, int[] ax) {
+		List<Integer> slots = new ArrayList<Integer>();
+		if (tree.isLeaf(root)) {
+			slots.add(root);
+		} else {
+			slots.add(root + 1);
+			slots.add(tree.offsets[root]);
+		}
+		while (slots.size() < width) {
+			int best = -1;
+			double bestArea = -1.0;
+			for (int j = 0; j < slots.size(); j++) {
+				int b = slots.get(j);
+				if (tree.isLeaf(b) == false) {
+					double area = BinnedSahBuilder.surfaceArea(tree.bounds, 6 * b);
+					if (area > bestArea) {
+						bestArea = area;
+						best = j;
+					}
+				}
+			}
+			if (best < 0) {
+				break;
+			}
+			int b = slots.remove(best);
+			slots.add(b + 1);
+			slots.add(tree.offsets[b]);
+		}
+
+		int node = nextWide;
+		nextWide = nextWide + 1;
+		int axis = centroidAxis(tree, slots);
+		ax[node] = axis;
+		//insertion sort of the children by their centroid along the axis.
+		for (int j = 1; j < slots.size(); j++) {
+			int b = slots.get(j);
+			int k = j - 1;
+			while ((k >= 0) && (centroid(tree, slots.get(k), axis) > centroid(tree, b, axis))) {
+				slots.set(k + 1, slots.get(k));
+				k--;
+			}
+			slots.set(k + 1, b);
+		}
+
+		for (int c = 0; c < width; c++) {
+			int slot = node * width + c;
+			if (c >= slots.size()) {
+				ch[slot] = 0;
+				cc[slot] = -1;
+				continue;
+			}
+			int b = slots.get(c);
+			for (int k = 0; k < 6; k++) {
+				cb[(6 * node + k) * width + c] = tree.bounds[6 * b + k];
+			}
+			if (tree.isLeaf(b)) {
+				ch[slot] = tree.offsets[b];
+				cc[slot] = tree.counts[b];
+			} else {
+				cc[slot] = 0;
+				ch[slot] = collapse(tree, b, cb, ch, cc, ax);
+			}
+		}
+		return node;
+	}
+
+	private static double centroid(LinearBvh tree, int node, int axis) {
+		return tree.bounds[6 * node + axis] + tree.bounds[6 * node + axis + 3];
+	}
+
+	/**
+	 * @return the axis along which the centroids of the nodes spread the most.
+	 */
+	private static int centroidAxis(LinearBvh tree, List<Integer> nodes) {
+		int axis = 0;
+		double bestExtent = -1.0;
+		for (int k = 0; k < 3; k++) {
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			for (int b : nodes) {
+				min = Math.min(min, centroid(tree, b, k));
+				max = Math.max(max, centroid(tree, b, k));
+			}
+			if (max - min > bestExtent) {
+				bestExtent = max - min;
+				axis = k;
+			}
+		}
+		return axis;
+	}
+
+	private int wideDepth(int node) {
+		int depth = 0;
+		for (int c = 0; c < width; c++) {
+			int slot = node * width + c;
+			if (childCounts[slot] == 0) {
+				depth = Math.max(depth, wideDepth(children[slot]));
+			}
+		}
+		return depth + 1;
+	}
+
+	/**
+	 * Slab test of one child slot. The near and far bound components are
+	 * chosen once per ray from the direction signs.
+	 * @param nx component of the near x bound, 0 or 3, likewise ny and nz.
+	 * @param tMin children left before this ray parameter are missed.
+	 * @return the ray parameter where the child is entered, or positive
+	 * 			infinity if it is missed or lies before tMin.
+	 */
+	private double slotEntry(int node, int c, int nx, int ny, int nz,
+			double ox, double oy, double oz, double ix, double iy, double iz, double tMin) {
+		int b = 6 * node * width + c;
+		double t0 = Math.max((childBounds[b + nx * width] - ox) * ix,
+				Math.max((childBounds[b + ny * width] - oy) * iy,
+						(childBounds[b + nz * width] - oz) * iz));
+		double t1 = Math.min((childBounds[b + (3 - nx) * width] - ox) * ix,
+				Math.min((childBounds[b + (5 - ny) * width] - oy) * iy,
+						(childBounds[b + (7 - nz) * width] - oz) * iz));
+		//flat nodes around planar geometry are entered and left at the same t.
+		if ((t0 <= t1) && (t1 > tMin)) {
+			return t0;
+		} else {
+			return Double.POSITIVE_INFINITY;
+		}
+	}
+
+	@Override
+	public List<Intersection> intersect(Ray ray) {
+		List<Intersection> hits = new ArrayList<Intersection>();
+		if (this.wideNodeCount == 0) {
+			return hits;
+		}
+		Ray rayInv = this.toMeshSpace(ray);
+		Point ro = rayInv.origin;
+		Vector rd = rayInv.direction;
+		double ox = ro.x; double oy = ro.y; double oz = ro.z;
+		double ix = rayInv.invX; double iy = rayInv.invY; double iz = rayInv.invZ;
+		double tMin = rayInv.getTMin();
+		int nx = 3 * rayInv.signX; int ny = 1 + 3 * rayInv.signY; int nz = 2 + 3 * rayInv.signZ;
+
+		double[] bary = new double[2];
+		Set<Integer> seen = this.newSeenSet();
+		int[] stack = new int[this.wideDepth * this.width + 1];
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			ray.countIntersection();
+			for (int c = 0; c < width; c++) {
+				int slot = node * width + c;
+				if (childCounts[slot] < 0) {
+					continue;
+				}
+				if (slotEntry(node, c, nx, ny, nz, ox, oy, oz, ix, iy, iz, tMin) == Double.POSITIVE_INFINITY) {
+					continue;
+				}
+				if (childCounts[slot] == 0) {
+					stack[top++] = children[slot];
+					continue;
+				}
+				int end = children[slot] + childCounts[slot];
+				for (int i = children[slot]; i < end; i++) {
+					ray.countIntersection();
+					double t = mesh.intersect(i, ro, rd, tMin, Double.POSITIVE_INFINITY, bary);
+					if ((t != Double.POSITIVE_INFINITY) && this.firstHit(seen, i)) {
+						hits.add(mesh.createHit(i, ro, rd, t, bary[0], bary[1]));
+					}
+				}
+			}
+		}
+		return hits;
+	}
+
+	/**
+	 * Find the closest intersection with a ray. The children of a node are
+	 * pushed far to near according to the ray direction on the node's sort
+	 * axis, children entered beyond the closest hit so far are skipped.
+	 * @param ray the ray in world coordinates, its t-max shrinks with every hit.
+	 * @return the closest intersection or null.
+	 */
+	@Override
+	public Intersection intersectClosest(Ray ray) {
+		if (this.wideNodeCount == 0) {
+			return null;
+		}
+		Ray rayInv = this.toMeshSpace(ray);
+		Point ro = rayInv.origin;
+		Vector rd = rayInv.direction;
+		double ox = ro.x; double oy = ro.y; double oz = ro.z;
+		double ix = rayInv.invX; double iy = rayInv.invY; double iz = rayInv.invZ;
+		double tMin = rayInv.getTMin();
+		int nx = 3 * rayInv.signX; int ny = 1 + 3 * rayInv.signY; int nz = 2 + 3 * rayInv.signZ;
+		boolean[] negative = { rayInv.signX == 1, rayInv.signY == 1, rayInv.signZ == 1 };
+
+		double tMax = ray.getTMax();
+		int[] stack = new int[this.wideDepth * this.width + 1];
+		double[] entries = new double[this.wideDepth * this.width + 1];
+		int top = 0;
+
+		double[] slotEntries = new double[width];
+		int visited = 0; //nodes and triangles tested, the render cost of the ray.
+		double[] bary = new double[2];
+		int closest = -1;
+		double closestBeta = 0;
+		double closestGamma = 0;
+		int node = 0;
+		while (true) {
+			if (node >= 0) {
+				visited++;
+				//test all children, then push them far to near so the nearest one is visited next.
+				int first = node * width;
+				int base = 6 * first;
+				for (int c = 0; c < width; c++) {
+					double t0 = Math.max((childBounds[base + nx * width + c] - ox) * ix,
+							Math.max((childBounds[base + ny * width + c] - oy) * iy,
+									(childBounds[base + nz * width + c] - oz) * iz));
+					double t1 = Math.min((childBounds[base + (3 - nx) * width + c] - ox) * ix,
+							Math.min((childBounds[base + (5 - ny) * width + c] - oy) * iy,
+									(childBounds[base + (7 - nz) * width + c] - oz) * iz));
+					slotEntries[c] = ((t0 <= t1) && (t1 > tMin) && (t0 < tMax)) ? t0 : Double.POSITIVE_INFINITY;
+				}
+				boolean reverse = negative[sortAxis[node]];
+				for (int j = 0; j < width; j++) {
+					int c = reverse ? j : width - 1 - j;
+					if ((slotEntries[c] != Double.POSITIVE_INFINITY) && (childCounts[first + c] >= 0)) {
+						stack[top] = first + c;
+						entries[top] = slotEntries[c];
+						top++;
+					}
+				}
+				node = -1;
+			}
+			if (top == 0) {
+				break;
+			}
+			top--;
+			if (entries[top] >= tMax) {
+				continue;
+			}
+			int slot = stack[top];
+			if (childCounts[slot] == 0) {
+				node = children[slot];
+				continue;
+			}
+			int end = children[slot] + childCounts[slot];
+			for (int i = children[slot]; i < end; i++) {
+				visited++;
+				double t = mesh.intersect(i, ro, rd, tMin, tMax, bary);
+				if (t < tMax) {
+					tMax = t;
+					closest = i;
+					closestBeta = bary[0];
+					closestGamma = bary[1];
+				}
+			}
+		}
+		ray.countIntersections(visited);
+		if (closest < 0) {
+			return null;
+		}
+		ray.setTMax(tMax);
+		return mesh.createHit(closest, ro, rd, tMax, closestBeta, closestGamma);
+	}
+
+	/**
+	 * Find the closest intersections of a packet of coherent rays. All
+	 * children of a node are tested against the packet, the ones entered
+	 * by a ray before its t-max are pushed far to near by their smallest
+	 * entry over the packet.
+	 * @param packet the rays in world coordinates, closer hits are stored in it.
+	 */
+	@Override
+	public void intersectClosest(RayPacket packet) {
+		if (this.wideNodeCount == 0) {
+			return;
+		}
+		PacketKernel kernel = PacketKernel.get();
+		RayPacket meshPacket = packet.toMeshSpace(this.transformation);
+		if (kernel.slabEntry(bounds, 0, meshPacket) == Double.POSITIVE_INFINITY) {
+			return;
+		}
+
+		int[] stack = new int[this.wideDepth * this.width + 1];
+		double[] entries = new double[this.wideDepth * this.width + 1];
+		int top = 0;
+
+		//the kernel reads six bounds per node, the child bounds of a node are copied into that form.
+		double[] box = new double[6 * width];
+		double[] slotEntries = new double[width];
+		int[] order = new int[width];
+		int[] closest = new int[meshPacket.lanes];
+		Arrays.fill(closest, -1);
+		double[] beta = new double[meshPacket.lanes];
+		double[] gamma = new double[meshPacket.lanes];
+		double tMax = meshPacket.maxTMax();
+		int node = 0;
+		while (true) {
+			if (node >= 0) {
+				int first = node * width;
+				int entered = 0;
+				for (int c = 0; c < width; c++) {
+					if (childCounts[first + c] < 0) {
+						continue;
+					}
+					for (int k = 0; k < 6; k++) {
+						box[6 * c + k] = childBounds[(6 * node + k) * width + c];
+					}
+					double entry = kernel.slabEntry(box, c, meshPacket);
+					if (entry >= tMax) {
+						continue;
+					}
+					//insertion sort of the entered children by their entry.
+					int j = entered;
+					while ((j > 0) && (slotEntries[j - 1] > entry)) {
+						slotEntries[j] = slotEntries[j - 1];
+						order[j] = order[j - 1];
+						j--;
+					}
+					slotEntries[j] = entry;
+					order[j] = c;
+					entered++;
+				}
+				//push them far to near so the nearest one is visited next.
+				for (int j = entered - 1; j >= 0; j--) {
+					stack[top] = first + order[j];
+					entries[top] = slotEntries[j];
+					top++;
+				}
+				node = -1;
+			}
+			if (top == 0) {
+				break;
+			}
+			top--;
+			if (entries[top] >= tMax) {
+				continue;
+			}
+			int slot = stack[top];
+			if (childCounts[slot] == 0) {
+				node = children[slot];
+				continue;
+			}
+			int end = children[slot] + childCounts[slot];
+			double[] vertices = mesh.getVertices();
+			for (int i = children[slot]; i < end; i++) {
+				kernel.intersect(vertices, i, meshPacket, closest, beta, gamma);
+			}
+			tMax = meshPacket.maxTMax();
+		}
+		for (int k = 0; k < packet.size; k++) {
+			if (closest[k] >= 0) {
+				Intersection hit = mesh.createHit(closest[k], meshPacket.origin(k),
+						meshPacket.direction(k), meshPacket.tMax[k], beta[k], gamma[k]);
+				packet.setHit(k, hit, meshPacket.tMax[k]);
+			}
+		}
+	}
+
+	@Override
+	public boolean occluded(Ray ray, double maxDistance) {
+		if (this.wideNodeCount == 0) {
+			return false;
+		}
+		Ray rayInv = this.toMeshSpace(ray);
+		Point ro = rayInv.origin;
+		Vector rd = rayInv.direction;
+		double ox = ro.x; double oy = ro.y; double oz = ro.z;
+		double ix = rayInv.invX; double iy = rayInv.invY; double iz = rayInv.invZ;
+		double tMin = rayInv.getTMin();
+		int nx = 3 * rayInv.signX; int ny = 1 + 3 * rayInv.signY; int nz = 2 + 3 * rayInv.signZ;
+
+		int[] stack = new int[this.wideDepth * this.width + 1];
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			ray.countIntersection();
+			for (int c = 0; c < width; c++) {
+				int slot = node * width + c;
+				if (childCounts[slot] < 0) {
+					continue;
+				}
+				if (slotEntry(node, c, nx, ny, nz, ox, oy, oz, ix, iy, iz, tMin) >= maxDistance) {
+					continue;
+				}
+				if (childCounts[slot] == 0) {
+					stack[top++] = children[slot];
+					continue;
+				}
+				int end = children[slot] + childCounts[slot];
+				for (int i = children[slot]; i < end; i++) {
+					ray.countIntersection();
+					if (mesh.intersect(i, ro, rd, tMin, maxDistance, null) != Double.POSITIVE_INFINITY) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Estimate the traversal cost of the wide tree with the surface area
+	 * heuristic, every wide node costs one traversal step.
+	 * @return the expected cost of a ray hitting the root, in triangle tests.
+	 */
+	@Override
+	public double sahCost() {
+		if (this.wideNodeCount == 0) {
+			return 0.0;
+		}
+		double rootArea = BinnedSahBuilder.surfaceArea(bounds, 0);
+		double cost = BinnedSahBuilder.traversalCost;
+		double[] box = new double[6];
+		for (int node = 0; node < this.wideNodeCount; node++) {
+			for (int c = 0; c < width; c++) {
+				int slot = node * width + c;
+				if (childCounts[slot] < 0) {
+					continue;
+				}
+				for (int k = 0; k < 6; k++) {
+					box[k] = childBounds[(6 * node + k) * width + c];
+				}
+				double p = BinnedSahBuilder.surfaceArea(box, 0) / rootArea;
+				if (childCounts[slot] > 0) {
+					cost = cost + p * childCounts[slot];
+				} else {
+					cost = cost + p * BinnedSahBuilder.traversalCost;
+				}
+			}
+		}
+		return cost;
+	}
+
+	/**
+	 * Recompute the child bounds bottom up after the triangles of the mesh
+	 * moved. Children are collapsed after their parents, so every wide node
+	 * is refit after all nodes below it. The children of a node keep their
+	 * order along its sort axis, which only affects the traversal order.
+	 * @return the surface area cost of the refit tree relative to the cost
+	 * 			the wide tree had when it was collapsed.
+	 */
+	@Override
+	public double refit() {
+		double[] box = new double[6];
+		double[] tri = new double[6];
+		for (int node = this.wideNodeCount - 1; node >= 0; node--) {
+			for (int c = 0; c < width; c++) {
+				int slot = node * width + c;
+				if (childCounts[slot] < 0) {
+					continue;
+				}
+				SahBins.setEmpty(box, 0);
+				if (childCounts[slot] > 0) {
+					int end = children[slot] + childCounts[slot];
+					for (int i = children[slot]; i < end; i++) {
+						mesh.bounds(i, tri, 0);
+						SahBins.grow(box, 0, tri, 0);
+					}
+				} else {
+					this.childUnion(children[slot], box);
+				}
+				for (int k = 0; k < 6; k++) {
+					childBounds[(6 * node + k) * width + c] = box[k];
+				}
+			}
+		}
+		if (this.wideNodeCount > 0) {
+			SahBins.setEmpty(bounds, 0);
+			this.childUnion(0, bounds);
+		}
+		if (this.wideBuiltCost <= 0.0) {
+			return 1.0;
+		}
+		return this.sahCost() / this.wideBuiltCost;
+	}
+
+	/**
+	 * Grow a box around all children of a wide node.
+	 */
+	private void childUnion(int node, double[] box) {
+		for (int c = 0; c < width; c++) {
+			if (childCounts[node * width + c] < 0) {
+				continue;
+			}
+			for (int k = 0; k < 3; k++) {
+				box[k] = Math.min(box[k], childBounds[(6 * node + k) * width + c]);
+				box[3 + k] = Math.max(box[3 + k], childBounds[(6 * node + 3 + k) * width + c]);
+			}
+		}
+	}
+}
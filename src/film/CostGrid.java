@@ -0,0 +1,129 @@
+package film;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Estimated render cost of the cells of a sparse grid over a
+ * {@link FrameBuffer}, used to cut the buffer into {@link Tile}s of about
+ * equal cost instead of equal size. Cells are step by step pixels, the
+ * last row and column may be cut off by the buffer.
+ */
+public class CostGrid {
+	public final FrameBuffer buffer;
+	public final int step;
+	public final int columns;
+	public final int rows;
+	private final double[] cost;
+	private double[] sums = null; //summed area table, (columns+1) * (rows+1).
+
+	/**
+	 * A grid without cost.
+	 * @param buffer the frame buffer covered.
+	 * @param step width and height of the cells in pixels.
+	 */
+	public CostGrid(FrameBuffer buffer, int step) {
+		if (step <= 0)
+			throw new IllegalArgumentException(
+					"the cells of a cost grid must be larger than zero!");
+		this.buffer = buffer;
+		this.step = step;
+		this.columns = (buffer.xResolution + step - 1) / step;
+		this.rows = (buffer.yResolution + step - 1) / step;
+		this.cost = new double[this.columns * this.rows];
+	}
+
+	/**
+	 * Set the cost of a cell.
+	 */
+	public void set(int column, int row, double value) {
+		this.cost[row * this.columns + column] = value;
+		this.sums = null;
+	}
+
+	/**
+	 * @return the cost of a cell.
+	 */
+	public double get(int column, int row) {
+		return this.cost[row * this.columns + column];
+	}
+
+	/**
+	 * @return the total cost of the cells from c0, r0 (inclusive) to c1, r1 (exclusive).
+	 */
+	private double sum(int c0, int r0, int c1, int r1) {
+		int w = this.columns + 1;
+		return this.sums[r1 * w + c1] - this.sums[r0 * w + c1] - this.sums[r1 * w + c0] + this.sums[r0 * w + c0];
+	}
+
+	private void prepareSums() {
+		int w = this.columns + 1;
+		this.sums = new double[w * (this.rows + 1)];
+		for (int r = 0; r < this.rows; r++) {
+			double rowSum = 0;
+			for (int c = 0; c < this.columns; c++) {
+				rowSum += this.cost[r * this.columns + c];
+				this.sums[(r + 1) * w + c + 1] = this.sums[r * w + c + 1] + rowSum;
+			}
+		}
+	}
+
+	/**
+	 * Cut the buffer into tiles of about equal cost. Regions are halved
+	 * recursively along their longer side at the cell border which splits
+	 * their cost in the ratio of the tiles wanted on each side.
+	 * @param tiles the number of tiles wanted.
+	 * @param minSize tiles are not cut below this width and height in pixels,
+	 * 			so fewer tiles may be returned.
+	 * @return non-overlapping tiles covering the whole buffer.
+	 */
+	public List<Tile> partition(int tiles, int minSize) {
+		if (this.sums == null) {
+			this.prepareSums();
+		}
+		//the smallest number of cells a side of a tile may have.
+		int minCells = Math.max(1, (minSize + this.step - 1) / this.step);
+		List<Tile> result = new ArrayList<Tile>();
+		this.partition(0, 0, this.columns, this.rows, Math.max(tiles, 1), minCells, result);
+		return result;
+	}
+
+	private void partition(int c0, int r0, int c1, int r1, int tiles, int minCells, List<Tile> result) {
+		boolean splitX = (c1 - c0) >= 2 * minCells;
+		boolean splitY = (r1 - r0) >= 2 * minCells;
+		if ((tiles <= 1) || ((splitX == false) && (splitY == false))) {
+			result.add(new Tile(this.buffer, c0 * this.step, r0 * this.step,
+					Math.min(c1 * this.step, this.buffer.xResolution),
+					Math.min(r1 * this.step, this.buffer.yResolution)));
+			return;
+		}
+		int leftTiles = tiles / 2;
+		double total = this.sum(c0, r0, c1, r1);
+		double target = total * leftTiles / tiles;
+		if (splitX && (((c1 - c0) >= (r1 - r0)) || (splitY == false))) {
+			int best = c0 + minCells;
+			double bestError = Double.POSITIVE_INFINITY;
+			for (int c = c0 + minCells; c <= c1 - minCells; c++) {
+				double error = Math.abs(this.sum(c0, r0, c, r1) - target);
+				if (error < bestError) {
+					bestError = error;
+					best = c;
+				}
+			}
+			this.partition(c0, r0, best, r1, leftTiles, minCells, result);
+			this.partition(best, r0, c1, r1, tiles - leftTiles, minCells, result);
+		} else {
+			int best = r0 + minCells;
+			double bestError = Double.POSITIVE_INFINITY;
+			for (int r = r0 + minCells; r <= r1 - minCells; r++) {
+				double error = Math.abs(this.sum(c0, r0, c1, r) - target);
+				if (error < bestError) {
+					bestError = error;
+					best = r;
+				}
+			}
+			this.partition(c0, r0, c1, best, leftTiles, minCells, result);
+			this.partition(c0, best, c1, r1, tiles - leftTiles, minCells, result);
+		}
+	}
+}
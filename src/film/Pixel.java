@@ -20,6 +20,22 @@ public class Pixel {
 	 */
 	private double weightSum = 0;
 
+	/**
+	 * Number of camera samples added with {@link #add(Pixel)}.
+	 */
+	private int samples = 0;
+
+	/**
+	 * Running mean of the luminance of the camera samples.
+	 */
+	private double mean = 0;
+
+	/**
+	 * Running sum of the squared differences of the luminance of the camera
+	 * samples from their mean (Welford).
+	 */
+	private double m2 = 0;
+
 	/**
 	 * Creates a new black {@link Pixel}.
 	 */
@@ -101,6 +117,67 @@ public class Pixel {
 		add(spectrum.red, spectrum.green, spectrum.blue);
 	}
 
+	/**
+	 * Adds the sums of a {@link Pixel} which holds the shading of a single
+	 * camera sample, and updates the luminance statistics of this
+	 * {@link Pixel} with the color of that sample.
+	 * 
+	 * @param sample
+	 *            the shading of one camera sample.
+	 * @throws NullPointerException
+	 *             when the given {@link Pixel} is null.
+	 */
+	public void add(Pixel sample) throws NullPointerException {
+		if (sample == null)
+			throw new NullPointerException("the given sample is null!");
+		this.color = color.add(sample.color);
+		this.weightSum += sample.weightSum;
+
+		RGBSpectrum spectrum = sample.getSpectrum();
+		double luminance = 0.2126 * spectrum.red + 0.7152 * spectrum.green
+				+ 0.0722 * spectrum.blue;
+		samples++;
+		double delta = luminance - mean;
+		mean += delta / samples;
+		m2 += delta * (luminance - mean);
+	}
+
+	/**
+	 * Returns the number of camera samples added with {@link #add(Pixel)}.
+	 * 
+	 * @return the number of camera samples.
+	 */
+	public int getSampleCount() {
+		return samples;
+	}
+
+	/**
+	 * Returns the sample variance of the luminance of the camera samples.
+	 * 
+	 * @return the variance, zero for less than two samples.
+	 */
+	public double getVariance() {
+		if (samples < 2)
+			return 0;
+		return m2 / (samples - 1);
+	}
+
+	/**
+	 * Returns the estimated standard error of the mean luminance of this
+	 * {@link Pixel}, relative to that luminance. Dark pixels are measured
+	 * against a luminance of at least the given floor, so noise in black
+	 * regions does not count as infinitely large.
+	 * 
+	 * @param floor
+	 *            the smallest luminance errors are relative to.
+	 * @return the relative error, infinite for less than two samples.
+	 */
+	public double getRelativeError(double floor) {
+		if (samples < 2)
+			return Double.POSITIVE_INFINITY;
+		return Math.sqrt(getVariance() / samples) / Math.max(mean, floor);
+	}
+
 	/**
 	 * Returns the {@link RGBSpectrum} of this {@link Pixel}.
 	 * 
@@ -0,0 +1,140 @@
+package film;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Hands out the {@link Tile}s of a {@link FrameBuffer} to render threads.
+ * Tiles are ordered from the image centre outwards in a spiral, or along
+ * a Morton curve, so consecutive tiles lie next to each other. Threads take
+ * the next tile when they are done with their last one, slow tiles never
+ * hold up the rest of the queue. Once fewer tiles than threads are left,
+ * the handed out tiles are split into quarters down to a minimum size, so
+ * the end of a render does not wait on a single large tile.
+ */
+public class TileScheduler {
+	private final Deque<Tile> queue = new ArrayDeque<Tile>();
+	private final int threads;
+	private final int minSize;
+
+	/**
+	 * A tile with its position on the ordering curve.
+	 */
+	private static class Entry {
+		final Tile tile;
+		final double key;
+
+		Entry(Tile tile, double key) {
+			this.tile = tile;
+			this.key = key;
+		}
+	}
+
+	/**
+	 * @param buffer the frame buffer to cover.
+	 * @param tileSize width and height of the tiles.
+	 * @param minSize tiles are not split below this width and height.
+	 * @param threads the number of render threads taking tiles.
+	 * @param spiral order the tiles centre out, else along a Morton curve.
+	 */
+	public TileScheduler(FrameBuffer buffer, int tileSize, int minSize, int threads, boolean spiral) {
+		this(buffer, buffer.subdivide(tileSize, tileSize), tileSize, minSize, threads, spiral);
+	}
+
+	/**
+	 * @param buffer the frame buffer the tiles cover.
+	 * @param tiles non-overlapping tiles of any size.
+	 * @param tileSize width of the spiral rings and of the Morton cells.
+	 * @param minSize tiles are not split below this width and height.
+	 * @param threads the number of render threads taking tiles.
+	 * @param spiral order the tiles centre out, else along a Morton curve.
+	 */
+	public TileScheduler(FrameBuffer buffer, Collection<Tile> tiles, int tileSize, int minSize,
+			int threads, boolean spiral) {
+		this.threads = threads;
+		this.minSize = Math.max(minSize, 1);
+		double cx = buffer.xResolution / 2.0;
+		double cy = buffer.yResolution / 2.0;
+		List<Entry> entries = new ArrayList<Entry>();
+		for (Tile tile : tiles) {
+			double x = (tile.xStart + tile.xEnd) / 2.0;
+			double y = (tile.yStart + tile.yEnd) / 2.0;
+			double key;
+			if (spiral) {
+				//the ring around the centre tile, then the angle within the ring.
+				double dx = (x - cx) / tileSize;
+				double dy = (y - cy) / tileSize;
+				double ring = Math.floor(Math.max(Math.abs(dx), Math.abs(dy)) + 0.5);
+				double angle = (Math.atan2(dy, dx) + Math.PI) / (2 * Math.PI);
+				key = ring + Math.min(angle, 0.999999);
+			} else {
+				key = morton((int) (x / tileSize), (int) (y / tileSize));
+			}
+			entries.add(new Entry(tile, key));
+		}
+		Collections.sort(entries, new Comparator<Entry>() {
+			@Override
+			public int compare(Entry e1, Entry e2) {
+				return Double.compare(e1.key, e2.key);
+			}
+		});
+		for (Entry entry : entries) {
+			this.queue.addLast(entry.tile);
+		}
+	}
+
+	/**
+	 * @return x and y with their bits interleaved.
+	 */
+	private static long morton(int x, int y) {
+		long key = 0;
+		for (int bit = 0; bit < 31; bit++) {
+			key |= ((long) ((x >> bit) & 1)) << (2 * bit);
+			key |= ((long) ((y >> bit) & 1)) << (2 * bit + 1);
+		}
+		return key;
+	}
+
+	/**
+	 * Take the next tile.
+	 * @return the tile or null once the whole buffer was handed out.
+	 */
+	public synchronized Tile next() {
+		Tile tile = this.queue.pollFirst();
+		while ((tile != null) && (this.queue.size() < this.threads)) {
+			int width = tile.getWidth();
+			int height = tile.getHeight();
+			boolean splitX = width >= 2 * this.minSize;
+			boolean splitY = height >= 2 * this.minSize;
+			if ((splitX == false) && (splitY == false)) {
+				break;
+			}
+			int xMid = splitX ? (tile.xStart + width / 2) : tile.xEnd;
+			int yMid = splitY ? (tile.yStart + height / 2) : tile.yEnd;
+			//the quarters go back to the front of the queue in scan order.
+			if (splitX && splitY) {
+				this.queue.addFirst(new Tile(tile.buffer, xMid, yMid, tile.xEnd, tile.yEnd));
+			}
+			if (splitY) {
+				this.queue.addFirst(new Tile(tile.buffer, tile.xStart, yMid, xMid, tile.yEnd));
+			}
+			if (splitX) {
+				this.queue.addFirst(new Tile(tile.buffer, xMid, tile.yStart, tile.xEnd, yMid));
+			}
+			tile = new Tile(tile.buffer, tile.xStart, tile.yStart, xMid, yMid);
+		}
+		return tile;
+	}
+
+	/**
+	 * @return the number of tiles not handed out yet.
+	 */
+	public synchronized int remaining() {
+		return this.queue.size();
+	}
+}
@@ -0,0 +1,39 @@
+package integrator;
+
+import film.Pixel;
+import material.ColorMap;
+import math.Color;
+import math.Intersection;
+import math.Ray;
+
+/**
+ * A heat map of the intersection tests each camera ray needed, shapes and
+ * tree nodes alike. Packets are tested as a whole and count nothing, so the
+ * map needs single rays.
+ */
+public class ComplexityIntegrator implements Integrator {
+	private final ColorMap colorMap;
+
+	/**
+	 * @param max the test count shown in the hottest color, set with
+	 * 			-complexityMax, 1200 by default.
+	 */
+	public ComplexityIntegrator(int max) {
+		this.colorMap = new ColorMap(0.0, max, null, 1.0, "hot");
+	}
+
+	@Override
+	public void shade(Pixel pixel, Ray ray, Intersection hit) {
+		if (hit == null) {
+			pixel.add(0, 0, 0);
+			return;
+		}
+		Color pixelColor = this.colorMap.getCompColor(ray.getIntersectionCounter());
+		pixel.add(pixelColor.r, pixelColor.g, pixelColor.b);
+	}
+
+	@Override
+	public String getName() {
+		return "complexity";
+	}
+}
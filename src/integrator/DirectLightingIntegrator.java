@@ -0,0 +1,151 @@
+package integrator;
+
+import java.util.List;
+
+import camera.Camera;
+import film.Pixel;
+import light.AreaLight;
+import light.EvalLightInt;
+import light.PointLight;
+import main.World;
+import math.Color;
+import math.Intersection;
+import math.Ray;
+import math.Vector;
+
+/**
+ * Ambient light plus the direct light of the point and area lights of a
+ * world, with shadow rays against the world's shapes.
+ */
+public class DirectLightingIntegrator implements Integrator {
+	private final World world;
+
+	/**
+	 * @param world the scene whose lights are sampled.
+	 */
+	public DirectLightingIntegrator(World world) {
+		this.world = world;
+	}
+
+	@Override
+	public void shade(Pixel pixel, Ray ray, Intersection closestInt) {
+		//see if an intersection was found
+		if (closestInt == null) {
+			pixel.add(0, 0, 0);
+			return;
+		}
+
+		//add the ambient Lighting result.
+		double[] ambRes = computeAmbientShading(closestInt, world.ambient, closestInt.mat.getDiffuseRho());
+		pixel.add(ambRes[0], ambRes[1], ambRes[2],1.0);
+
+		//------------------------ point light sources. -----------------------------------------------
+		for (PointLight pl: world.plights){
+			Vector l  = pl.l(closestInt.point);
+			Vector n  = closestInt.normal.toVector();
+			Vector toLight = pl.origin.toVector().subtract(closestInt.point.toVector());
+			double dot = (n.dot(l));
+			if (dot > 0){
+				if (pl.shadows) {
+					//launch a shadow ray, the light sits at t = 1.
+					Ray shadowRay = new Ray(closestInt.point,toLight);
+					if (world.occluded(shadowRay, 1.0, null) == false) {
+						//its not in the shadow.
+						double[] lghtRes = computeShading(closestInt,toLight,pl, dot, world.camera );
+						pixel.add(lghtRes[0], lghtRes[1], lghtRes[2],1.0);
+					}
+				} else {
+					//there are no shadows directly shade things
+					double[] lghtRes = computeShading(closestInt,toLight,pl, dot, world.camera );
+					pixel.add(lghtRes[0], lghtRes[1], lghtRes[2],1.0);
+				}
+			}
+		}
+
+		// --------------------- handle area lights.------------------------------------------------
+		Vector p = closestInt.point.toVector();
+		for(AreaLight al : world.alights){
+			if (al.shape.inShape(p.toPoint())) {
+				// the intersection is on the point light.
+				double [] lghtRes = computeAmbientShading(closestInt,closestInt.mat.getDiffuseRho(),al.intensity);
+				pixel.add(lghtRes[0], lghtRes[1], lghtRes[2],1.0);
+			} else {
+				Vector lghtVct = new Vector(0.0,0.0,0.0);
+				List<EvalLightInt> lightInts = al.getpPrime(closestInt, world.camera);
+				for (EvalLightInt lightInt : lightInts) {
+					Vector NPrime = lightInt.nPrime.toVector();
+					Vector L = p.subtract(lightInt.pPrime.toVector()).normalize();
+
+					if (NPrime.dot(L) > 0){
+						//the shadow ray ends on the light sample, the light itself never blocks.
+						Vector toSample = lightInt.pPrime.toVector().subtract(p);
+						Ray shadowRay = new Ray(p.toPoint(), toSample);
+						if (world.occluded(shadowRay, 1.0, al) == false) {
+							//its not in the shadow.
+							lghtVct = lghtVct.add(computeAlShading(closestInt,al,lightInt, world.camera ));
+						}
+					}
+				}
+				if (lightInts.size() > 0){
+					Color lghtClr = lghtVct.scale(1.0/lightInts.size()).toColor();
+					pixel.add(lghtClr.r, lghtClr.g, lghtClr.b,1.0);
+				}
+			}
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "direct";
+	}
+
+	/**
+	 * Computes the ambient shading part of the lighting.
+	 * @param inter the ray object intersection closest to the camera.
+	 * @param La ambient lighting intensity.
+	 * @param Rs
+	 * @return
+	 */
+	private static double[] computeAmbientShading(Intersection inter,Double La, Double Rs) {
+		Color hitClr = inter.mat.getColor(inter.txtPnt);
+		Vector Cs = hitClr.toVector();
+		double[] ambRes = Cs.scale(La).scale(Rs).toArray();
+		return ambRes;
+	}
+
+	private static double[] computeShading(Intersection inter,Vector toLight,PointLight light, double dot, Camera cam) {
+		Vector N = inter.normal.toVector();
+		Vector L = light.l(inter.point);
+		Vector V = cam.getOrigin().subtract(inter.point).normalize();
+
+		Vector lightRes;
+		Color hitClr = inter.mat.getColor(inter.txtPnt);
+		Vector Cs = hitClr.toVector();
+		Vector Lp = light.L();
+		double Rs = inter.mat.getDiffuse(N, L);
+		double d = toLight.lengthSquared();
+		lightRes = Cs.elPrd(Lp).scale(dot).scale(Rs/Math.PI).scale(1/d);
+
+		//specular
+		double spec = inter.mat.getSpecular(N, L, V);
+		lightRes = lightRes.add(Lp.scale(Rs*spec));
+		return lightRes.toArray();
+	}
+
+	public static Vector computeAlShading(Intersection inter, AreaLight al, EvalLightInt lightInt, Camera cam ){
+		Vector pPrime = lightInt.pPrime.toVector();
+		double G = lightInt.G;
+		Vector La = al.L(pPrime.toPoint());
+		Color hitClr = inter.mat.getColor(inter.txtPnt);
+		Vector Cs = hitClr.toVector();
+		//diffuse
+		double Rs = lightInt.diff;
+		Vector intermediateResult = Cs.elPrd(La).scale(Rs);
+		//specular
+		double spec = lightInt.spec;
+		Vector Lp = lightInt.Lp;
+		intermediateResult = intermediateResult.add(Cs.elPrd(Lp).scale(spec));
+		intermediateResult = intermediateResult.scale(G).scale(1.0 / lightInt.prob);
+		return intermediateResult;
+	}
+}
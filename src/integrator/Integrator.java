@@ -0,0 +1,26 @@
+package integrator;
+
+import film.Pixel;
+import math.Intersection;
+import math.Ray;
+
+/**
+ * Turns the closest hit of a camera ray into pixel contributions. One
+ * integrator is shared by all render threads, so implementations must not
+ * keep state per ray.
+ */
+public interface Integrator {
+
+	/**
+	 * Add the contribution of one camera ray to its pixel.
+	 * @param pixel the pixel the ray belongs to.
+	 * @param ray the camera ray.
+	 * @param hit the closest intersection of the ray, null for a miss.
+	 */
+	public void shade(Pixel pixel, Ray ray, Intersection hit);
+
+	/**
+	 * @return a short description of the integrator.
+	 */
+	public String getName();
+}
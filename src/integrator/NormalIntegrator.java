@@ -0,0 +1,27 @@
+package integrator;
+
+import film.Pixel;
+import math.Color;
+import math.Intersection;
+import math.Ray;
+
+/**
+ * Shows the shading normals of the closest hits, mapped from [-1,1] to [0,1].
+ */
+public class NormalIntegrator implements Integrator {
+
+	@Override
+	public void shade(Pixel pixel, Ray ray, Intersection hit) {
+		if (hit == null) {
+			pixel.add(0, 0, 0);
+			return;
+		}
+		Color Cs = hit.normal.toVector().toColor();
+		pixel.add(0.5 + 0.5*Cs.r, 0.5 + 0.5*Cs.g, 0.5 + 0.5*Cs.b);
+	}
+
+	@Override
+	public String getName() {
+		return "normals";
+	}
+}
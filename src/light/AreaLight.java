@@ -4,8 +4,8 @@ import java.util.ArrayList;
 import java.util.List;
 
 import camera.Camera;
+import shape.Bounded;
 import shape.LightableShape;
-import shape.Shape;
 import material.Material;
 import math.Color;
 import math.Intersection;
@@ -15,7 +15,7 @@ import math.Ray;
 import math.TextPoint;
 import math.Vector;
 
-public class AreaLight implements Shape  {
+public class AreaLight implements Bounded  {
 	public final LightableShape shape;
 	public final Material mat;
 	public final double intensity;
@@ -107,5 +107,19 @@ public class AreaLight implements Shape  {
 	public List<Intersection> intersect(Ray ray) {
 		return this.shape.intersect(ray);
 	}
+	
+	@Override
+	public Intersection intersectClosest(Ray ray) {
+		return this.shape.intersectClosest(ray);
+	}
+
+	@Override
+	public boolean occluded(Ray ray, double maxDistance) {
+		return this.shape.occluded(ray, maxDistance);
+	}
 
+	@Override
+	public Point[] getWorldBounds() {
+		return this.shape.getWorldBounds();
+	}
 }
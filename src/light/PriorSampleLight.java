@@ -4,7 +4,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
-import main.Renderer;
+import integrator.DirectLightingIntegrator;
 import math.Intersection;
 import math.Point;
 import math.Vector;
@@ -68,7 +68,7 @@ public class PriorSampleLight extends AreaLight {
 				Vector Lp = this.shape.getMaterial().getColor(currentP.txtPnt).toVector();
 				EvalLightInt evlInt = new EvalLightInt(currentP,G,spec, diff, Lp, current.getInverseArea());
 				AreaLight currentAI = new AreaLight(current, this.intensity, this.sampleNo/this.subLightNo);
-				Vector testRes = Renderer.computeAlShading(inter, currentAI, evlInt, cam);
+				Vector testRes = DirectLightingIntegrator.computeAlShading(inter, currentAI, evlInt, cam);
 				funArray[i] = (testRes.x + testRes.y + testRes.z)/3;
 			} else {
 				funArray[i] = G*(diff + spec);
@@ -0,0 +1,426 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import acceleration.RayPacket;
+import film.CostGrid;
+import film.FrameBuffer;
+import film.Pixel;
+import film.Tile;
+import film.TileScheduler;
+import gui.ImagePanel;
+import gui.ProgressReporter;
+import integrator.Integrator;
+import math.Constants;
+import math.Intersection;
+import math.Ray;
+import sampling.Sample;
+
+/**
+ * Renders a world into a frame buffer with an integrator. The driver cuts
+ * the buffer into tiles, which render threads take from a TileScheduler,
+ * traces the camera rays of each tile singly or in packets, and hands the
+ * closest hits to the integrator. Every camera ray is shaded into a pixel
+ * of its own before it is added to the frame buffer, so the buffer keeps
+ * per pixel statistics of the samples for adaptive sampling. It runs without a graphical user
+ * interface, the panel and the progress reporter are optional.
+ */
+public class RenderDriver {
+	public static final int TILE_SIZE = 64;	   //width and height of the tiles in pixels.
+	public static final int MIN_TILE_SIZE = 16; //the last tiles are split down to this size.
+
+	public final World world;
+	public final Integrator integrator;
+	public final FrameBuffer buffer;
+	private final int threads;
+	private final int packetSize;
+	private ImagePanel panel = null;
+	private ProgressReporter reporter = null;
+	private int passes = 0;			//progressive passes of one ray per pixel, 0 renders tiles to world.spp.
+	private double timeBudget = 0;	//seconds after which no further pass is started, 0 for no limit.
+	private double maxError = 0;	//relative error adaptive sampling renders down to, 0 renders every pixel alike.
+	private int maxSamples = 0;		//camera rays adaptive sampling may spend on a single pixel.
+	private double meanSamples = 0;	//camera rays per pixel adaptive sampling may spend in total, 0 for no limit.
+	private boolean[] active = null; //pixels the current adaptive round adds rays to, null for all.
+
+	/**
+	 * @param world the scene.
+	 * @param integrator shades the closest hits.
+	 * @param buffer the frame buffer the image is added to.
+	 * @param threads the number of render threads.
+	 * @param packetSize camera rays traced together, 4, 8 or 16, 0 traces single rays.
+	 */
+	public RenderDriver(World world, Integrator integrator, FrameBuffer buffer, int threads, int packetSize) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one render thread is needed.");
+		}
+		if ((packetSize != 0) && (packetSize != 4) && (packetSize != 8) && (packetSize != 16)) {
+			throw new IllegalArgumentException("the packet size has to be 0, 4, 8 or 16!");
+		}
+		this.world = world;
+		this.integrator = integrator;
+		this.buffer = buffer;
+		this.threads = threads;
+		this.packetSize = packetSize;
+	}
+
+	/**
+	 * @param panel updated after each tile, may be null.
+	 */
+	public void setPanel(ImagePanel panel) {
+		this.panel = panel;
+	}
+
+	/**
+	 * @param reporter told about the pixels of each tile, may be null.
+	 */
+	public void setReporter(ProgressReporter reporter) {
+		this.reporter = reporter;
+	}
+
+	/**
+	 * Render progressively, every pass adds one camera ray per pixel to the
+	 * whole frame and the panel is refreshed after each pass.
+	 * @param passes the number of passes, 0 renders every tile to world.spp at
+	 * 			once unless there is a time budget, then world.spp passes are made.
+	 * @param timeBudget no pass is started after this many seconds, 0 for no limit.
+	 */
+	public void setProgressive(int passes, double timeBudget) {
+		if (passes < 0) {
+			throw new IllegalArgumentException("the number of passes cannot be negative!");
+		}
+		if ((passes == 0) && (timeBudget > 0)) {
+			passes = this.world.spp;
+		}
+		this.passes = passes;
+		this.timeBudget = timeBudget;
+	}
+
+	/**
+	 * Render adaptively. Every pixel first gets Constants.adaptiveMinSamples
+	 * camera rays, then rounds of as many rays again are added to the pixels
+	 * whose relative error is still above the given error, until none is
+	 * left or the budget is spent. Progressive passes are ignored.
+	 * @param maxError the relative standard error of the pixel luminance
+	 * 			to render down to, 0 disables adaptive sampling.
+	 * @param maxSamples camera rays a single pixel may get.
+	 * @param meanSamples camera rays per pixel all pixels may get together,
+	 * 			0 for no limit besides maxSamples.
+	 */
+	public void setAdaptive(double maxError, int maxSamples, double meanSamples) {
+		if (maxError < 0) {
+			throw new IllegalArgumentException("the error of adaptive sampling cannot be negative!");
+		}
+		if ((maxError > 0) && (maxSamples < Constants.adaptiveMinSamples)) {
+			throw new IllegalArgumentException("adaptive sampling needs at least "
+					+ Constants.adaptiveMinSamples + " samples per pixel!");
+		}
+		if (meanSamples < 0) {
+			throw new IllegalArgumentException("the sample budget cannot be negative!");
+		}
+		this.maxError = maxError;
+		this.maxSamples = maxSamples;
+		this.meanSamples = meanSamples;
+	}
+
+	/**
+	 * Render all tiles and wait for the render threads.
+	 * @return the time it took in seconds.
+	 */
+	public double render() {
+		long t = System.nanoTime();
+		List<Tile> tiles;
+		if (Constants.useCostTiles) {
+			tiles = this.costTiles();
+		} else {
+			tiles = new ArrayList<Tile>(this.buffer.subdivide(TILE_SIZE, TILE_SIZE));
+		}
+
+		if (this.maxError > 0) {
+			this.renderAdaptive(tiles, t);
+		} else if (this.passes > 0) {
+			Tile frame = new Tile(this.buffer, 0, 0, this.buffer.xResolution, this.buffer.yResolution);
+			for (int pass = 1; pass <= this.passes; pass++) {
+				this.renderPass(tiles, 1, false);
+				if (this.panel != null) {
+					this.panel.update(frame);
+				}
+				if (this.reporter != null) {
+					long pixels = (long) this.buffer.xResolution * this.buffer.yResolution;
+					this.reporter.update((int) (pixels * pass / this.passes - pixels * (pass - 1) / this.passes));
+				}
+				double elTime = (System.nanoTime() - t) * Math.pow(10, -9);
+				System.out.println("Pass " + pass + " done after [s]:");
+				System.out.println(elTime);
+				if ((this.timeBudget > 0) && (elTime >= this.timeBudget)) {
+					break;
+				}
+			}
+		} else {
+			this.renderPass(tiles, this.world.spp, true);
+		}
+
+		// signal the reporter that the task is done
+		if (this.reporter != null) {
+			this.reporter.done();
+		}
+		double elTime = (System.nanoTime() - t) * Math.pow(10, -9);
+		System.out.println("Rendering with the " + this.integrator.getName() + " integrator took [s]:");
+		System.out.println(elTime);
+		return elTime;
+	}
+
+	/**
+	 * Add rounds of camera rays to the pixels whose error is above maxError.
+	 * @param t the start of the render in nanoseconds.
+	 */
+	private void renderAdaptive(List<Tile> tiles, long t) {
+		int width = this.buffer.xResolution;
+		int height = this.buffer.yResolution;
+		long pixels = (long) width * height;
+		double budget = (this.meanSamples > 0) ? this.meanSamples * pixels : Double.POSITIVE_INFINITY;
+		Tile frame = new Tile(this.buffer, 0, 0, width, height);
+		boolean[] mask = new boolean[width * height];
+		long rays = 0;
+		int reported = 0;
+		int round = 0;
+		int todo = (int) pixels;
+		List<Tile> roundTiles = tiles;
+		while (true) {
+			//spread what is left of the budget over the pixels still above the error.
+			int spp = (int) Math.min(Constants.adaptiveMinSamples, (budget - rays) / todo);
+			if (spp < 1) {
+				break;
+			}
+			this.renderPass(roundTiles, spp, false);
+			round++;
+
+			rays = 0;
+			todo = 0;
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					Pixel pixel = this.buffer.getPixel(x, y);
+					rays += pixel.getSampleCount();
+					boolean above = (pixel.getSampleCount() < this.maxSamples)
+							&& (pixel.getRelativeError(Constants.adaptiveFloor) > this.maxError);
+					mask[y * width + x] = above;
+					if (above) {
+						todo++;
+					}
+				}
+			}
+			if (this.panel != null) {
+				this.panel.update(frame);
+			}
+			if (this.reporter != null) {
+				//the share of the pixels which are done or of the budget spent, whichever is larger.
+				double share = Math.max(1.0 - (double) todo / pixels, rays / Math.min(budget, (double) this.maxSamples * pixels));
+				int done = (int) (pixels * Math.min(share, 1.0));
+				this.reporter.update(done - reported);
+				reported = done;
+			}
+			double elTime = (System.nanoTime() - t) * Math.pow(10, -9);
+			System.out.println("Round " + round + " left " + todo + " pixels above the error after [s]:");
+			System.out.println(elTime);
+			if (todo == 0) {
+				break;
+			}
+
+			//only tiles with pixels above the error take part in the next round.
+			this.active = mask;
+			roundTiles = new ArrayList<Tile>();
+			for (Tile tile : tiles) {
+				if (this.hasActive(tile)) {
+					roundTiles.add(tile);
+				}
+			}
+		}
+		this.active = null;
+		System.out.println("Adaptive sampling camera rays per pixel:");
+		System.out.println((double) rays / pixels);
+	}
+
+	/**
+	 * @return whether a pixel of the tile gets rays in the current adaptive round.
+	 */
+	private boolean hasActive(Tile tile) {
+		for (int y = tile.yStart; y < tile.yEnd; ++y) {
+			for (int x = tile.xStart; x < tile.xEnd; ++x) {
+				if (this.active[y * this.buffer.xResolution + x]) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Render all tiles once on the render threads.
+	 * @param spp camera rays per pixel.
+	 * @param showTiles update the panel and the reporter after every tile.
+	 */
+	private void renderPass(List<Tile> tiles, final int spp, final boolean showTiles) {
+		final ExecutorService service = Executors.newFixedThreadPool(this.threads);
+
+		// every thread takes tiles until the whole buffer is done.
+		final TileScheduler scheduler = new TileScheduler(this.buffer, tiles, TILE_SIZE, MIN_TILE_SIZE,
+				this.threads, Constants.spiralTiles);
+		for (int i = 0; i < this.threads; i++) {
+			service.submit(new Runnable() {
+				@Override
+				public void run() {
+					Tile tile;
+					while ((tile = scheduler.next()) != null) {
+						renderTile(tile, spp, showTiles);
+					}
+				}
+			});
+		}
+
+		// execute the threads
+		service.shutdown();
+
+		// wait until the threads have finished
+		try {
+			service.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Trace one camera ray per cell of a sparse grid and cut the buffer into
+	 * as many tiles as TILE_SIZE would give, but of about equal cost. The
+	 * cost of a cell is the number of tree nodes and triangles its ray
+	 * tested, plus one for the ray itself.
+	 * @return the tiles.
+	 */
+	private List<Tile> costTiles() {
+		long t = System.nanoTime();
+		CostGrid grid = new CostGrid(this.buffer, Constants.costStep);
+		for (int row = 0; row < grid.rows; row++) {
+			for (int column = 0; column < grid.columns; column++) {
+				int x = Math.min(column * grid.step + grid.step / 2, this.buffer.xResolution - 1);
+				int y = Math.min(row * grid.step + grid.step / 2, this.buffer.yResolution - 1);
+				Ray ray = this.world.camera.generateRay(new Sample(x, y, 0.5, 1, this.world.camera));
+				this.world.intersectClosest(ray);
+				grid.set(column, row, 1 + ray.getIntersectionCounter());
+			}
+		}
+		int columns = (this.buffer.xResolution + TILE_SIZE - 1) / TILE_SIZE;
+		int rows = (this.buffer.yResolution + TILE_SIZE - 1) / TILE_SIZE;
+		List<Tile> tiles = grid.partition(columns * rows, MIN_TILE_SIZE);
+		double elTime = (System.nanoTime() - t) * Math.pow(10, -9);
+		System.out.println("Cost pre-pass took [s]:");
+		System.out.println(elTime);
+		return tiles;
+	}
+
+	/**
+	 * Render a single tile to world.spp on the calling thread.
+	 */
+	public void renderTile(Tile tile) {
+		this.renderTile(tile, this.world.spp, true);
+	}
+
+	private void renderTile(Tile tile, int spp, boolean showTile) {
+		if ((this.packetSize > 0) && (this.active == null)) {
+			this.tracePackets(tile, spp);
+		} else {
+			this.traceRays(tile, spp);
+		}
+		// update the graphical user interface
+		if (showTile && (this.panel != null)) {
+			this.panel.update(tile);
+		}
+		// update the progress reporter
+		if (showTile && (this.reporter != null)) {
+			this.reporter.update(tile.getWidth() * tile.getHeight());
+		}
+	}
+
+	/**
+	 * Trace the camera rays of a tile one by one, in an adaptive round only
+	 * those of the active pixels.
+	 */
+	private void traceRays(Tile tile, int spp) {
+		// iterate over the contents of the tile
+		for (int y = tile.yStart; y < tile.yEnd; ++y) {
+			for (int x = tile.xStart; x < tile.xEnd; ++x) {
+				if ((this.active != null) && (this.active[y * this.buffer.xResolution + x] == false)) {
+					continue;
+				}
+				int raysHere = spp;
+				if (this.active != null) {
+					//no pixel gets more than maxSamples.
+					raysHere = Math.min(spp, this.maxSamples - this.buffer.getPixel(x, y).getSampleCount());
+				}
+				for (Ray ray : this.cameraRays(x, y, raysHere)) {
+					//find the intersection closest to the camera.
+					Intersection closestInt = this.world.intersectClosest(ray);
+					this.shade(x, y, ray, closestInt);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Trace the camera rays of a tile in packets of neighbouring pixels. The
+	 * rays of one sample index of all pixels in a block form a packet.
+	 */
+	private void tracePackets(Tile tile, int spp) {
+		int blockWidth = (this.packetSize == 4) ? 2 : 4;
+		int blockHeight = this.packetSize / blockWidth;
+		for (int by = tile.yStart; by < tile.yEnd; by += blockHeight) {
+			for (int bx = tile.xStart; bx < tile.xEnd; bx += blockWidth) {
+				int yEnd = Math.min(by + blockHeight, tile.yEnd);
+				int xEnd = Math.min(bx + blockWidth, tile.xEnd);
+				int pixels = (yEnd - by) * (xEnd - bx);
+				int[] xs = new int[pixels];
+				int[] ys = new int[pixels];
+				List<List<Ray>> pixelRays = new ArrayList<List<Ray>>();
+				int p = 0;
+				for (int y = by; y < yEnd; ++y) {
+					for (int x = bx; x < xEnd; ++x) {
+						xs[p] = x;
+						ys[p] = y;
+						pixelRays.add(this.cameraRays(x, y, spp));
+						p++;
+					}
+				}
+				for (int s = 0; s < spp; s++) {
+					Ray[] rays = new Ray[pixels];
+					for (p = 0; p < pixels; p++) {
+						rays[p] = pixelRays.get(p).get(s);
+					}
+					RayPacket packet = new RayPacket(rays);
+					this.world.intersectClosest(packet);
+					for (p = 0; p < pixels; p++) {
+						this.shade(xs[p], ys[p], rays[p], packet.hits[p]);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Shade one camera ray into a pixel of its own and add that as a sample
+	 * to the frame buffer.
+	 */
+	private void shade(int x, int y, Ray ray, Intersection hit) {
+		Pixel sample = new Pixel();
+		this.integrator.shade(sample, ray, hit);
+		this.buffer.getPixel(x, y).add(sample);
+	}
+
+	/**
+	 * @return spp stratified camera rays of a pixel.
+	 */
+	private List<Ray> cameraRays(int x, int y, int spp) {
+		return new Sample(x, y, 0.5, spp, this.world.camera).getRays();
+	}
+}
@@ -3,33 +3,21 @@ package main;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
 import javax.imageio.ImageIO;
 
-import camera.Camera;
+import acceleration.ForkJoinSahBuilder;
+import acceleration.PacketKernel;
 import film.FrameBuffer;
-import film.Tile;
 import gui.ImagePanel;
 import gui.ProgressReporter;
 import gui.RenderFrame;
+import integrator.ComplexityIntegrator;
+import integrator.DirectLightingIntegrator;
+import integrator.Integrator;
+import integrator.NormalIntegrator;
 import main.World;
-import math.Color;
 import math.Constants;
-import math.Intersection;
-import math.Ray;
-import math.Vector;
-import light.AreaLight;
-import light.EvalLightInt;
-import light.PointLight;
-import sampling.Sample;
-import shape.Shape;
-import material.ColorMap;
 
 /**
  * Entry point of your renderer.
@@ -52,6 +40,19 @@ public class Renderer {
 		boolean gui = true;
 		int sampleNo = 50;
 		int alSplits = 10;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int packets = 0;
+		String integratorName = "direct";
+		int passes = 0;
+		double budget = 0;
+		double adaptive = 0;
+		int maxRays = 64;
+		double meanRays = 0;
+		int complexityMax = 1200;
+		if (Constants.normalVisualization)
+			integratorName = "normals";
+		else if (Constants.compVisualization)
+			integratorName = "complexity";
 
 
 		/**********************************************************************
@@ -75,6 +76,24 @@ public class Renderer {
 						sampleNo = Integer.parseInt(arguments[++i]);
 					else if (arguments[i].equals("-alSplits"))
 						alSplits = Integer.parseInt(arguments[++i]);
+					else if (arguments[i].equals("-threads"))
+						threads = Integer.parseInt(arguments[++i]);
+					else if (arguments[i].equals("-packets"))
+						packets = Integer.parseInt(arguments[++i]);
+					else if (arguments[i].equals("-integrator"))
+						integratorName = arguments[++i];
+					else if (arguments[i].equals("-passes"))
+						passes = Integer.parseInt(arguments[++i]);
+					else if (arguments[i].equals("-budget"))
+						budget = Double.parseDouble(arguments[++i]);
+					else if (arguments[i].equals("-adaptive"))
+						adaptive = Double.parseDouble(arguments[++i]);
+					else if (arguments[i].equals("-maxRays"))
+						maxRays = Integer.parseInt(arguments[++i]);
+					else if (arguments[i].equals("-meanRays"))
+						meanRays = Double.parseDouble(arguments[++i]);
+					else if (arguments[i].equals("-complexityMax"))
+						complexityMax = Integer.parseInt(arguments[++i]);
 					else if (arguments[i].equals("-help")) {
 						printHelp();
 						return;
@@ -108,6 +127,36 @@ public class Renderer {
 		if (sensitivity <= 0)
 			throw new IllegalArgumentException("the sensitivity cannot be "
 					+ "smaller than or equal to zero!");
+		if (threads <= 0)
+			throw new IllegalArgumentException("the number of threads cannot be "
+					+ "smaller than or equal to zero!");
+		if (passes < 0)
+			throw new IllegalArgumentException("the number of passes cannot be "
+					+ "smaller than zero!");
+		if (budget < 0)
+			throw new IllegalArgumentException("the time budget cannot be "
+					+ "smaller than zero!");
+		if (adaptive < 0)
+			throw new IllegalArgumentException("the adaptive sampling error cannot be "
+					+ "smaller than zero!");
+		if ((adaptive > 0) && (maxRays < Constants.adaptiveMinSamples))
+			throw new IllegalArgumentException("the maximum camera rays per pixel cannot be "
+					+ "smaller than " + Constants.adaptiveMinSamples + "!");
+		if (meanRays < 0)
+			throw new IllegalArgumentException("the mean camera rays per pixel cannot be "
+					+ "smaller than zero!");
+		if ((packets != 0) && (packets != 4) && (packets != 8) && (packets != 16))
+			throw new IllegalArgumentException("the packet size has to be "
+					+ "0, 4, 8 or 16!");
+		if (integratorName.equals("complexity") && (packets > 0))
+			throw new IllegalArgumentException("the complexity integrator "
+					+ "needs single rays, -packets 0!");
+		if (complexityMax <= 0)
+			throw new IllegalArgumentException("the complexity maximum cannot be "
+					+ "smaller than or equal to zero!");
+		ForkJoinSahBuilder.setThreads(threads);
+		if (packets > 0)
+			System.out.println("packet kernel: " + PacketKernel.get().getName());
 
 		/**********************************************************************
 		 * Initialize the graphical user interface
@@ -154,202 +203,13 @@ public class Renderer {
 		/**********************************************************************
 		 * Multi-threaded rendering of the scene
 		 *********************************************************************/
-		final ExecutorService service = Executors.newFixedThreadPool(Runtime
-				.getRuntime().availableProcessors());
-
-		// subdivide the buffer in equal sized tiles
-		for (final Tile tile : buffer.subdivide(64, 64)) {
-			// create a thread which renders the specific tile
-			Thread thread = new Thread() {
-				/*
-				 * (non-Javadoc)
-				 * 
-				 * @see java.lang.Thread#run()
-				 */
-				@Override
-				public void run() {
-					List<Intersection> intersections = new ArrayList<Intersection>();
-					List<Intersection> shadowInters = new ArrayList<Intersection>();					
-					List<Double> dists = new ArrayList<Double>();
-					// iterate over the contents of the tile
-					for (int y = tile.yStart; y < tile.yEnd; ++y) {
-						for (int x = tile.xStart; x < tile.xEnd; ++x) {
-							// create a ray 
-							//Ray ray = world.camera.generateRay(new Sample(x,y, 0.5));
-							Sample sample = new Sample(x, y, 0.5, world.spp, world.camera);
-							List<Ray> rpp = sample.getRays();
-
-							for (Ray ray: rpp) {
-								//Intersection test
-								intersections = testforIntsections(world.shapes,ray);
-								//see if an intersection was found
-								if (intersections.isEmpty()) {
-									buffer.getPixel(x, y).add(0, 0, 0);
-									//System.err.println("no hit");
-								} else {
-									//find the intersection closest to the camera.
-									Vector camPos = world.camera.getOrigin().toVector();
-									Vector intPos;
-									Double dist;
-									dists.clear();
-									for (Intersection currentInter: intersections){
-										intPos = currentInter.point.toVector();
-										dist = camPos.subtract(intPos).lengthSquared();
-										dists.add(dist);
-									}
-									int index = dists.indexOf(Collections.min(dists));
-									Intersection closestInt = intersections.get(index);
-
-									//add a color contribution to the pixel based in the closest intersection.
-									double[] ambRes = computeAmbientShading(closestInt, world.ambient, closestInt.mat.getDiffuseRho());
-
-
-									if (Constants.normalVisualization) {
-										Color Cs;
-										Cs = closestInt.normal.toVector().toColor();
-										buffer.getPixel(x, y).add(0.5 + 0.5*Cs.r,0.5 + 0.5*Cs.g, 0.5 + 0.5*Cs.b);
-
-									} else if (Constants.compVisualization) {
-										int intersectionCount = ray.getIntersectionCounter();
-										Color pixelColor;
-										//int max = 200; //teapod
-										//int max = 450; //dragon...
-										int max = 1200; 
-
-										ColorMap colorMap = new ColorMap(0.0, max, null,1.0, "hot");
-										pixelColor = colorMap.getCompColor(intersectionCount);
-
-										//intensity = intersections.size()/1.0;
-										//double[] compRes = computeAmbientShading(visColor,intensity , 1.0);
-										//double whiteValue = ((double) intersectionCount)/max;
-										//buffer.getPixel(x, y).add(whiteValue,whiteValue,whiteValue);
-										buffer.getPixel(x, y).add(pixelColor.r,pixelColor.g,pixelColor.b);
-
-
-									} else {
-										//add the ambient Lighting result.
-										buffer.getPixel(x, y).add(ambRes[0], ambRes[1], ambRes[2],1.0);
-
-										//------------------------ point light sources. -----------------------------------------------
-										for (PointLight pl: world.plights){
-											Vector l  = pl.l(closestInt.point);
-											Vector n  = closestInt.normal.toVector();
-											Vector toLight = pl.origin.toVector().subtract(closestInt.point.toVector()); 
-											double dot = (n.dot(l));						                
-											//if (true){
-											if (dot > 0){
-												if (pl.shadows) {
-													//launch a shadow ray.					                    		
-													Ray shadowRay = new Ray(closestInt.point,toLight);
-													shadowInters = testforIntsections(world.shapes,shadowRay); 
-													//see if an intersection was found
-													if (shadowInters.isEmpty()) {
-														//its not in the shadow.
-														//compute distance to light source
-														double[] lghtRes = computeShading(closestInt,toLight,pl, dot, world.camera );
-														buffer.getPixel(x, y).add(lghtRes[0], lghtRes[1], lghtRes[2],1.0);		
-													} else {
-														//see if the intersection is behind the point light.
-														boolean inShadow = false; 
-														for (Intersection shadowInt : shadowInters) {
-															Vector shadowRayHitPnt = shadowInt.point.toVector();
-															double distanceToLight = toLight.lengthSquared();
-															double distanceToHit = closestInt.point.toVector().subtract(shadowRayHitPnt).lengthSquared();
-															if (distanceToHit < distanceToLight) {
-																inShadow = true;  
-															}
-														}
-														if (inShadow == false ){
-															double[] lghtRes = computeShading(closestInt,toLight,pl, dot, world.camera);
-															buffer.getPixel(x, y).add(lghtRes[0], lghtRes[1], lghtRes[2],1.0);	
-														}
-													}
-												} else {
-													//there are no shadows directly shade things
-													double[] lghtRes = computeShading(closestInt,toLight,pl, dot, world.camera );
-													buffer.getPixel(x, y).add(lghtRes[0], lghtRes[1], lghtRes[2],1.0);
-												}
-
-											}
-										}
-
-										// --------------------- handle area lights.------------------------------------------------
-										Vector p = closestInt.point.toVector();
-										for(AreaLight al : world.alights){
-											if (al.shape.inShape(p.toPoint())) {
-												// the intersection is on the point light.
-												double [] lghtRes = computeAmbientShading(closestInt,closestInt.mat.getDiffuseRho(),al.intensity);
-												buffer.getPixel(x, y).add(lghtRes[0], lghtRes[1], lghtRes[2],1.0);
-											} else {
-												Vector lghtVct = new Vector(0.0,0.0,0.0);
-												List<EvalLightInt> lightInts = al.getpPrime(closestInt, world.camera);
-												for (EvalLightInt lightInt : lightInts) {
-													Vector NPrime = lightInt.nPrime.toVector();
-													Vector L = p.subtract(lightInt.pPrime.toVector()).normalize();
-
-													if (NPrime.dot(L) > 0){
-														Ray shadowRay = new Ray(p.toPoint(), lightInt.pPrime.toVector());
-														shadowInters = testforIntsections(world.shapes,shadowRay); 
-														if (shadowInters.isEmpty()) {
-															//its not in the shadow.
-															//compute distance to light source.
-															lghtVct = lghtVct.add(computeAlShading(closestInt,al,lightInt, world.camera ));
-														} else {
-															boolean inShadow = false; 
-															for (Intersection shadowInt : shadowInters) {
-																Vector shadowRayHitPnt = shadowInt.point.toVector();
-																double distanceToLight = p.subtract(lightInt.pPrime.toVector()).lengthSquared();
-																double distanceToHit = p.subtract(shadowRayHitPnt).lengthSquared();
-																if (distanceToHit < distanceToLight) {
-																	if (al.shape.inShape(shadowInt.point) == false) {
-																		inShadow = true;
-																	} 
-																	//buffer.getPixel(x, y).add(0, 10, 0,1.0);
-																}
-															}
-															if (inShadow == false ){
-																lghtVct = lghtVct.add(computeAlShading(closestInt,al,lightInt, world.camera ));
-															}
-														}
-													} 
-												}
-												if (lightInts.size() > 0){												
-													Color lghtClr = lghtVct.scale(1.0/lightInts.size()).toColor();
-													//Color lghtClr = lghtVct.scale(1.0/al.sampleNo).toColor();
-													buffer.getPixel(x, y).add(lghtClr.r, lghtClr.g, lghtClr.b,1.0);
-												}
-												
-											}
-										}
-									} 
-
-								}
-							}
-						}
-					}
-					// update the graphical user interface
-					if (panel != null)
-						panel.update(tile);
-
-					// update the progress reporter
-					reporter.update(tile.getWidth() * tile.getHeight());
-				}
-			};
-			service.submit(thread);
-		}
-
-		// execute the threads
-		service.shutdown();
-
-		// wait until the threads have finished
-		try {
-			service.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
-
-		// signal the reporter that the task is done
-		reporter.done();
+		Integrator integrator = createIntegrator(integratorName, world, complexityMax);
+		RenderDriver driver = new RenderDriver(world, integrator, buffer, threads, packets);
+		driver.setPanel(panel);
+		driver.setReporter(reporter);
+		driver.setProgressive(passes, budget);
+		driver.setAdaptive(adaptive, maxRays, meanRays);
+		driver.render();
 
 		/**********************************************************************
 		 * Export the result
@@ -365,78 +225,23 @@ public class Renderer {
 	
 	
 	/**
-	 * Do the intersection testing for a list of shapes and a given ray.
-	 * Intersection objects are returned for each hit.
-	 * @param shapeList list of primitives which should be intersected.
-	 * @param ray = (o + td)
-	 * @return intersection objects containing the intersection point
-	 * 			texture coordiantes at hit point as well as normal and
-	 * 			material information.
+	 * Pick an integrator by name.
+	 * @param name direct, normals or complexity.
+	 * @param world the scene.
+	 * @param complexityMax the test count shown in the hottest color of
+	 * 			the complexity heat map.
 	 */
-	private static List<Intersection> testforIntsections(List<Shape> shapeList,Ray ray) {
-		List<Intersection> interList = new ArrayList<Intersection>();
-		for (Shape shape : shapeList) {
-			List<Intersection> inter = new ArrayList<Intersection>();
-			inter.addAll(shape.intersect(ray));
-			if (inter.isEmpty() == false) {
-				interList.addAll(inter);
-			}
+	private static Integrator createIntegrator(String name, World world, int complexityMax) {
+		if (name.equals("direct")) {
+			return new DirectLightingIntegrator(world);
 		}
-		return interList;
-	}
-	
-	
-	/**
-	 * Computes the ambient shading part of the lighting.
-	 * @param inter the ray object intersection closest to the camera.
-	 * @param La ambient lighting intensity.
-	 * @param Rs
-	 * @return
-	 */
-
-	private static double[] computeAmbientShading(Intersection inter,Double La, Double Rs) {
-		Color hitClr = inter.mat.getColor(inter.txtPnt);
-		Vector Cs = hitClr.toVector();
-		double[] ambRes = Cs.scale(La).scale(Rs).toArray();
-		return ambRes;		
-	}
-
-	private static double[] computeShading(Intersection inter,Vector toLight,PointLight light, double dot, Camera cam) {
-		Vector N = inter.normal.toVector();
-		Vector L = light.l(inter.point);
-		Vector V = cam.getOrigin().subtract(inter.point).normalize();
-
-		Vector lightRes;
-		Color hitClr = inter.mat.getColor(inter.txtPnt);
-		Vector Cs = hitClr.toVector();
-		Vector Lp = light.L();
-		double Rs = inter.mat.getDiffuse(N, L);
-		double d = toLight.lengthSquared();		
-		lightRes = Cs.elPrd(Lp).scale(dot).scale(Rs/Math.PI).scale(1/d);
-
-		//specular
-		double spec = inter.mat.getSpecular(N, L, V);
-		lightRes = lightRes.add(Lp.scale(Rs*spec));
-		return lightRes.toArray();
-	}
-
-	public static Vector computeAlShading(Intersection inter, AreaLight al, EvalLightInt lightInt, Camera cam ){
-		Vector pPrime = lightInt.pPrime.toVector();
-		double G = lightInt.G;
-		Vector La = al.L(pPrime.toPoint());
-		Color hitClr = inter.mat.getColor(inter.txtPnt);
-		Vector Cs = hitClr.toVector();
-		//diffuse
-		double Rs = lightInt.diff;
-		Vector intermediateResult = Cs.elPrd(La).scale(Rs);
-		//specular
-		double spec = lightInt.spec;
-		Vector Lp = lightInt.Lp;
-		intermediateResult = intermediateResult.add(Cs.elPrd(Lp).scale(spec));
-		intermediateResult = intermediateResult.scale(G).scale(1.0 / lightInt.prob);
-		return intermediateResult;
-		//return (new Vector(1,1,1).scale(spec));
-
+		if (name.equals("normals")) {
+			return new NormalIntegrator();
+		}
+		if (name.equals("complexity")) {
+			return new ComplexityIntegrator(complexityMax);
+		}
+		throw new IllegalArgumentException("unknown integrator \"" + name + "\"!");
 	}
 	
 	private static void printHelp(){
@@ -447,7 +252,16 @@ public class Renderer {
 				+ "[-sensitivity  <double> scaling factor for the radiance] "
 				+ "[-gamma  <double> gamma correction factor] "
 				+ "[-gui  <boolean> whether to start a graphical user interface]"
-				+ "[-samples  <interger> number of sampels for the area light computation]");
+				+ "[-samples  <interger> number of sampels for the area light computation]"
+				+ "[-threads  <integer> number of threads for tree building and rendering]"
+				+ "[-packets  <integer> camera rays traced together, 4, 8 or 16, 0 traces single rays]"
+				+ "[-integrator  <string> direct, normals or complexity]"
+				+ "[-passes  <integer> render progressively in passes of one ray per pixel, 0 renders each tile at once]"
+				+ "[-budget  <double> seconds after which no further pass is started, implies -passes <samples>]"
+				+ "[-adaptive  <double> add camera rays to pixels until their relative error is below this, 0 renders all pixels alike]"
+				+ "[-maxRays  <integer> camera rays adaptive sampling may spend on one pixel]"
+				+ "[-meanRays  <double> camera rays per pixel adaptive sampling may spend in total, 0 for no limit]"
+				+ "[-complexityMax  <integer> intersection tests shown in the hottest color of the complexity integrator]");
 	}
 }
 
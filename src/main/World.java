@@ -3,6 +3,8 @@ package main;
 import java.util.ArrayList;
 import java.util.List;
 
+import acceleration.RayPacket;
+import acceleration.ShapeBvh;
 import light.AreaLight;
 import light.PointLight;
 import light.PriorSampleLight;
@@ -22,13 +24,17 @@ import material.PhongSpecular;
 import material.RandomChess;
 import material.Specular;
 import math.Color;
+import math.Constants;
+import math.Intersection;
 import math.Point;
+import math.Ray;
 import math.Transformation;
 import math.Vector;
 import camera.Camera;
 import camera.PerspectiveCamera;
 import shape.Circle;
 import shape.Cube;
+import shape.JuliaHeightField;
 import shape.JuliaMesh;
 import shape.ObjShape;
 import shape.ObjShapeWithNrmlMap;
@@ -46,6 +52,7 @@ public class World{
 	public List<PointLight> plights = new ArrayList<PointLight>();
 	public List<AreaLight>  alights = new ArrayList<AreaLight>();
 	public List<Shape> shapes = new ArrayList<Shape>();
+	public ShapeBvh sceneTree = null;
 	public double ambient;
 	public int spp = 1;
 	
@@ -106,6 +113,62 @@ public class World{
 		else {
 			throw new IllegalArgumentException("World not found");
 		}
+		if (Constants.useSceneTree) {
+			this.sceneTree = new ShapeBvh(this.shapes);
+		}
+	}
+	
+	/**
+	 * Find the intersection closest to the origin of a ray. Every hit lowers
+	 * the ray's t-max, so shapes behind it are rejected early.
+	 * @param ray = (o + td)
+	 * @return the closest intersection or null if nothing was hit.
+	 */
+	public Intersection intersectClosest(Ray ray) {
+		if (this.sceneTree != null) {
+			return this.sceneTree.intersectClosest(ray);
+		}
+		Intersection closest = null;
+		for (Shape shape : this.shapes) {
+			Intersection hit = shape.intersectClosest(ray);
+			if (hit != null) {
+				closest = hit;
+			}
+		}
+		return closest;
+	}
+	
+	/**
+	 * Find the closest intersections of a packet of rays.
+	 * @param packet the rays, their closest hits are stored in it.
+	 */
+	public void intersectClosest(RayPacket packet) {
+		if (this.sceneTree != null) {
+			this.sceneTree.intersectClosest(packet);
+			return;
+		}
+		for (Shape shape : this.shapes) {
+			packet.intersect(shape);
+		}
+	}
+	
+	/**
+	 * Test if anything blocks a shadow ray before it reaches the light.
+	 * @param ray = (o + td)
+	 * @param maxDistance ray parameter of the light.
+	 * @param ignore shape which can not block the ray, may be null.
+	 * @return true if the ray is blocked.
+	 */
+	public boolean occluded(Ray ray, double maxDistance, Shape ignore) {
+		if (this.sceneTree != null) {
+			return this.sceneTree.occluded(ray, maxDistance, ignore);
+		}
+		for (Shape shape : this.shapes) {
+			if ((shape != ignore) && shape.occluded(ray, maxDistance)) {
+				return true;
+			}
+		}
+		return false;
 	}
 	
 	public void sphereWorld(int width,int height) {
@@ -310,9 +373,11 @@ public class World{
 																	//800
 		//JuliaMesh juliaMesh = new JuliaMesh(new Complex(-0.8,0.156),800,2,400, 100, "jet",1.0,
 		//							trans, camera, 0.01, 100);
-		JuliaMesh juliaMesh = new JuliaMesh(new Complex(-0.8,0.175),800,2,400, 100, "jet",
-				trans, camera, 0.01, 100);
-		this.shapes.add(juliaMesh);
+		//JuliaMesh juliaMesh = new JuliaMesh(new Complex(-0.8,0.175),800,2,400, 100, "jet",
+		//		trans, camera, 0.01, 100, true);
+		JuliaHeightField juliaField = new JuliaHeightField(new Complex(-0.8,0.175),800,2,400, 100, "jet",
+				trans);
+		this.shapes.add(juliaField);
 		
 	}
 
@@ -336,9 +401,11 @@ public class World{
 		Transformation trans = Transformation.scale(1.2, 1.2, 1.2);
 		
 																	//800
-		JuliaMesh juliaMesh = new JuliaMesh(new Complex(-0.1,0.651),800,2,400, 100, "jet",
-									trans, camera, 0.01, 100);
-		this.shapes.add(juliaMesh);
+		//JuliaMesh juliaMesh = new JuliaMesh(new Complex(-0.1,0.651),800,2,400, 100, "jet",
+		//							trans, camera, 0.01, 100, true);
+		JuliaHeightField juliaField = new JuliaHeightField(new Complex(-0.1,0.651),800,2,400, 100, "jet",
+									trans);
+		this.shapes.add(juliaField);
 		
 	}
 	
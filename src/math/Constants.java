@@ -7,7 +7,29 @@ package math;
 public class Constants {
 	public static final double epsilon = 0.001;		 //shadow self intersection prevention.
 	public static final boolean normalVisualization = false;
-	public static final boolean compVisualization  = false; 
+	public static final boolean compVisualization  = false; //render the complexity heat map unless -integrator is given.
 	public static final boolean useAccTree = true;
+	public static final boolean useFlatTree = true;  //traverse obj trees in their flattened array form.
+	public static final boolean useSceneTree = true; //put the shapes of a world into a top level tree.
 	public static final int sahCuts = 4;			 //number of cuts the sah does.
+	public static final boolean useBinnedSah = true; //build flat trees with the binned surface area heuristic.
+	public static final int sahBins = 16;			 //centroid bins per axis of the binned sah.
+	public static final int sahLeafSize = 2;		 //binned sah nodes with this many triangles become leaves.
+	public static final boolean verboseTrees = false; //print statistics of built mesh trees, like their sah cost.
+	public static final int sahTaskSize = 4096;		 //smaller subtrees are built without forking new tasks.
+	public static final boolean useSpatialSplits = false; //let binned sah trees split triangles at planes.
+	public static final double sbvhBudget = 0.3;	 //spatial splits may add this many references per triangle.
+	public static final double gridDensity = 4.0;	 //cells per triangle of uniform grids.
+	public static final int gridRefine = 64;		 //grid cells with more triangles get a nested grid, 0 disables it.
+	public static final int bvhWidth = 2;			 //children per node of collapsed flat trees, 4 or 8, 2 keeps them binary.
+	public static final double refitTolerance = 1.5; //deformed meshes rebuild their tree once refitting raised its sah cost by this factor.
+	public static final int bvhBits = 0;			 //quantize binary flat tree bounds to 8 or 16 bits, 0 keeps doubles.
+	public static final boolean useBvhCache = true;  //store built flat trees of obj meshes on disk and reuse them.
+	public static final String bvhCacheDir = "./cache"; //directory of the flat tree cache files.
+	public static final int objChunkSize = 16 << 20; //bytes of an obj file parsed by one task, larger files load in parallel.
+	public static final boolean spiralTiles = true; //render tiles from the image centre outwards, else along a Morton curve.
+	public static final boolean useCostTiles = true; //cut the image into tiles of equal cost estimated by a sparse pre-pass.
+	public static final int costStep = 8;			 //pixels between the rays of the cost pre-pass.
+	public static final int adaptiveMinSamples = 4;	 //camera rays per pixel before adaptive sampling estimates its error, also added per round.
+	public static final double adaptiveFloor = 0.01; //errors of darker pixels are measured relative to this luminance.
 }
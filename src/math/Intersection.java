@@ -12,6 +12,7 @@ public class Intersection {
 	public final TextPoint txtPnt;
 	public final Normal normal;
 	public final Material mat;
+	public final double t;
 
 	/**
 	 * Set up a intersection object.
@@ -21,9 +22,22 @@ public class Intersection {
 	 * @param mat material at hit-point.
 	 */
 	public Intersection(Point point, TextPoint txtPnt, Normal normal, Material mat) {
+		this(point, txtPnt, normal, mat, Double.NaN);
+	}
+
+	/**
+	 * Set up a intersection object which knows its ray parameter.
+	 * @param point hit point.
+	 * @param txtPnt texture coordinates at hit point.
+	 * @param normal hit point normal.
+	 * @param mat material at hit-point.
+	 * @param t ray parameter of the hit point, NaN if unknown.
+	 */
+	public Intersection(Point point, TextPoint txtPnt, Normal normal, Material mat, double t) {
 		this.point = point;
 		this.txtPnt = txtPnt;
 		this.normal = normal;
 		this.mat = mat;
+		this.t = t;
 	}
 }
@@ -18,11 +18,37 @@ public class Ray implements Cloneable {
 	 */
 	public final Vector direction;
 	
+	/**
+	 * The reciprocal of the direction along x, y and z. Slab tests multiply
+	 * with these instead of dividing by the direction for every box.
+	 */
+	public final double invX, invY, invZ;
+	
+	/**
+	 * The direction sign flags along x, y and z, one for a negative and zero
+	 * for a positive direction. Selects the near and far slab of a box and
+	 * the near child of a split.
+	 */
+	public final int signX, signY, signZ;
+	
 	/**
 	 * An intersection counting variable.
 	 */
 	private int intersectionCounter = 0;
 	
+	/**
+	 * The smallest ray parameter of interest. Hits closer to the origin are
+	 * ignored, which keeps secondary rays from hitting the surface they 
+	 * start on.
+	 */
+	private double tMin = Constants.epsilon;
+	
+	/**
+	 * The largest ray parameter of interest. Closest hit queries shrink it
+	 * whenever a closer hit is found.
+	 */
+	private double tMax = Double.POSITIVE_INFINITY;
+	
 	
 	/**
 	 * Creates a new {@link Ray} starting at the given origin and propagating
@@ -42,16 +68,90 @@ public class Ray implements Cloneable {
 			throw new NullPointerException("the given direction is null!");
 		this.origin = point;
 		this.direction = direction;
+		this.invX = 1.0 / direction.x;
+		this.invY = 1.0 / direction.y;
+		this.invZ = 1.0 / direction.z;
+		//-0.0 gives a negative infinite reciprocal and counts as negative.
+		this.signX = (this.invX < 0) ? 1 : 0;
+		this.signY = (this.invY < 0) ? 1 : 0;
+		this.signZ = (this.invZ < 0) ? 1 : 0;
 		this.intersectionCounter = 0;
 	}
 	
+	/**
+	 * Creates a new {@link Ray} which only considers hits up to the given
+	 * ray parameter.
+	 * 
+	 * @param point
+	 *            the origin of the ray.
+	 * @param direction
+	 *            the direction of the ray.
+	 * @param tMax
+	 *            the largest ray parameter of interest.
+	 * @throws NullPointerException
+	 *             when the given origin and/or direction is null.
+	 */
+	public Ray(Point point, Vector direction, double tMax) throws NullPointerException {
+		this(point, direction);
+		this.tMax = tMax;
+	}
+	
+	/**
+	 * Creates a new {@link Ray} which only considers hits between the given
+	 * ray parameters.
+	 * 
+	 * @param point
+	 *            the origin of the ray.
+	 * @param direction
+	 *            the direction of the ray.
+	 * @param tMin
+	 *            the smallest ray parameter of interest.
+	 * @param tMax
+	 *            the largest ray parameter of interest.
+	 * @throws NullPointerException
+	 *             when the given origin and/or direction is null.
+	 */
+	public Ray(Point point, Vector direction, double tMin, double tMax) throws NullPointerException {
+		this(point, direction);
+		this.tMin = tMin;
+		this.tMax = tMax;
+	}
+	
+	/**
+	 * Count one intersection test of a shape or tree node, every test counts
+	 * so the complexity integrator can show the cost of the ray.
+	 */
 	public void countIntersection(){
 		this.intersectionCounter = this.intersectionCounter + 1;
 	}
 	
+	/**
+	 * Add the tests of a whole traversal at once, trees count their closest
+	 * hit queries this way.
+	 */
+	public void countIntersections(int count){
+		this.intersectionCounter = this.intersectionCounter + count;
+	}
+	
 	public int getIntersectionCounter(){
 		return this.intersectionCounter;
 	}
+	
+	public double getTMin(){
+		return this.tMin;
+	}
+	
+	public void setTMin(double tMin){
+		this.tMin = tMin;
+	}
+	
+	public double getTMax(){
+		return this.tMax;
+	}
+	
+	public void setTMax(double tMax){
+		this.tMax = tMax;
+	}
 
 	/**
 	 * Creates a copy of the given {@link Ray}.
@@ -62,7 +162,7 @@ public class Ray implements Cloneable {
 	 *             when the given ray is null.
 	 */
 	public Ray(Ray ray) throws NullPointerException {
-		this(ray.origin, ray.direction);
+		this(ray.origin, ray.direction, ray.tMin, ray.tMax);
 	}
 
 	/*
@@ -167,7 +167,7 @@ public class Transformation implements Cloneable {
 	public Ray transform(Ray ray) throws NullPointerException {
 		Point point = transform(ray.origin);
 		Vector direction = transform(ray.direction);
-		return new Ray(point, direction);
+		return new Ray(point, direction, ray.getTMin(), ray.getTMax());
 	}
 
 	/**
@@ -184,7 +184,36 @@ public class Transformation implements Cloneable {
 	public Ray transformInverse(Ray ray) throws NullPointerException {
 		Point point = transformInverse(ray.origin);
 		Vector direction = transformInverse(ray.direction);
-		return new Ray(point, direction);
+		return new Ray(point, direction, ray.getTMin(), ray.getTMax());
+	}
+
+	/**
+	 * Transforms an axis aligned box with this {@link Transformation}.
+	 * 
+	 * @param p0
+	 *            the lower corner of the box.
+	 * @param p1
+	 *            the upper corner of the box.
+	 * @return the lower and upper corner of the axis aligned box containing
+	 *         all eight transformed corners.
+	 */
+	public Point[] transformBox(Point p0, Point p1) {
+		double[] min = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+				Double.POSITIVE_INFINITY };
+		double[] max = { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+				Double.NEGATIVE_INFINITY };
+		for (int i = 0; i < 8; i++) {
+			Point corner = transform(new Point(((i & 1) == 0) ? p0.x : p1.x,
+					((i & 2) == 0) ? p0.y : p1.y, ((i & 4) == 0) ? p0.z : p1.z));
+			min[0] = Math.min(min[0], corner.x);
+			min[1] = Math.min(min[1], corner.y);
+			min[2] = Math.min(min[2], corner.z);
+			max[0] = Math.max(max[0], corner.x);
+			max[1] = Math.max(max[1], corner.y);
+			max[2] = Math.max(max[2], corner.z);
+		}
+		return new Point[] { new Point(min[0], min[1], min[2]),
+				new Point(max[0], max[1], max[2]) };
 	}
 
 	/**
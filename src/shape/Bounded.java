@@ -0,0 +1,18 @@
+package shape;
+
+import math.Point;
+
+/**
+ * Interface for {@link Shape}s with a finite extent, which can be placed
+ * in a scene level acceleration structure.
+ */
+public interface Bounded extends Shape {
+	/**
+	 * Returns an axis aligned box in world coordinates containing the whole
+	 * shape.
+	 *
+	 * @return the lower and upper corner of the box, or null when the
+	 *         shape is not bounded after all.
+	 */
+	public Point[] getWorldBounds();
+}
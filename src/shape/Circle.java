@@ -1,16 +1,13 @@
 package shape;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
 import light.LightIntersection;
 import material.Material;
 import math.Constants;
-import math.Intersection;
 import math.Normal;
 import math.Point;
-import math.Ray;
 import math.TextPoint;
 import math.Transformation;
 import math.Vector;
@@ -38,49 +35,14 @@ public class Circle extends Plane implements LightableShape {
 		this.inverseArea = 1.0/(Math.PI * radius * radius);
 	}
 	
-	 /**
-     * The ray object intersection function for a circles with transformations. 
-     */    
+	/**
+	 * Only points within the radius are part of the circle.
+	 */
 	@Override
-	public List<Intersection> intersect(Ray ray) {
-		List<Intersection> hits = new ArrayList<Intersection>();
-		Vector ro; 
-        Vector rd;
-        
-        if (Constants.compVisualization){
-        	ray.countIntersection();
-        }
-        
-        Ray rayInv = this.transformation.transformInverse(ray);
-        ro = rayInv.origin.toVector();
-        rd = rayInv.direction;
-
-        double t;
-        double denomDot = n.toVector().dot(rd); 
-        
-        if (Math.abs(denomDot) < Constants.epsilon){
-            return hits;
-        } else {
-            t = (n.toVector().dot(a.toVector())) - (n.toVector().dot(ro)) / denomDot;
-            if (t <= Constants.epsilon) {
-                return hits;
-            } else {
-                Vector pointVec = ro.add(rd.scale(t));
-                
-                double x = pointVec.x;
-                double y = pointVec.y;
-                if (((Math.sqrt( x*x + y*y) < this.radius))) {
-                	Point hitPoint = this.transformation.transform( pointVec.toPoint() );
-                    Normal hitNormal = this.transformation.transformInverseTranspose( this.n);
-                    TextPoint txtPoint = new TextPoint(pointVec.x,pointVec.y); //the z coordinate of the unit plane is always zero.
-                    Material hitMat = this.mat;
-                    hits.add(new Intersection( hitPoint, txtPoint, hitNormal, hitMat));
-                    return hits;
-                } else {
-                	return hits;
-                }
-            }
-        }
+	protected boolean contains(Vector pointVec) {
+		double x = pointVec.x;
+		double y = pointVec.y;
+		return (Math.sqrt( x*x + y*y) < this.radius);
 	}
 	
 	@Override
@@ -159,4 +121,10 @@ public class Circle extends Plane implements LightableShape {
 		return null;
 	}
 	
+	
+	@Override
+	public Point[] getWorldBounds() {
+		return this.transformation.transformBox(new Point(-radius, -radius, 0),
+				new Point(radius, radius, 0));
+	}
 }
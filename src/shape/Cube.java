@@ -16,7 +16,7 @@ import math.Transformation;
  * @author moritz
  *
  */
-public class Cube implements Shape {
+public class Cube implements Bounded {
 	public final Point center = new Point(0,0,0);
 	public final Transformation transformation;
 	public final Material mat;
@@ -88,6 +88,37 @@ public class Cube implements Shape {
 		return intersTransformed;
 	}
 	
+	/**
+	 * Find the cube intersection point closest to the ray origin.
+	 */
+	@Override
+	public Intersection intersectClosest(Ray ray) {
+		Ray rayInv = this.transformation.transformInverse(ray);
+		Intersection closest = null;
+		for (Rectangle rect: this.rects) {
+			Intersection hit = rect.intersectClosest(rayInv);
+			if (hit != null) {
+				closest = hit;
+			}
+		}
+		if (closest == null) {
+			return null;
+		}
+		ray.setTMax(closest.t);
+		return TransformIntersection(closest);
+	}
+	
+	@Override
+	public boolean occluded(Ray ray, double maxDistance) {
+		Ray rayInv = this.transformation.transformInverse(ray);
+		for (Rectangle rect: this.rects) {
+			if (rect.occluded(rayInv, maxDistance)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
 	/**
 	 * Internal method to handle cube space world space transformation.
 	 * @param inter cube space intersection.
@@ -96,7 +127,11 @@ public class Cube implements Shape {
 	private Intersection TransformIntersection(Intersection inter) {
         Point hitPoint = this.transformation.transform( inter.point );
         Normal hitNormal = this.transformation.transformInverseTranspose( inter.normal);
-        return new Intersection( hitPoint, inter.txtPnt, hitNormal, inter.mat);
+        return new Intersection( hitPoint, inter.txtPnt, hitNormal, inter.mat, inter.t);
+	}
+	
+	@Override
+	public Point[] getWorldBounds() {
+		return this.transformation.transformBox(new Point(-1, -1, -1), new Point(1, 1, 1));
 	}
-
 }
@@ -0,0 +1,15 @@
+package shape;
+
+import math.Point;
+
+/**
+ * Moves the vertices of a mesh, for instance to animate it frame by frame.
+ */
+public interface Deformation {
+	/**
+	 * Move a single vertex.
+	 * @param rest the vertex of the undeformed mesh in mesh space.
+	 * @return the moved vertex in mesh space.
+	 */
+	public Point deform(Point rest);
+}
@@ -0,0 +1,400 @@
+package shape;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import material.Complex;
+import material.Julia;
+import math.Color;
+import math.Intersection;
+import math.Normal;
+import math.Point;
+import math.Ray;
+import math.TextPoint;
+import math.Transformation;
+import math.Vector;
+
+/**
+ * A Julia-3d-rendering which intersects the height grid of the set directly
+ * instead of building triangles. The surface is the same as the one of
+ * {@link JuliaMesh}, every grid cell is split into two triangles along its
+ * diagonal. Rays walk the cells with a two dimensional digital differential
+ * analyzer on a pyramid of minimum and maximum heights, cells the ray
+ * passes above or below are skipped at the coarsest possible level.
+ */
+
+public class JuliaHeightField extends Julia implements Bounded {
+	public final Transformation transformation;
+
+	/**
+	 * Cells along x and y, the height grid has one vertex more.
+	 */
+	protected final int cells;
+	protected final double origin;
+	protected final double spacing;
+
+	/**
+	 * Vertex heights, x fastest.
+	 */
+	protected final double[] height;
+
+	/**
+	 * Lowest and highest vertex of the cells of every pyramid level, level 0
+	 * holds single cells and the last level one cell covering everything.
+	 */
+	protected final double[][] minHeight;
+	protected final double[][] maxHeight;
+	protected final int[] levelCells;
+
+	/**
+	 * Margin of the height tests, keeps rays grazing a flat plateau from
+	 * slipping past it by rounding.
+	 */
+	protected final double margin;
+
+	/**
+	 * Set up a height field on top of a Julia-set-matrix.
+	 * @param c the seed, this complex number determines the form of the fractal.
+	 * @param N for loop counter
+	 * @param bound 0.5 of the rectangle size.
+	 * @param lim kernel threshold. See https://en.wikipedia.org/wiki/Julia_set
+	 * @param colorScale color scaling factor.
+	 * @param colorSet define the colormap used: Parula, hot, summer or Jet.
+	 * @param trans height field transformation matrix
+	 */
+	public JuliaHeightField(Complex c, int N, double bound, int lim, double colorScale, String colorSet,
+			Transformation trans) {
+		super(c, N, bound, lim, colorScale, colorSet);
+		this.transformation = trans;
+		//same vertices as the function mesh: N-1 grid points, N-2 cells.
+		this.cells = N - 2;
+		this.origin = -bound;
+		this.spacing = (2 * bound) / (N - 1);
+		int vertices = cells + 1;
+		this.height = new double[vertices * vertices];
+		for (int j = 0; j < vertices; j++) {
+			for (int i = 0; i < vertices; i++) {
+				height[i + vertices * j] = 1 / set[i][j];
+			}
+		}
+
+		int levels = 1;
+		while ((1 << (levels - 1)) < cells) {
+			levels++;
+		}
+		this.minHeight = new double[levels][];
+		this.maxHeight = new double[levels][];
+		this.levelCells = new int[levels];
+		levelCells[0] = cells;
+		minHeight[0] = new double[cells * cells];
+		maxHeight[0] = new double[cells * cells];
+		for (int j = 0; j < cells; j++) {
+			for (int i = 0; i < cells; i++) {
+				int v = i + vertices * j;
+				double h00 = height[v];
+				double h10 = height[v + 1];
+				double h01 = height[v + vertices];
+				double h11 = height[v + vertices + 1];
+				minHeight[0][i + cells * j] = Math.min(Math.min(h00, h10), Math.min(h01, h11));
+				maxHeight[0][i + cells * j] = Math.max(Math.max(h00, h10), Math.max(h01, h11));
+			}
+		}
+		for (int l = 1; l < levels; l++) {
+			int n = (levelCells[l - 1] + 1) / 2;
+			int below = levelCells[l - 1];
+			levelCells[l] = n;
+			minHeight[l] = new double[n * n];
+			maxHeight[l] = new double[n * n];
+			for (int j = 0; j < n; j++) {
+				for (int i = 0; i < n; i++) {
+					double lo = Double.POSITIVE_INFINITY;
+					double hi = Double.NEGATIVE_INFINITY;
+					for (int y = 2 * j; y < Math.min(2 * j + 2, below); y++) {
+						for (int x = 2 * i; x < Math.min(2 * i + 2, below); x++) {
+							lo = Math.min(lo, minHeight[l - 1][x + below * y]);
+							hi = Math.max(hi, maxHeight[l - 1][x + below * y]);
+						}
+					}
+					minHeight[l][i + n * j] = lo;
+					maxHeight[l][i + n * j] = hi;
+				}
+			}
+		}
+		this.margin = 1e-9 * (maxHeight[levels - 1][0] - minHeight[levels - 1][0] + cells * spacing);
+	}
+
+	@Override
+	public Color getColor(TextPoint point){
+		//map input into the space where the julia set has been computed.
+		int x = (int)Math.round(point.u);
+		int y = (int)Math.round(point.v);
+		return this.colorMap.getColor(x, y);
+	}
+
+	/**
+	 * Walk the cells pierced by a ray in height field space.
+	 * @param rayInv the ray in height field space.
+	 * @param tMax hits beyond this ray parameter are ignored.
+	 * @param hits receives every hit if not null, otherwise the walk stops
+	 * 			at the first cell with a hit.
+	 * @param hit receives t, the cell, the triangle and the barycentric
+	 * 			coordinates of the closest hit.
+	 * @return true if a triangle was hit.
+	 */
+	private boolean walk(Ray rayInv, double tMax, List<Intersection> hits, double[] hit) {
+		Point ro = rayInv.origin;
+		Vector rd = rayInv.direction;
+		double tMin = rayInv.getTMin();
+		int top = levelCells.length - 1;
+		double extent = cells * spacing;
+		double t0 = tMin;
+		double t1 = tMax;
+		double[] o = { ro.x, ro.y, ro.z };
+		double[] d = { rd.x, rd.y, rd.z };
+		double[] inv = { rayInv.invX, rayInv.invY, rayInv.invZ };
+		double[] lo = { origin - margin, origin - margin, minHeight[top][0] - margin };
+		double[] hi = { origin + extent + margin, origin + extent + margin, maxHeight[top][0] + margin };
+		for (int k = 0; k < 3; k++) {
+			if ((d[k] == 0.0) && (o[k] < lo[k] || o[k] > hi[k])) {
+				return false;
+			}
+			double near = (lo[k] - o[k]) * inv[k];
+			double far = (hi[k] - o[k]) * inv[k];
+			if (near > far) {
+				double tmp = near; near = far; far = tmp;
+			}
+			t0 = (near > t0) ? near : t0;
+			t1 = (far < t1) ? far : t1;
+		}
+		if (t0 > t1) {
+			return false;
+		}
+
+		boolean found = false;
+		int level = top;
+		int x = 0;
+		int y = 0;
+		double tEnter = t0;
+		while (tEnter <= t1) {
+			double size = spacing * (1 << level);
+			int n = levelCells[level];
+			double tx = (rd.x == 0.0) ? Double.POSITIVE_INFINITY
+					: (origin + (x + 1 - rayInv.signX) * size - ro.x) * inv[0];
+			double ty = (rd.y == 0.0) ? Double.POSITIVE_INFINITY
+					: (origin + (y + 1 - rayInv.signY) * size - ro.y) * inv[1];
+			double tExit = Math.min(Math.min(tx, ty), t1);
+
+			//heights of the ray while it crosses the cell.
+			double zEnter = ro.z + tEnter * rd.z;
+			double zExit = ro.z + tExit * rd.z;
+			int c = x + n * y;
+			boolean overlaps = (Math.max(zEnter, zExit) + margin >= minHeight[level][c])
+					&& (Math.min(zEnter, zExit) - margin <= maxHeight[level][c]);
+
+			if (overlaps && (level > 0)) {
+				//descend into the child cell holding the entry point.
+				level--;
+				double childSize = spacing * (1 << level);
+				x = childCoordinate(ro.x + tEnter * rd.x, childSize, x, levelCells[level]);
+				y = childCoordinate(ro.y + tEnter * rd.y, childSize, y, levelCells[level]);
+				continue;
+			}
+			if (overlaps && this.intersectCell(x, y, ro, rd, tMin, tMax, hit, hits)) {
+				if (hits == null) {
+					return true;
+				}
+				found = true;
+			}
+			if (Math.min(tx, ty) >= t1) {
+				break;
+			}
+
+			//step to the neighbour along the closer boundary.
+			int parentX = x >> 1;
+			int parentY = y >> 1;
+			if (tx < ty) {
+				x = x + 1 - 2 * rayInv.signX;
+				if ((x < 0) || (x >= n)) {
+					break;
+				}
+			} else {
+				y = y + 1 - 2 * rayInv.signY;
+				if ((y < 0) || (y >= n)) {
+					break;
+				}
+			}
+			tEnter = tExit;
+			//leaving the parent cell moves the walk one level up.
+			if ((level < top) && (((x >> 1) != parentX) || ((y >> 1) != parentY))) {
+				level++;
+				x = x >> 1;
+				y = y >> 1;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @return the child of a cell holding a coordinate, clamped to the
+	 * 			children which exist.
+	 */
+	private int childCoordinate(double value, double childSize, int parent, int n) {
+		int c = (int) Math.floor((value - origin) / childSize);
+		c = Math.max(c, 2 * parent);
+		c = Math.min(c, Math.min(2 * parent + 1, n - 1));
+		return c;
+	}
+
+	/**
+	 * Intersect both triangles of a grid cell.
+	 * @param hit receives t, x, y, the triangle, beta and gamma of the
+	 * 			closest hit before tMax.
+	 * @param hits receives both hits if not null.
+	 * @return true if one of the triangles is hit.
+	 */
+	private boolean intersectCell(int x, int y, Point ro, Vector rd, double tMin, double tMax, double[] hit,
+			List<Intersection> hits) {
+		int vertices = cells + 1;
+		int v = x + vertices * y;
+		double x0 = origin + x * spacing;
+		double y0 = origin + y * spacing;
+		double h00 = height[v];
+		double h10 = height[v + 1];
+		double h01 = height[v + vertices];
+		double h11 = height[v + vertices + 1];
+		boolean found = false;
+		//triangles p00, p10, p11 and p00, p11, p01 as in JuliaMesh.
+		for (int tri = 0; tri < 2; tri++) {
+			double t;
+			if (tri == 0) {
+				t = intersectTriangle(ro, rd, tMin, tMax, x0, y0, h00, spacing, 0, h10 - h00,
+						spacing, spacing, h11 - h00, hit);
+			} else {
+				t = intersectTriangle(ro, rd, tMin, tMax, x0, y0, h00, spacing, spacing, h11 - h00,
+						0, spacing, h01 - h00, hit);
+			}
+			if (t < tMax) {
+				hit[1] = x;
+				hit[2] = y;
+				hit[3] = tri;
+				found = true;
+				if (hits != null) {
+					hits.add(this.createHit(ro, rd, hit));
+				} else {
+					tMax = t;
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Moeller-Trumbore test against the triangle v0, v0 + e1, v0 + e2.
+	 * @return the ray parameter of the hit or positive infinity for a miss,
+	 * 			a hit stores t, beta and gamma in hit[0], hit[4] and hit[5].
+	 */
+	private static double intersectTriangle(Point ro, Vector rd, double tMin, double tMax,
+			double v0x, double v0y, double v0z, double e1x, double e1y, double e1z,
+			double e2x, double e2y, double e2z, double[] hit) {
+		double px = rd.y * e2z - rd.z * e2y;
+		double py = rd.z * e2x - rd.x * e2z;
+		double pz = rd.x * e2y - rd.y * e2x;
+		double det = e1x * px + e1y * py + e1z * pz;
+		if (det == 0.0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		double invDet = 1.0 / det;
+		double sx = ro.x - v0x; double sy = ro.y - v0y; double sz = ro.z - v0z;
+		double beta = (sx * px + sy * py + sz * pz) * invDet;
+		if ((beta < 0.0) || (beta > 1.0)) {
+			return Double.POSITIVE_INFINITY;
+		}
+		double qx = sy * e1z - sz * e1y;
+		double qy = sz * e1x - sx * e1z;
+		double qz = sx * e1y - sy * e1x;
+		double gamma = (rd.x * qx + rd.y * qy + rd.z * qz) * invDet;
+		if ((gamma < 0.0) || (beta + gamma > 1.0)) {
+			return Double.POSITIVE_INFINITY;
+		}
+		double t = (e2x * qx + e2y * qy + e2z * qz) * invDet;
+		if ((t < tMin) || (t >= tMax)) {
+			return Double.POSITIVE_INFINITY;
+		}
+		hit[0] = t;
+		hit[4] = beta;
+		hit[5] = gamma;
+		return t;
+	}
+
+	/**
+	 * Create the intersection object for a hit found by the walk.
+	 */
+	private Intersection createHit(Point ro, Vector rd, double[] hit) {
+		double t = hit[0];
+		int x = (int) hit[1];
+		int y = (int) hit[2];
+		double beta = hit[4];
+		double gamma = hit[5];
+		int vertices = cells + 1;
+		int v = x + vertices * y;
+		double h00 = height[v];
+		double h10 = height[v + 1];
+		double h01 = height[v + vertices];
+		double h11 = height[v + vertices + 1];
+
+		Vector normal;
+		TextPoint hitTxt;
+		TextPoint t00 = new TextPoint(x, y);
+		TextPoint t11 = new TextPoint(x + 1, y + 1);
+		if (hit[3] == 0) {
+			//(p10 - p00) x (p11 - p00)
+			normal = new Vector(spacing, 0, h10 - h00).cross(new Vector(spacing, spacing, h11 - h00));
+			hitTxt = t00.scale(1 - beta - gamma).add(new TextPoint(x + 1, y).scale(beta)).add(t11.scale(gamma));
+		} else {
+			//(p11 - p00) x (p01 - p00)
+			normal = new Vector(spacing, spacing, h11 - h00).cross(new Vector(0, spacing, h01 - h00));
+			hitTxt = t00.scale(1 - beta - gamma).add(t11.scale(beta)).add(new TextPoint(x, y + 1).scale(gamma));
+		}
+		normal = normal.scale(1 / normal.length());
+
+		Point hitPoint = this.transformation.transform(ro.add(rd.scale(t)));
+		Normal hitNormal = this.transformation.transformInverseTranspose(normal.toNormal());
+		return new Intersection(hitPoint, hitTxt, hitNormal, this, t);
+	}
+
+	@Override
+	public List<Intersection> intersect(Ray ray) {
+		ray.countIntersection();
+		List<Intersection> hits = new ArrayList<Intersection>();
+		Ray rayInv = this.transformation.transformInverse(ray);
+		this.walk(rayInv, Double.POSITIVE_INFINITY, hits, new double[6]);
+		return hits;
+	}
+
+	@Override
+	public Intersection intersectClosest(Ray ray) {
+		ray.countIntersection();
+		Ray rayInv = this.transformation.transformInverse(ray);
+		double[] hit = new double[6];
+		if (this.walk(rayInv, ray.getTMax(), null, hit) == false) {
+			return null;
+		}
+		ray.setTMax(hit[0]);
+		return this.createHit(rayInv.origin, rayInv.direction, hit);
+	}
+
+	@Override
+	public boolean occluded(Ray ray, double maxDistance) {
+		ray.countIntersection();
+		Ray rayInv = this.transformation.transformInverse(ray);
+		return this.walk(rayInv, maxDistance, null, new double[6]);
+	}
+
+	@Override
+	public Point[] getWorldBounds() {
+		int top = levelCells.length - 1;
+		double extent = cells * spacing;
+		return this.transformation.transformBox(new Point(origin, origin, minHeight[top][0]),
+				new Point(origin + extent, origin + extent, maxHeight[top][0]));
+	}
+}
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import camera.Camera;
+import acceleration.Grid;
 import acceleration.SahBox;
 import material.Complex;
 import material.Julia;
@@ -21,9 +22,10 @@ import math.Transformation;
  * @author moritz
  */
 
-public class JuliaMesh extends Julia implements Shape {
+public class JuliaMesh extends Julia implements Bounded {
 	public final List<Triangle> mesh;
 	public final SahBox aab;
+	public final Grid grid; //null unless the mesh is traced with a grid.
 	
 	
 	/**
@@ -35,18 +37,34 @@ public class JuliaMesh extends Julia implements Shape {
 	 * @param colorScale color scaling factor.
 	 * @param colorSet define the colormap used: Parula, hot, summer or Jet.
 	 * @param trans mesh transformation matrix
-	 * @param cam the camera
+	 * @param cam unused, kept for existing scenes.
 	 * @param treeEps SAH tree epsilon.
 	 * @param objIntersEps object intersection epsilon.
 	 */
 	public JuliaMesh (Complex c, int N, double bound, int lim, double colorScale, String colorSet,
 			          Transformation trans, Camera cam, double treeEps, double objIntersEps){
+		this(c, N, bound, lim, colorScale, colorSet, trans, cam, treeEps, objIntersEps, false);
+	}
+
+	/**
+	 * Set up a function mesh on top of a Julia-set-matrix.
+	 * @param useGrid trace the mesh with a uniform grid instead of a sah tree,
+	 * 		   the evenly spaced triangles of the function mesh suit a grid.
+	 */
+	public JuliaMesh (Complex c, int N, double bound, int lim, double colorScale, String colorSet,
+			          Transformation trans, Camera cam, double treeEps, double objIntersEps,
+			          boolean useGrid){
 		super(c, N, bound, lim, colorScale, colorSet);
 		this.mesh = generateMesh(trans);
 		this.aab = new SahBox(new Point(-1.1,-1,0),
-							  new Point(1,1,1), trans , cam, treeEps, objIntersEps);
+							  new Point(1,1,1), trans , treeEps, objIntersEps);
 		aab.trianglesInBox.addAll(mesh);
-		aab.split(20);
+		if (useGrid) {
+			this.grid = new Grid(mesh, trans);
+		} else {
+			this.grid = null;
+			aab.split(20);
+		}
 	}
 	
 	@Override
@@ -104,12 +122,12 @@ public class JuliaMesh extends Julia implements Shape {
 
 	@Override
 	public List<Intersection> intersect(Ray ray) {
-		if (Constants.compVisualization){
-			ray.countIntersection();
-		}
+		ray.countIntersection();
 		
 		List<Intersection> hits = new ArrayList<Intersection>();
-		if (Constants.useAccTree) {
+		if (this.grid != null) {
+			hits.addAll(this.grid.intersect(ray));
+		} else if (Constants.useAccTree) {
 			hits.addAll(this.aab.intersect(ray));
 		} else {
 			if (aab.intersectBool(ray)) {
@@ -124,5 +142,64 @@ public class JuliaMesh extends Julia implements Shape {
 		}	
 		return hits;
 	}
+	
+	@Override
+	public Intersection intersectClosest(Ray ray) {
+		ray.countIntersection();
+		
+		if (this.grid != null) {
+			return this.grid.intersectClosest(ray);
+		} else if (Constants.useAccTree) {
+			return this.aab.intersectClosest(ray);
+		} else {
+			Intersection closest = null;
+			if (aab.intersectBool(ray)) {
+				for (Triangle triangle : this.mesh) {
+					Intersection hit = triangle.intersectClosest(ray);
+					if (hit != null) {
+						closest = hit;
+					}
+				}
+			}
+			return closest;
+		}
+	}
 
+	@Override
+	public boolean occluded(Ray ray, double maxDistance) {
+		ray.countIntersection();
+		
+		if (this.grid != null) {
+			return this.grid.occluded(ray, maxDistance);
+		} else if (Constants.useAccTree) {
+			return this.aab.occluded(ray, maxDistance);
+		} else {
+			if (aab.intersectBool(ray)) {
+				for (Triangle triangle : this.mesh) {
+					if (triangle.occluded(ray, maxDistance)) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+	}
+
+	@Override
+	public Point[] getWorldBounds() {
+		Point[] box = null;
+		for (Triangle triangle : this.mesh) {
+			Point[] triBox = triangle.getWorldBounds();
+			if (box == null) {
+				box = triBox;
+			} else {
+				box = new Point[] {
+						new Point(Math.min(box[0].x, triBox[0].x), Math.min(box[0].y, triBox[0].y),
+								  Math.min(box[0].z, triBox[0].z)),
+						new Point(Math.max(box[1].x, triBox[1].x), Math.max(box[1].y, triBox[1].y),
+								  Math.max(box[1].z, triBox[1].z))};
+			}
+		}
+		return box;
+	}
 }
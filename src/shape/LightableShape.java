@@ -15,7 +15,7 @@ import math.Transformation;
  * @author moritz
  *
  */
-public interface LightableShape extends Shape {
+public interface LightableShape extends Bounded {
 
 	public double getInverseArea();
 	public Normal getNormal(Point pPrime);
@@ -0,0 +1,534 @@
+package shape;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import acceleration.ForkJoinSahBuilder;
+import math.Constants;
+import math.Normal;
+import math.Point;
+import math.TextPoint;
+
+/**
+ * The content of a wavefront file (.obj) in primitive arrays. The file is
+ * mapped into memory and numbers are parsed straight from the bytes, no
+ * strings or boxed numbers are made per line. Faces are split into
+ * triangle fans, corners can be given as v, v/vt, v//vn or v/vt/vn and
+ * indices can be negative, counting back from the last entry.
+ * Large files are cut at line ends into chunks of Constants.objChunkSize
+ * bytes, which are parsed on the build threads. A first pass counts the
+ * entries of every chunk, so the second pass writes them straight to their
+ * place and resolves negative indices across chunk borders.
+ */
+public class ObjFile {
+	private static final long MAX_CHUNK = 1 << 30; //bytes mapped at once.
+	//exact powers of ten, a product with a mantissa below 2^53 rounds correctly.
+	private static final double[] POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+		1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+	public final double[] vertices; //x,y,z per vertex.
+	public final double[] uvs;      //u,v per texture coordinate.
+	public final double[] normals;  //x,y,z per normal.
+	//per triangle corner the zero based index into the arrays above, -1 if not given.
+	public final int[] cornerVertices;
+	public final int[] cornerUvs;
+	public final int[] cornerNormals;
+	public final int vertexCount;
+	public final int uvCount;
+	public final int normalCount;
+	public final int triangleCount;
+
+	/**
+	 * Read a wavefront file.
+	 * @param path string with path to the .obj file.
+	 * @throws IOException the path might not be correct or the file is broken.
+	 */
+	public ObjFile(String path) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(path, "r");
+		Chunk[] chunks;
+		try {
+			FileChannel channel = in.getChannel();
+			chunks = split(channel);
+			ForkJoinPool pool = null;
+			if (chunks.length > 1) {
+				pool = new ForkJoinPool(ForkJoinSahBuilder.getThreads());
+			}
+			try {
+				run(pool, chunks, false);
+
+				int v = 0;
+				int t = 0;
+				int n = 0;
+				for (Chunk chunk : chunks) {
+					chunk.vertexOffset = v;
+					chunk.uvOffset = t;
+					chunk.normalOffset = n;
+					v = v + chunk.vertexCount;
+					t = t + chunk.uvCount;
+					n = n + chunk.normalCount;
+				}
+				this.vertexCount = v;
+				this.uvCount = t;
+				this.normalCount = n;
+				this.vertices = new double[3 * v];
+				this.uvs = new double[2 * t];
+				this.normals = new double[3 * n];
+
+				run(pool, chunks, true);
+			} finally {
+				if (pool != null) {
+					pool.shutdown();
+				}
+			}
+		} finally {
+			in.close();
+		}
+
+		//stitch the triangles of the chunks together.
+		int triangles = 0;
+		for (Chunk chunk : chunks) {
+			triangles = triangles + chunk.triangleCount;
+		}
+		this.triangleCount = triangles;
+		this.cornerVertices = new int[3 * triangles];
+		this.cornerUvs = new int[3 * triangles];
+		this.cornerNormals = new int[3 * triangles];
+		int k = 0;
+		for (Chunk chunk : chunks) {
+			int length = 3 * chunk.triangleCount;
+			System.arraycopy(chunk.cornerVertices, 0, this.cornerVertices, k, length);
+			System.arraycopy(chunk.cornerUvs, 0, this.cornerUvs, k, length);
+			System.arraycopy(chunk.cornerNormals, 0, this.cornerNormals, k, length);
+			k = k + length;
+		}
+	}
+
+	/**
+	 * Cut the file at line ends into chunks of about Constants.objChunkSize bytes.
+	 */
+	private Chunk[] split(FileChannel channel) throws IOException {
+		long size = channel.size();
+		long chunkSize = Math.min(Math.max(Constants.objChunkSize, 1), MAX_CHUNK);
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		long start = 0;
+		while (start < size) {
+			long end = size;
+			if (size - start > chunkSize) {
+				end = lineEnd(channel, start + chunkSize, size);
+			}
+			if (end - start > Integer.MAX_VALUE) {
+				throw new IOException("line longer than " + chunkSize + " bytes at byte " + start);
+			}
+			chunks.add(new Chunk(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start), start));
+			start = end;
+		}
+		return chunks.toArray(new Chunk[chunks.size()]);
+	}
+
+	/**
+	 * @return the position after the first line end at or behind position.
+	 */
+	private static long lineEnd(FileChannel channel, long position, long size) throws IOException {
+		ByteBuffer window = ByteBuffer.allocate(4096);
+		while (position < size) {
+			window.clear();
+			int read = channel.read(window, position);
+			if (read <= 0) {
+				break;
+			}
+			for (int i = 0; i < read; i++) {
+				if (window.get(i) == '\n') {
+					return position + i + 1;
+				}
+			}
+			position = position + read;
+		}
+		return size;
+	}
+
+	/**
+	 * Run one pass over all chunks, on the pool if there is one.
+	 */
+	private static void run(ForkJoinPool pool, Chunk[] chunks, boolean parse) throws IOException {
+		try {
+			if (pool == null) {
+				new ChunkTask(chunks, 0, chunks.length, parse).compute();
+			} else {
+				pool.invoke(new ChunkTask(chunks, 0, chunks.length, parse));
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Counts or parses a range of chunks, forking the halves.
+	 */
+	private static class ChunkTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Chunk[] chunks;
+		private final int start;
+		private final int end;
+		private final boolean parse;
+
+		ChunkTask(Chunk[] chunks, int start, int end, boolean parse) {
+			this.chunks = chunks;
+			this.start = start;
+			this.end = end;
+			this.parse = parse;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start > 1) {
+				int mid = (start + end) >>> 1;
+				invokeAll(new ChunkTask(chunks, start, mid, parse), new ChunkTask(chunks, mid, end, parse));
+				return;
+			}
+			try {
+				if (parse) {
+					chunks[start].parse();
+				} else {
+					chunks[start].count();
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * A part of the file ending at a line end, with its own parsing state.
+	 * Vertices, texture coordinates and normals go straight into the arrays
+	 * of the file, triangles are kept until all chunks are done.
+	 */
+	private class Chunk {
+		private final MappedByteBuffer buffer;
+		private final long filePosition; //of the first byte, for messages.
+		private final int end;
+		private int pos;
+
+		int vertexCount = 0;
+		int uvCount = 0;
+		int normalCount = 0;
+		int vertexOffset;
+		int uvOffset;
+		int normalOffset;
+
+		int[] cornerVertices = new int[0];
+		int[] cornerUvs = new int[0];
+		int[] cornerNormals = new int[0];
+		int triangleCount = 0;
+		//corners of the current face before it is split into triangles.
+		private int[] face = new int[3 * 8];
+
+		Chunk(MappedByteBuffer buffer, long filePosition) {
+			this.buffer = buffer;
+			this.filePosition = filePosition;
+			this.end = buffer.limit();
+		}
+
+		/**
+		 * First pass, count the vertices, texture coordinates and normals.
+		 */
+		void count() {
+			this.pos = 0;
+			while (this.pos < this.end) {
+				this.skipBlanks();
+				if (this.pos + 1 < this.end) {
+					byte first = this.buffer.get(this.pos);
+					byte second = this.buffer.get(this.pos + 1);
+					if (first == 'v') {
+						if (isBlank(second)) {
+							this.vertexCount++;
+						} else if (second == 't') {
+							this.uvCount++;
+						} else if (second == 'n') {
+							this.normalCount++;
+						}
+					}
+				}
+				this.nextLine();
+			}
+		}
+
+		/**
+		 * Second pass, parse all lines.
+		 */
+		void parse() throws IOException {
+			this.cornerVertices = new int[3 * 1024];
+			this.cornerUvs = new int[3 * 1024];
+			this.cornerNormals = new int[3 * 1024];
+			int v = 3 * this.vertexOffset;
+			int t = 2 * this.uvOffset;
+			int n = 3 * this.normalOffset;
+			//from here on the counts are of the entries parsed so far.
+			this.vertexCount = 0;
+			this.uvCount = 0;
+			this.normalCount = 0;
+			this.pos = 0;
+			while (this.pos < this.end) {
+				this.skipBlanks();
+				if (this.pos + 1 < this.end) {
+					byte first = this.buffer.get(this.pos);
+					byte second = this.buffer.get(this.pos + 1);
+					if ((first == 'v') && isBlank(second)) {
+						this.pos++;
+						vertices[v++] = this.number();
+						vertices[v++] = this.number();
+						vertices[v++] = this.number();
+						this.vertexCount++;
+					} else if ((first == 'v') && (second == 't')) {
+						this.pos += 2;
+						uvs[t++] = this.number();
+						uvs[t++] = this.number();
+						this.uvCount++;
+					} else if ((first == 'v') && (second == 'n')) {
+						this.pos += 2;
+						normals[n++] = this.number();
+						normals[n++] = this.number();
+						normals[n++] = this.number();
+						this.normalCount++;
+					} else if ((first == 'f') && isBlank(second)) {
+						this.pos++;
+						this.face();
+					}
+				}
+				//comments, groups, materials and the rest of parsed lines are skipped.
+				this.nextLine();
+			}
+		}
+
+		private void nextLine() {
+			while ((this.pos < this.end) && (this.buffer.get(this.pos) != '\n')) {
+				this.pos++;
+			}
+			this.pos++;
+		}
+
+		/**
+		 * Parse the corners of a face and add them as a triangle fan.
+		 */
+		private void face() throws IOException {
+			int corners = 0;
+			this.skipBlanks();
+			while ((this.pos < this.end) && (isLineEnd(this.buffer.get(this.pos)) == false)) {
+				this.face = ensure(this.face, 3 * corners + 3);
+				this.face[3 * corners] = this.index(this.vertexOffset + this.vertexCount, ObjFile.this.vertexCount);
+				this.face[3 * corners + 1] = -1;
+				this.face[3 * corners + 2] = -1;
+				if ((this.pos < this.end) && (this.buffer.get(this.pos) == '/')) {
+					this.pos++;
+					if ((this.pos < this.end) && (this.buffer.get(this.pos) != '/')) {
+						this.face[3 * corners + 1] = this.index(this.uvOffset + this.uvCount, ObjFile.this.uvCount);
+					}
+					if ((this.pos < this.end) && (this.buffer.get(this.pos) == '/')) {
+						this.pos++;
+						this.face[3 * corners + 2] = this.index(this.normalOffset + this.normalCount,
+								ObjFile.this.normalCount);
+					}
+				}
+				corners++;
+				this.skipBlanks();
+			}
+			if (corners < 3) {
+				throw new IOException("face with " + corners + " corners before byte " + this.position());
+			}
+			int triangles = corners - 2;
+			int needed = 3 * (this.triangleCount + triangles);
+			this.cornerVertices = ensure(this.cornerVertices, needed);
+			this.cornerUvs = ensure(this.cornerUvs, needed);
+			this.cornerNormals = ensure(this.cornerNormals, needed);
+			for (int i = 1; i <= triangles; i++) {
+				int k = 3 * this.triangleCount;
+				this.corner(k, 0);
+				this.corner(k + 1, i);
+				this.corner(k + 2, i + 1);
+				this.triangleCount++;
+			}
+		}
+
+		private void corner(int k, int faceCorner) {
+			this.cornerVertices[k] = this.face[3 * faceCorner];
+			this.cornerUvs[k] = this.face[3 * faceCorner + 1];
+			this.cornerNormals[k] = this.face[3 * faceCorner + 2];
+		}
+
+		/**
+		 * Parse a one based or negative relative index.
+		 * @param before the number of entries in the file before this line.
+		 * @param total the number of entries in the file.
+		 * @return the zero based index.
+		 */
+		private int index(int before, int total) throws IOException {
+			boolean negative = false;
+			if ((this.pos < this.end) && (this.buffer.get(this.pos) == '-')) {
+				negative = true;
+				this.pos++;
+			}
+			int start = this.pos;
+			int value = 0;
+			while (this.pos < this.end) {
+				int digit = this.buffer.get(this.pos) - '0';
+				if ((digit < 0) || (digit > 9)) {
+					break;
+				}
+				value = 10 * value + digit;
+				this.pos++;
+			}
+			if (this.pos == start) {
+				throw new IOException("expected an index at byte " + this.position());
+			}
+			int index = negative ? (before - value) : (value - 1);
+			if ((index < 0) || (index >= (negative ? before : total))) {
+				throw new IOException("index " + (negative ? -value : value) + " out of range at byte "
+						+ this.position());
+			}
+			return index;
+		}
+
+		/**
+		 * Parse a decimal number, with an optional sign, fraction and exponent.
+		 * Numbers which do not fit into an exactly rounded product are handed
+		 * to Double.parseDouble, so results always match it.
+		 */
+		private double number() throws IOException {
+			this.skipBlanks();
+			int start = this.pos;
+			boolean negative = false;
+			if (this.pos < this.end) {
+				byte sign = this.buffer.get(this.pos);
+				if ((sign == '-') || (sign == '+')) {
+					negative = (sign == '-');
+					this.pos++;
+				}
+			}
+			long mantissa = 0;
+			int digits = 0;
+			int scale = 0;
+			boolean any = false;
+			boolean fraction = false;
+			while (this.pos < this.end) {
+				byte b = this.buffer.get(this.pos);
+				if ((b >= '0') && (b <= '9')) {
+					any = true;
+					if (digits < 18) {
+						mantissa = 10 * mantissa + (b - '0');
+						if ((mantissa != 0) || (b != '0')) {
+							digits++;
+						}
+						if (fraction) {
+							scale--;
+						}
+					} else if (fraction == false) {
+						scale++;
+					}
+				} else if ((b == '.') && (fraction == false)) {
+					fraction = true;
+				} else {
+					break;
+				}
+				this.pos++;
+			}
+			if (any == false) {
+				throw new IOException("expected a number at byte " + (this.filePosition + start));
+			}
+			if ((this.pos < this.end) && ((this.buffer.get(this.pos) == 'e') || (this.buffer.get(this.pos) == 'E'))) {
+				this.pos++;
+				boolean negativeExp = false;
+				if (this.pos < this.end) {
+					byte sign = this.buffer.get(this.pos);
+					if ((sign == '-') || (sign == '+')) {
+						negativeExp = (sign == '-');
+						this.pos++;
+					}
+				}
+				int exp = 0;
+				while ((this.pos < this.end) && (this.buffer.get(this.pos) >= '0') && (this.buffer.get(this.pos) <= '9')) {
+					exp = Math.min(10 * exp + (this.buffer.get(this.pos) - '0'), 100000);
+					this.pos++;
+				}
+				scale = scale + (negativeExp ? -exp : exp);
+			}
+			if ((digits >= 18) || (mantissa >= (1L << 53)) || (scale > 22) || (scale < -22)) {
+				return this.slowNumber(start);
+			}
+			double value = (scale < 0) ? (mantissa / POW10[-scale]) : (mantissa * POW10[scale]);
+			return negative ? -value : value;
+		}
+
+		private double slowNumber(int start) {
+			byte[] bytes = new byte[this.pos - start];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = this.buffer.get(start + i);
+			}
+			return Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII));
+		}
+
+		private void skipBlanks() {
+			while ((this.pos < this.end) && isBlank(this.buffer.get(this.pos))) {
+				this.pos++;
+			}
+		}
+
+		private long position() {
+			return this.filePosition + this.pos;
+		}
+	}
+
+	private static boolean isBlank(byte b) {
+		return (b == ' ') || (b == '\t');
+	}
+
+	private static boolean isLineEnd(byte b) {
+		return (b == '\n') || (b == '\r') || (b == '#');
+	}
+
+	private static int[] ensure(int[] array, int length) {
+		if (array.length < length) {
+			return Arrays.copyOf(array, Math.max(2 * array.length, length));
+		}
+		return array;
+	}
+
+	/**
+	 * @param triangle the triangle index.
+	 * @param corner 0, 1 or 2.
+	 */
+	public Point getPoint(int triangle, int corner) {
+		int i = 3 * this.cornerVertices[3 * triangle + corner];
+		return new Point(this.vertices[i], this.vertices[i + 1], this.vertices[i + 2]);
+	}
+
+	/**
+	 * @return the corner normal or null if the face has none.
+	 */
+	public Normal getNormal(int triangle, int corner) {
+		int i = this.cornerNormals[3 * triangle + corner];
+		if (i < 0) {
+			return null;
+		}
+		return new Normal(this.normals[3 * i], this.normals[3 * i + 1], this.normals[3 * i + 2]);
+	}
+
+	/**
+	 * @return the corner texture coordinate or null if the face has none.
+	 */
+	public TextPoint getTextPoint(int triangle, int corner) {
+		int i = this.cornerUvs[3 * triangle + corner];
+		if (i < 0) {
+			return null;
+		}
+		return new TextPoint(this.uvs[2 * i], this.uvs[2 * i + 1]);
+	}
+}
@@ -1,15 +1,25 @@
 package shape;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import camera.Camera;
 import acceleration.AxisAlignedBox;
+import acceleration.BinnedSahBuilder;
+import acceleration.BvhCache;
+import acceleration.CompressedBvh;
+import acceleration.ForkJoinSahBuilder;
+import acceleration.Grid;
+import acceleration.LinearBvh;
 import acceleration.ParallelSahBox;
+import acceleration.RayPacket;
 import acceleration.SahBox;
+import acceleration.SpatialSplitBuilder;
+import acceleration.WideBvh;
 import material.Material;
 import math.Constants;
 import math.Intersection;
@@ -18,6 +28,7 @@ import math.Point;
 import math.Ray;
 import math.TextPoint;
 import math.Transformation;
+import math.Vector;
 
 /**
  * A class which loads and makes simple wavefront files (.obj)
@@ -26,12 +37,16 @@ import math.Transformation;
  *
  */
 
-public class ObjShape implements Shape {
+public class ObjShape implements Bounded {
 	public final String path;
 	public final Transformation transformation;
+	protected final Transformation bakedTransformation; //applied to the data while loading, or null.
 	public final Material mat;
 	public final List<Triangle> triangleList;
 	protected AxisAlignedBox aab;
+	protected LinearBvh flatTree;
+	protected Grid grid; //replaces the trees once useGrid() was called.
+	protected BvhCache cache; //null unless built flat trees are kept on disk.
 	//private int accessCount = 0;
 	protected int treeDepth;
 	protected Camera cam;
@@ -47,13 +62,39 @@ public class ObjShape implements Shape {
 	 * @param mat a material object.
 	 * @param reflectivity changes the brightness.
 	 * @param treeDepth the depth of the acceleration tree.
-	 * @param camera object needed for camera position.
+	 * @param camera not needed by the acceleration trees any more, which order
+	 * 		   their children by ray direction. Kept for existing scenes.
 	 */	
 	public ObjShape(String path, Transformation transformation, Material mat,
 					int treeDepth, Camera camera,
 					double treeEps, double objInterEps){
+		this(path, transformation, mat, treeDepth, camera, treeEps, objInterEps, false);
+	}
+	
+	/**
+	 * Create a triangle mesh from a wavefront (.obj) file.
+	 * @param path string with path to the .obj file.
+	 * @param transformation collection of matrices changing
+	 * 		   position and scale.
+	 * @param mat a material object.
+	 * @param treeDepth the depth of the acceleration tree.
+	 * @param camera not needed by the acceleration trees any more, which order
+	 * 		   their children by ray direction. Kept for existing scenes.
+	 * @param bakeTransformation apply the transformation to the vertices
+	 * 		   and normals while loading, rays then reach the triangles
+	 * 		   without any matrix work. Tree epsilons are in world units.
+	 */	
+	public ObjShape(String path, Transformation transformation, Material mat,
+					int treeDepth, Camera camera,
+					double treeEps, double objInterEps, boolean bakeTransformation){
 		this.path = path;
-		this.transformation = transformation;
+		if (bakeTransformation) {
+			this.transformation = Transformation.IDENTITY;
+			this.bakedTransformation = transformation;
+		} else {
+			this.transformation = transformation;
+			this.bakedTransformation = null;
+		}
 		this.mat = mat;
 		this.triangleList = new ArrayList<Triangle>();
 		this.treeDepth = treeDepth;
@@ -63,7 +104,9 @@ public class ObjShape implements Shape {
 		
 		long t = System.nanoTime();
 		try {
-			this.read();
+			if (this.readCache() == false) {
+				this.read();
+			}
 		} catch (IOException e) {
 			System.out.println("File not found: " + e.getMessage());
 		}
@@ -81,6 +124,7 @@ public class ObjShape implements Shape {
 			int treeDepth, Camera camera, double treeEps, double objInterEps){
 		this.path = path;
 		this.transformation = transformation;
+		this.bakedTransformation = null;
 		this.mat = mat;
 		this.triangleList = new ArrayList<Triangle>();
 		this.treeDepth = treeDepth;
@@ -96,7 +140,11 @@ public class ObjShape implements Shape {
 		List<Intersection> intersections = new ArrayList<Intersection>();
 		//intersections.clear();
 		
-		if (Constants.useAccTree) {
+		if (this.grid != null) {
+			intersections.addAll(this.grid.intersect(ray));
+		} else if (Constants.useAccTree && Constants.useFlatTree) {
+			intersections.addAll(this.flatTree.intersect(ray));
+		} else if (Constants.useAccTree) {
 			intersections.addAll(this.aab.intersect(ray));
 		} else {
 			if (aab.intersectBool(ray)) {
@@ -111,171 +159,96 @@ public class ObjShape implements Shape {
 		}	
 		return intersections;
 	}
+	
+	@Override
+	public Intersection intersectClosest(Ray ray) {
+		if (this.grid != null) {
+			return this.grid.intersectClosest(ray);
+		} else if (Constants.useAccTree && Constants.useFlatTree) {
+			return this.flatTree.intersectClosest(ray);
+		} else if (Constants.useAccTree) {
+			return this.aab.intersectClosest(ray);
+		} else {
+			Intersection closest = null;
+			if (aab.intersectBool(ray)) {
+				for (Triangle triangle : this.triangleList) {
+					Intersection hit = triangle.intersectClosest(ray);
+					if (hit != null) {
+						closest = hit;
+					}
+				}
+			}
+			return closest;
+		}
+	}
 
 	/**
-	 * Read in the object data from an ".obj" file.
-	 * @throws IOException the path might not be correct.
+	 * Find the closest intersections of a packet of rays, the flat tree is
+	 * traversed by the whole packet.
+	 * @param packet the rays in world coordinates, closer hits are stored in it.
 	 */
-	protected void read() throws IOException {
-			long t = System.nanoTime();
-			
-			BufferedReader br = new BufferedReader( new FileReader(this.path));
-			
-
-			String currentLine;
-			
-			List<List<Double>> vertList = new ArrayList<List<Double>>();
-			List<List<Double>> txtvList = new ArrayList<List<Double>>();
-			List<List<Double>> normList = new ArrayList<List<Double>>();
-			List<List<List<Integer>>> fList = new ArrayList<List<List<Integer>>>();
-
-			while ((currentLine = br.readLine()) != null) {
-				//Find the vertices.
-				if (currentLine.substring(0, 2).equals("v ")) {
-					List<Double> vertices = new ArrayList<Double>();
-					for (String strDouble :(currentLine.substring(2, currentLine.length()).split(" "))) {
-						if (strDouble.isEmpty() == false){
-							vertices.add(Double.parseDouble(strDouble));
-						}
-					}
-					vertList.add(vertices);
-				}
-				//Load the texture coordinates.
-				if (currentLine.substring(0, 2).equals("vt")) {
-					List<Double> txtvert = new ArrayList<Double>();
-					for (String strDouble :(currentLine.substring(2, currentLine.length()).split(" "))) {
-						if (strDouble.isEmpty() == false){
-							txtvert.add(Double.parseDouble(strDouble));
-						}
-					}
-					txtvList.add(txtvert);
-				}
-				//Load the normals.
-				if (currentLine.substring(0, 2).equals("vn")) {
-					List<Double> normals = new ArrayList<Double>();
-					for (String strDouble :(currentLine.substring(2, currentLine.length()).split(" "))) {
-						if (strDouble.isEmpty() == false){
-							normals.add(Double.parseDouble(strDouble));
-						}
-					}
-					normList.add(normals);
+	public void intersectClosest(RayPacket packet) {
+		if ((this.grid == null) && Constants.useAccTree && Constants.useFlatTree) {
+			this.flatTree.intersectClosest(packet);
+		} else {
+			for (int k = 0; k < packet.size; k++) {
+				Intersection hit = this.intersectClosest(packet.rays[k]);
+				if (hit != null) {
+					packet.setHit(k, hit, packet.rays[k].getTMax());
 				}
-				//Get the triangle assembly information.
-				if (currentLine.substring(0, 2).equals("f ")) {
-					List<List<Integer>> fsOuter = new ArrayList<List<Integer>>();
-					for (String strInt :(currentLine.substring(2, currentLine.length()).split(" "))) {
-						
-						if (strInt.isEmpty() == false){
-							List<Integer> fsInner = new ArrayList<Integer>();
-							for (String strInt2 :strInt.split("/")) {
-								fsInner.add(Integer.parseInt(strInt2));								
-							}
-							fsOuter.add(fsInner);						
-						}
+			}
+		}
+	}
+
+	@Override
+	public boolean occluded(Ray ray, double maxDistance) {
+		if (this.grid != null) {
+			return this.grid.occluded(ray, maxDistance);
+		} else if (Constants.useAccTree && Constants.useFlatTree) {
+			return this.flatTree.occluded(ray, maxDistance);
+		} else if (Constants.useAccTree) {
+			return this.aab.occluded(ray, maxDistance);
+		} else {
+			if (aab.intersectBool(ray)) {
+				for (Triangle triangle : this.triangleList) {
+					if (triangle.occluded(ray, maxDistance)) {
+						return true;
 					}
-					fList.add(fsOuter);
 				}
-				//For debug print the current line.
-				//System.out.println(currentLine);	
 			}
+			return false;
+		}
+	}
+
+	@Override
+	public Point[] getWorldBounds() {
+		if (this.grid != null) {
+			return this.transformation.transformBox(this.grid.getMin(), this.grid.getMax());
+		}
+		if ((this.flatTree != null) && (this.flatTree.nodeCount > 0)) {
+			return this.transformation.transformBox(this.flatTree.getMin(), this.flatTree.getMax());
+		}
+		return this.transformation.transformBox(this.aab.p0, this.aab.p1);
+	}
+
+	/**
+	 * Read in the object data from an ".obj" file.
+	 * @throws IOException the path might not be correct.
+	 */
+	protected void read() throws IOException {
+			long t = System.nanoTime();
+			ObjFile obj = new ObjFile(this.path);
 			
-			//For debug print what was read in.
-			//System.out.println(vertList);
-			//System.out.println(txtvList);
-			//System.out.println(normList);
-			//System.out.println(fList);
-			
-			//close the buffered reader.
-			br.close();		
-			
-			//create the triangles.
-			Extremes minmax = new Extremes();
-			for (List<List<Integer>> asmblyList : fList) {
-				//create the point objects
-				List<Double> vertex = vertList.get(asmblyList.get(0).get(0) - 1);
-				Double x = vertex.get(0);
-				Double y = vertex.get(1);
-				Double z = vertex.get(2);
-				Point a = new Point(x,y,z);
-				minmax.checkVals(x, y, z);
-				//System.out.println(asmblyList.get(1).get(0));
-				
-				//b
-				vertex = vertList.get(asmblyList.get(1).get(0) - 1);
-				x = vertex.get(0);
-				y = vertex.get(1);
-				z = vertex.get(2);
-				Point b = new Point(x,y,z);
-				minmax.checkVals(x, y, z);
-				
-				//c
-				vertex = vertList.get(asmblyList.get(2).get(0) - 1);
-				x = vertex.get(0);
-				y = vertex.get(1);
-				z = vertex.get(2);
-				Point c = new Point(x,y,z);
-				minmax.checkVals(x, y, z);
-				
-				//create the normal objects.
-				List<Double> normal = normList.get(asmblyList.get(0).get(2) - 1);
-				x = normal.get(0);
-				y = normal.get(1);
-				z = normal.get(2);
-				Normal an = new Normal(x,y,z);
-				
-				if (Math.sqrt(x*x + y*y + z*z) < 0.1) {
-					System.err.println("an very small");
-				}
-				
-				//b
-				normal = normList.get(asmblyList.get(1).get(2) - 1);
-				x = normal.get(0);
-				y = normal.get(1);
-				z = normal.get(2);
-				Normal bn = new Normal(x,y,z);
-				
-				if (Math.sqrt(x*x + y*y + z*z) < 0.1) {
-					System.err.println("bn very small");
-				}
-				
-				//c
-				normal = normList.get(asmblyList.get(2).get(2) - 1);
-				x = normal.get(0);
-				y = normal.get(1);
-				z = normal.get(2);
-				Normal cn = new Normal(x,y,z);
-				
-				if (Math.sqrt(x*x + y*y + z*z) < 0.1) {
-					System.err.println("cn veeery small");
-				}
-				
-				//find the texture coordinates.
-				//create the normal objects.
-				//System.out.println(asmblyList);
-				List<Double> textVerts = txtvList.get(asmblyList.get(0).get(1) - 1);
-				double u = textVerts.get(0);
-				double v = textVerts.get(1);
-				TextPoint at = new TextPoint(u,v);
-				
-				
-				textVerts = txtvList.get(asmblyList.get(1).get(1) - 1);
-				u = textVerts.get(0);
-				v = textVerts.get(1);
-				TextPoint bt = new TextPoint(u,v);
-				
-				textVerts = txtvList.get(asmblyList.get(2).get(1) - 1);
-				u = textVerts.get(0);
-				v = textVerts.get(1);
-				TextPoint ct = new TextPoint(u,v);
-				
-				
-				//(Point a, Point b, Point c,
-				//Normal an, Normal bn, Normal cn, Color color,
-				//double reflectivity, Transformation transformation)
-				Triangle triangle = new Triangle(a,b,c,an,bn,cn,at,bt,ct,this.mat,this.transformation);
-				this.triangleList.add(triangle);
-				
+			//create the triangles on the build threads and reduce their extremes.
+			Triangle[] triangles = new Triangle[obj.triangleCount];
+			Extremes minmax;
+			ForkJoinPool pool = new ForkJoinPool(ForkJoinSahBuilder.getThreads());
+			try {
+				minmax = pool.invoke(new TriangleTask(obj, triangles, 0, triangles.length));
+			} finally {
+				pool.shutdown();
 			}
+			this.triangleList.addAll(Arrays.asList(triangles));
 			long elTimens = System.nanoTime() - t;
 			//conversion from ns to s.
 			double elTime = elTimens * Math.pow(10,-9);
@@ -293,12 +266,199 @@ public class ObjShape implements Shape {
 			System.out.println(elTime);
 	}
 	
+	/**
+	 * Creates the triangles of a range of parsed faces, forking the halves,
+	 * and returns the extremes of their vertices.
+	 */
+	private class TriangleTask extends RecursiveTask<Extremes> {
+		private static final long serialVersionUID = 1L;
+		private static final int TASK_SIZE = 16384; //smaller ranges are not split.
+		private final ObjFile obj;
+		private final Triangle[] triangles;
+		private final int start;
+		private final int end;
+
+		TriangleTask(ObjFile obj, Triangle[] triangles, int start, int end) {
+			this.obj = obj;
+			this.triangles = triangles;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected Extremes compute() {
+			if (end - start > TASK_SIZE) {
+				int mid = (start + end) >>> 1;
+				TriangleTask leftTask = new TriangleTask(obj, triangles, start, mid);
+				leftTask.fork();
+				Extremes minmax = new TriangleTask(obj, triangles, mid, end).compute();
+				minmax.merge(leftTask.join());
+				return minmax;
+			}
+			Extremes minmax = new Extremes();
+			for (int i = start; i < end; i++) {
+				//create the point objects
+				Point a = bake(obj.getPoint(i, 0));
+				Point b = bake(obj.getPoint(i, 1));
+				Point c = bake(obj.getPoint(i, 2));
+				minmax.checkVals(a.x, a.y, a.z);
+				minmax.checkVals(b.x, b.y, b.z);
+				minmax.checkVals(c.x, c.y, c.z);
+		
+				//create the normal objects, faces without normals are flat.
+				Normal an = obj.getNormal(i, 0);
+				Normal bn = obj.getNormal(i, 1);
+				Normal cn = obj.getNormal(i, 2);
+				if ((an == null) || (bn == null) || (cn == null)) {
+					Vector n = b.subtract(a).cross(c.subtract(a));
+					an = new Normal(n.x, n.y, n.z);
+					bn = an;
+					cn = an;
+				} else {
+					an = bake(an);
+					bn = bake(bn);
+					cn = bake(cn);
+				}
+		
+				//find the texture coordinates.
+				TextPoint at = obj.getTextPoint(i, 0);
+				TextPoint bt = obj.getTextPoint(i, 1);
+				TextPoint ct = obj.getTextPoint(i, 2);
+				if ((at == null) || (bt == null) || (ct == null)) {
+					at = new TextPoint(0, 0);
+					bt = new TextPoint(1, 0);
+					ct = new TextPoint(0, 1);
+				}
+		
+				triangles[i] = newTriangle(a, b, c, an, bn, cn, at, bt, ct);
+			}
+			return minmax;
+		}
+	}
+	
+	/**
+	 * Make a triangle of the mesh, children can use their own triangle types.
+	 */
+	protected Triangle newTriangle(Point a, Point b, Point c, Normal an, Normal bn, Normal cn,
+			TextPoint at, TextPoint bt, TextPoint ct) {
+		return new Triangle(a, b, c, an, bn, cn, at, bt, ct, this.mat, this.transformation);
+	}
+	
+	
+	/**
+	 * Load the flat tree and the packed triangles from the cache file
+	 * instead of reading and splitting the obj file. On a miss the cache
+	 * is kept, so createTree can fill it.
+	 * @return true if the tree was loaded from the cache.
+	 * @throws IOException the path might not be correct.
+	 */
+	private boolean readCache() throws IOException {
+		if ((Constants.useBvhCache && Constants.useAccTree && Constants.useFlatTree) == false) {
+			return false;
+		}
+		long t = System.nanoTime();
+		this.cache = new BvhCache(this.path, this.transformation, this.bakedTransformation,
+				this.treeDepth, this.treeEpsilon);
+		LinearBvh tree = this.cache.load(this.mat, this.transformation);
+		if (tree == null) {
+			return false;
+		}
+		this.flatTree = this.compress(this.widen(tree));
+		//the top level box is kept for bounds tests without acceleration.
+		Point min = tree.getMin();
+		Point max = tree.getMax();
+		this.aab = new AxisAlignedBox(new Point(min.x - this.treeEpsilon,
+											min.y - this.treeEpsilon,
+											min.z - this.treeEpsilon),
+								  new Point(max.x + this.treeEpsilon,
+										    max.y + this.treeEpsilon,
+										    max.z + this.treeEpsilon),
+								  this.transformation, treeEpsilon, objIntersEpsilon);
+		double elTime = (System.nanoTime() - t) * Math.pow(10, -9);
+		System.out.println("Cache reading took [s]:");
+		System.out.println(elTime);
+		if (Constants.verboseTrees) {
+			System.out.println("SAH cost of the tree:");
+			System.out.println(this.flatTree.sahCost());
+		}
+		return true;
+	}
+
+	/**
+	 * Keep a freshly built binary flat tree in the cache file, if there is one.
+	 */
+	private void storeCache(LinearBvh tree) {
+		if (this.cache != null) {
+			this.cache.store(tree);
+		}
+	}
+
+	/**
+	 * Apply the baked transformation to a loaded vertex.
+	 */
+	protected Point bake(Point vertex) {
+		if (this.bakedTransformation == null) {
+			return vertex;
+		}
+		return this.bakedTransformation.transform(vertex);
+	}
+	
+	/**
+	 * Apply the baked transformation to a loaded vertex normal. The result is
+	 * not normalized, so interpolated normals match the unbaked mesh.
+	 */
+	protected Normal bake(Normal normal) {
+		if (this.bakedTransformation == null) {
+			return normal;
+		}
+		Vector n = this.bakedTransformation.getInverseTransformationMatrix().transpose()
+				.transform(normal.toVector());
+		return new Normal(n.x, n.y, n.z);
+	}
 	
 	/**
 	 * Creates the acceleration tree for the wavefront object.
 	 * @param minmax contains the extreme points of the considered mesh.
 	 */	
 	protected void createTree(Extremes minmax){
+		if (Constants.useFlatTree && Constants.useBinnedSah) {
+			if (Constants.useSpatialSplits) {
+				SpatialSplitBuilder builder = new SpatialSplitBuilder(this.triangleList, this.transformation);
+				LinearBvh tree = builder.build(this.treeDepth);
+				this.storeCache(tree);
+				this.flatTree = this.compress(this.widen(tree));
+				if (Constants.verboseTrees) {
+					System.out.println("references added by spatial splits:");
+					System.out.println(builder.duplicatedReferences());
+				}
+			} else {
+				BinnedSahBuilder builder;
+				if (ForkJoinSahBuilder.getThreads() > 1) {
+					builder = new ForkJoinSahBuilder(this.triangleList, this.transformation);
+				} else {
+					builder = new BinnedSahBuilder(this.triangleList, this.transformation);
+				}
+				LinearBvh tree = builder.build(this.treeDepth);
+				this.storeCache(tree);
+				this.flatTree = this.compress(this.widen(tree));
+			}
+			//the top level box is kept for bounds tests without acceleration.
+			this.aab = new AxisAlignedBox(new Point(minmax.xMin - this.treeEpsilon,
+												minmax.yMin - this.treeEpsilon,
+												minmax.zMin - this.treeEpsilon),
+									  new Point(minmax.xMax + this.treeEpsilon,
+											    minmax.yMax + this.treeEpsilon,
+											    minmax.zMax + this.treeEpsilon),
+									  this.transformation, treeEpsilon, objIntersEpsilon);
+			this.aab.trianglesInBox.addAll(triangleList);
+			if (Constants.verboseTrees) {
+				System.out.println("SAH cost of the tree:");
+				System.out.println(this.flatTree.sahCost());
+			}
+			this.releaseTriangles();
+			return;
+		}
+		
 		boolean singleCore = true;
 		if (singleCore){
 		//this.aab = new AxisAlignedBox(new Point(minmax.xMin - Constants.treeEpsilon,
@@ -310,7 +470,7 @@ public class ObjShape implements Shape {
 									  new Point(minmax.xMax + this.treeEpsilon,
 											    minmax.yMax + this.treeEpsilon,
 											    minmax.zMax + this.treeEpsilon),
-									  this.transformation, this.cam, treeEpsilon, objIntersEpsilon);
+									  this.transformation, treeEpsilon, objIntersEpsilon);
 		} else {
 		this.aab = new ParallelSahBox(new Point(minmax.xMin - this.treeEpsilon,
 				minmax.yMin - this.treeEpsilon,
@@ -318,11 +478,122 @@ public class ObjShape implements Shape {
 	    new Point(minmax.xMax + this.treeEpsilon,
 			    minmax.yMax + this.treeEpsilon,
 			    minmax.zMax + this.treeEpsilon),
-	    this.transformation, this.cam, this.treeDepth, this.treeDepth, null, treeEpsilon, objIntersEpsilon);
+	    this.transformation, this.treeDepth, this.treeDepth, null, treeEpsilon, objIntersEpsilon);
 		}
 		
 		aab.trianglesInBox.addAll(triangleList);
 		aab.split(this.treeDepth); //recursively split the box until the max depth is reached.
+
+		if (Constants.useFlatTree) {
+			LinearBvh tree = LinearBvh.fromTree((SahBox) this.aab);
+			this.storeCache(tree);
+			this.flatTree = this.compress(this.widen(tree));
+			//keep only the top level bounds, the linked tree is no longer needed.
+			AxisAlignedBox top = new AxisAlignedBox(aab.p0, aab.p1, this.transformation,
+					treeEpsilon, objIntersEpsilon);
+			top.trianglesInBox = this.aab.trianglesInBox;
+			this.aab = top;
+			if (Constants.verboseTrees) {
+				System.out.println("SAH cost of the tree:");
+				System.out.println(this.flatTree.sahCost());
+			}
+			this.releaseTriangles();
+		}
+	}
+
+	/**
+	 * Collapse a binary flat tree into a wide one if Constants.bvhWidth asks for it.
+	 */
+	private LinearBvh widen(LinearBvh tree) {
+		if (Constants.bvhWidth <= 2) {
+			return tree;
+		}
+		WideBvh wide = new WideBvh(tree, Constants.bvhWidth);
+		if (Constants.verboseTrees) {
+			System.out.println("wide tree nodes and depth:");
+			System.out.println(wide.wideNodeCount + " " + wide.wideDepth);
+		}
+		return wide;
+	}
+
+	/**
+	 * Quantize the bounds of a binary flat tree if Constants.bvhBits asks for it.
+	 */
+	private LinearBvh compress(LinearBvh tree) {
+		if ((Constants.bvhBits == 0) || (tree instanceof WideBvh)) {
+			return tree;
+		}
+		CompressedBvh compressed = new CompressedBvh(tree, Constants.bvhBits);
+		if (Constants.verboseTrees) {
+			System.out.println("compressed tree node bytes:");
+			System.out.println(compressed.nodeBytes());
+		}
+		return compressed;
+	}
+
+	/**
+	 * Trace this mesh with a uniform grid instead of the trees, which pays
+	 * off for evenly tessellated meshes like height fields. The grid shares
+	 * the packed triangles of the flat tree if there is one.
+	 */
+	public void useGrid() {
+		long t = System.nanoTime();
+		if (this.flatTree != null) {
+			this.grid = new Grid(this.flatTree.getMesh());
+		} else {
+			this.grid = new Grid(this.triangleList, this.transformation);
+		}
+		this.flatTree = null;
+		if (Constants.verboseTrees) {
+			System.out.println("grid resolution and refined cells:");
+			System.out.println(this.grid.resolution[0] + " " + this.grid.resolution[1] + " "
+					+ this.grid.resolution[2] + " " + this.grid.refinedCells());
+		}
+		System.out.println("Grid creation took [s]:");
+		System.out.println((System.nanoTime() - t) * Math.pow(10, -9));
+	}
+
+	/**
+	 * Move the vertices of the mesh, for instance for the next frame of an
+	 * animation. The flat tree is refit, which keeps its topology, and only
+	 * rebuilt once its surface area cost grew by Constants.refitTolerance.
+	 * A scene tree holding the mesh has to be refit afterwards.
+	 * @param deformation moves the vertices of the undeformed mesh.
+	 */
+	public void deform(Deformation deformation) {
+		if ((this.grid == null) && (this.flatTree == null)) {
+			throw new IllegalStateException("Only meshes with a flat tree or a grid can be deformed.");
+		}
+		long t = System.nanoTime();
+		if (this.grid != null) {
+			this.grid.getMesh().deform(deformation);
+			this.grid = new Grid(this.grid.getMesh());
+		} else {
+			this.flatTree.getMesh().deform(deformation);
+			double drift = this.flatTree.refit();
+			if (drift > Constants.refitTolerance) {
+				this.flatTree = this.compress(this.widen(this.flatTree.rebuild(this.treeDepth)));
+				if (Constants.verboseTrees) {
+					System.out.println("Tree rebuilt, SAH cost of the tree:");
+					System.out.println(this.flatTree.sahCost());
+				}
+			}
+		}
+		System.out.println("Deformation took [s]:");
+		System.out.println((System.nanoTime() - t) * Math.pow(10, -9));
+	}
+
+	/**
+	 * Drop the triangle objects once the flat tree holds the packed mesh.
+	 * Meshes which need the objects for shading, like normal mapped ones,
+	 * keep them.
+	 */
+	private void releaseTriangles() {
+		if (Constants.useAccTree && (this.flatTree.getMesh().keepsTriangles() == false)) {
+			this.triangleList.clear();
+			((ArrayList<Triangle>) this.triangleList).trimToSize();
+			this.aab.trianglesInBox = new ArrayList<Triangle>();
+		}
 	}
 
 	/**
@@ -358,6 +629,14 @@ public class ObjShape implements Shape {
 				this.zMax = z;
 			}
 		}
+		
+		/**
+		 * Widen these extremes to include another set.
+		 */
+		public void merge(Extremes other){
+			this.checkVals(other.xMin, other.yMin, other.zMin);
+			this.checkVals(other.xMax, other.yMax, other.zMax);
+		}
 	}
 	
 	/*
@@ -0,0 +1,300 @@
+package shape;
+
+import material.Material;
+import math.Intersection;
+import math.Normal;
+import math.Point;
+import math.TextPoint;
+import math.Transformation;
+import math.Vector;
+
+/**
+ * A triangle soup stored in flat arrays instead of {@link Triangle} objects.
+ * Per triangle the first vertex and the two edges leaving it are kept for
+ * the Moeller-Trumbore test, vertex normals and texture coordinates are kept
+ * in single precision for shading. All triangles share one material and one
+ * transformation.
+ */
+public class PackedMesh {
+	/**
+	 * First vertex and the edges to the second and third vertex, nine values
+	 * per triangle: v0, v1 - v0, v2 - v0.
+	 */
+	protected final double[] vertices;
+
+	/**
+	 * Vertex normals, nine values per triangle.
+	 */
+	protected final float[] normals;
+
+	/**
+	 * Texture coordinates, six values per triangle.
+	 */
+	protected final float[] uvs;
+
+	/**
+	 * The original triangles, only kept when they shade differently
+	 * from a plain triangle, for instance with a normal map.
+	 */
+	protected final Triangle[] shading;
+
+	/**
+	 * The vertices before the first deformation, null until the mesh is deformed.
+	 */
+	protected double[] rest;
+
+	public final int size;
+	public final Material mat;
+	public final Transformation transformation;
+
+	/**
+	 * Pack a list of triangles sharing a transformation.
+	 * @param triangles the triangles, the array order is kept.
+	 * @param transformation the transformation of the mesh.
+	 */
+	public PackedMesh(Triangle[] triangles, Transformation transformation) {
+		this.size = triangles.length;
+		this.transformation = transformation;
+		this.vertices = new double[9 * size];
+		this.normals = new float[9 * size];
+		this.uvs = new float[6 * size];
+
+		Material first = (size > 0) ? triangles[0].mat : null;
+		boolean plain = true;
+		for (int i = 0; i < size; i++) {
+			Triangle tri = triangles[i];
+			if ((tri.getClass() != Triangle.class) || (tri.mat != first)) {
+				plain = false;
+			}
+			int v = 9 * i;
+			vertices[v]     = tri.a.x;            vertices[v + 1] = tri.a.y;            vertices[v + 2] = tri.a.z;
+			vertices[v + 3] = tri.b.x - tri.a.x;  vertices[v + 4] = tri.b.y - tri.a.y;  vertices[v + 5] = tri.b.z - tri.a.z;
+			vertices[v + 6] = tri.c.x - tri.a.x;  vertices[v + 7] = tri.c.y - tri.a.y;  vertices[v + 8] = tri.c.z - tri.a.z;
+
+			normals[v]     = (float) tri.an.x; normals[v + 1] = (float) tri.an.y; normals[v + 2] = (float) tri.an.z;
+			normals[v + 3] = (float) tri.bn.x; normals[v + 4] = (float) tri.bn.y; normals[v + 5] = (float) tri.bn.z;
+			normals[v + 6] = (float) tri.cn.x; normals[v + 7] = (float) tri.cn.y; normals[v + 8] = (float) tri.cn.z;
+
+			if (tri.at != null) {
+				int u = 6 * i;
+				uvs[u]     = (float) tri.at.u; uvs[u + 1] = (float) tri.at.v;
+				uvs[u + 2] = (float) tri.bt.u; uvs[u + 3] = (float) tri.bt.v;
+				uvs[u + 4] = (float) tri.ct.u; uvs[u + 5] = (float) tri.ct.v;
+			}
+		}
+		this.mat = first;
+		this.shading = plain ? null : triangles;
+	}
+
+	/**
+	 * Wrap already packed triangle data, for instance read back from a cache.
+	 * @param vertices first vertex and two edges per triangle.
+	 * @param normals three vertex normals per triangle.
+	 * @param uvs three texture coordinates per triangle.
+	 * @param mat the material of all triangles.
+	 * @param transformation the transformation of the mesh.
+	 */
+	public PackedMesh(double[] vertices, float[] normals, float[] uvs,
+			Material mat, Transformation transformation) {
+		this.size = vertices.length / 9;
+		this.transformation = transformation;
+		this.vertices = vertices;
+		this.normals = normals;
+		this.uvs = uvs;
+		this.mat = mat;
+		this.shading = null;
+	}
+
+	/**
+	 * Copy a mesh with its triangles in another order.
+	 * @param mesh the mesh to copy.
+	 * @param order the old index of every new triangle.
+	 */
+	private PackedMesh(PackedMesh mesh, int[] order) {
+		this.size = order.length;
+		this.transformation = mesh.transformation;
+		this.mat = mesh.mat;
+		this.vertices = new double[9 * size];
+		this.normals = new float[9 * size];
+		this.uvs = new float[6 * size];
+		this.shading = (mesh.shading != null) ? new Triangle[size] : null;
+		this.rest = (mesh.rest != null) ? new double[9 * size] : null;
+		for (int i = 0; i < size; i++) {
+			int old = order[i];
+			System.arraycopy(mesh.vertices, 9 * old, this.vertices, 9 * i, 9);
+			System.arraycopy(mesh.normals, 9 * old, this.normals, 9 * i, 9);
+			System.arraycopy(mesh.uvs, 6 * old, this.uvs, 6 * i, 6);
+			if (this.shading != null) {
+				this.shading[i] = mesh.shading[old];
+			}
+			if (this.rest != null) {
+				System.arraycopy(mesh.rest, 9 * old, this.rest, 9 * i, 9);
+			}
+		}
+	}
+
+	/**
+	 * @param order the old index of every triangle of the new mesh.
+	 * @return a copy of the mesh with its triangles in the given order.
+	 */
+	public PackedMesh reorder(int[] order) {
+		return new PackedMesh(this, order);
+	}
+
+	/**
+	 * Move all vertices of the mesh. The deformation is applied to the
+	 * vertices the mesh had before it was deformed the first time, so
+	 * frames of an animation do not accumulate. Vertex normals and the
+	 * triangles kept for shading are not changed.
+	 * @param deformation moves a vertex in mesh space.
+	 */
+	public void deform(Deformation deformation) {
+		if (this.rest == null) {
+			this.rest = this.vertices.clone();
+		}
+		for (int i = 0; i < size; i++) {
+			int v = 9 * i;
+			Point a = new Point(rest[v], rest[v + 1], rest[v + 2]);
+			Point b = new Point(rest[v] + rest[v + 3], rest[v + 1] + rest[v + 4], rest[v + 2] + rest[v + 5]);
+			Point c = new Point(rest[v] + rest[v + 6], rest[v + 1] + rest[v + 7], rest[v + 2] + rest[v + 8]);
+			a = deformation.deform(a);
+			b = deformation.deform(b);
+			c = deformation.deform(c);
+			vertices[v]     = a.x;       vertices[v + 1] = a.y;       vertices[v + 2] = a.z;
+			vertices[v + 3] = b.x - a.x; vertices[v + 4] = b.y - a.y; vertices[v + 5] = b.z - a.z;
+			vertices[v + 6] = c.x - a.x; vertices[v + 7] = c.y - a.y; vertices[v + 8] = c.z - a.z;
+		}
+	}
+
+	/**
+	 * Write the bounds of a triangle.
+	 * @param i the triangle index.
+	 * @param box receives xMin, yMin, zMin, xMax, yMax, zMax at box[b].
+	 */
+	public void bounds(int i, double[] box, int b) {
+		int v = 9 * i;
+		for (int k = 0; k < 3; k++) {
+			double a = vertices[v + k];
+			double e1 = vertices[v + 3 + k];
+			double e2 = vertices[v + 6 + k];
+			box[b + k] = a + Math.min(0.0, Math.min(e1, e2));
+			box[b + 3 + k] = a + Math.max(0.0, Math.max(e1, e2));
+		}
+	}
+
+	/**
+	 * @return true if the original triangle objects are still referenced.
+	 */
+	public boolean keepsTriangles() {
+		return this.shading != null;
+	}
+
+	/**
+	 * @return the vertex array, first vertex and two edges per triangle.
+	 */
+	public double[] getVertices() {
+		return this.vertices;
+	}
+
+	/**
+	 * @return the vertex normals, three per triangle.
+	 */
+	public float[] getNormals() {
+		return this.normals;
+	}
+
+	/**
+	 * @return the texture coordinates, three per triangle.
+	 */
+	public float[] getUvs() {
+		return this.uvs;
+	}
+
+	/**
+	 * Moeller-Trumbore ray triangle test in mesh space.
+	 * @param i the triangle index.
+	 * @param ro ray origin in mesh space.
+	 * @param rd ray direction in mesh space.
+	 * @param tMin hits before this ray parameter are ignored.
+	 * @param tMax hits at or beyond this ray parameter are ignored.
+	 * @param bary receives the barycentric coordinates of the second and
+	 * 			third vertex of a hit, may be null.
+	 * @return the ray parameter of the hit or positive infinity for a miss.
+	 */
+	public double intersect(int i, Point ro, Vector rd, double tMin, double tMax, double[] bary) {
+		int v = 9 * i;
+		double e1x = vertices[v + 3]; double e1y = vertices[v + 4]; double e1z = vertices[v + 5];
+		double e2x = vertices[v + 6]; double e2y = vertices[v + 7]; double e2z = vertices[v + 8];
+
+		//p = d x e2
+		double px = rd.y * e2z - rd.z * e2y;
+		double py = rd.z * e2x - rd.x * e2z;
+		double pz = rd.x * e2y - rd.y * e2x;
+		double det = e1x * px + e1y * py + e1z * pz;
+		if (det == 0.0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		double invDet = 1.0 / det;
+
+		double sx = ro.x - vertices[v]; double sy = ro.y - vertices[v + 1]; double sz = ro.z - vertices[v + 2];
+		double beta = (sx * px + sy * py + sz * pz) * invDet;
+		if ((beta < 0.0) || (beta > 1.0)) {
+			return Double.POSITIVE_INFINITY;
+		}
+
+		//q = s x e1
+		double qx = sy * e1z - sz * e1y;
+		double qy = sz * e1x - sx * e1z;
+		double qz = sx * e1y - sy * e1x;
+		double gamma = (rd.x * qx + rd.y * qy + rd.z * qz) * invDet;
+		if ((gamma < 0.0) || (beta + gamma > 1.0)) {
+			return Double.POSITIVE_INFINITY;
+		}
+
+		double t = (e2x * qx + e2y * qy + e2z * qz) * invDet;
+		if ((t < tMin) || (t >= tMax)) {
+			return Double.POSITIVE_INFINITY;
+		}
+		if (bary != null) {
+			bary[0] = beta;
+			bary[1] = gamma;
+		}
+		return t;
+	}
+
+	/**
+	 * Create the intersection object for a hit found with intersect.
+	 * @param i the triangle index.
+	 * @param ro ray origin in mesh space.
+	 * @param rd ray direction in mesh space.
+	 * @param t ray parameter of the hit.
+	 * @param beta barycentric coordinate of the second vertex.
+	 * @param gamma barycentric coordinate of the third vertex.
+	 * @return the hit in world coordinates.
+	 */
+	public Intersection createHit(int i, Point ro, Vector rd, double t, double beta, double gamma) {
+		if (this.shading != null) {
+			return this.shading[i].createHit(ro, rd, t, beta, gamma);
+		}
+		double alpha = 1.0 - beta - gamma;
+		int v = 9 * i;
+		Vector hitNormVec = new Vector(
+				alpha * normals[v]     + beta * normals[v + 3] + gamma * normals[v + 6],
+				alpha * normals[v + 1] + beta * normals[v + 4] + gamma * normals[v + 7],
+				alpha * normals[v + 2] + beta * normals[v + 5] + gamma * normals[v + 8]);
+		int u = 6 * i;
+		TextPoint hitTxt = new TextPoint(
+				alpha * uvs[u]     + beta * uvs[u + 2] + gamma * uvs[u + 4],
+				alpha * uvs[u + 1] + beta * uvs[u + 3] + gamma * uvs[u + 5]);
+
+		Point hitPoint = ro.add(rd.scale(t));
+		Normal hitNormal;
+		if (this.transformation == Transformation.IDENTITY) {
+			hitNormal = hitNormVec.toNormal();
+		} else {
+			hitPoint = this.transformation.transform(hitPoint);
+			hitNormal = this.transformation.transformInverseTranspose(hitNormVec.toNormal());
+		}
+		return new Intersection(hitPoint, hitTxt, hitNormal, this.mat, t);
+	}
+}
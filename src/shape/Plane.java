@@ -40,37 +40,86 @@ public class Plane implements Shape {
 	@Override
 	public List<Intersection> intersect(Ray ray) {
 		List<Intersection> hits = new ArrayList<Intersection>();
-		Vector ro; 
-        Vector rd;
+		Intersection hit = this.hit(ray, Double.POSITIVE_INFINITY);
+		if (hit != null) {
+			hits.add(hit);
+		}
+		return hits;
+	}
+	
+	@Override
+	public Intersection intersectClosest(Ray ray) {
+		Intersection hit = this.hit(ray, ray.getTMax());
+		if (hit != null) {
+			ray.setTMax(hit.t);
+		}
+		return hit;
+	}
+	
+	@Override
+	public boolean occluded(Ray ray, double maxDistance) {
+        ray.countIntersection();
+        Ray rayInv = this.transformation.transformInverse(ray);
+        return this.intersectT(rayInv, maxDistance) != Double.POSITIVE_INFINITY;
+	}
+	
+	/**
+	 * Intersect the plane with a ray.
+	 * @param ray the ray in world coordinates.
+	 * @param tMax hits beyond this ray parameter are ignored.
+	 * @return the intersection or null if the ray misses.
+	 */
+	protected Intersection hit(Ray ray, double tMax) {
+        ray.countIntersection();
         
-        if (Constants.compVisualization){
-        	ray.countIntersection();
+        Ray rayInv = this.transformation.transformInverse(ray);
+        double t = this.intersectT(rayInv, tMax);
+        if (t == Double.POSITIVE_INFINITY) {
+        	return null;
         }
         
-        Ray rayInv = this.transformation.transformInverse(ray);
-        ro = rayInv.origin.toVector();
-        rd = rayInv.direction;
+        Vector pointVec = rayInv.origin.toVector().add(rayInv.direction.scale(t));
+        Point hitPoint = this.transformation.transform( pointVec.toPoint() );
+        Normal hitNormal = this.transformation.transformInverseTranspose( this.n);
+        TextPoint txtPoint = new TextPoint(pointVec.x,pointVec.y); //the z coordinate of the unit plane is always zero.
+        Material hitMat = mat;
+        return new Intersection( hitPoint, txtPoint, hitNormal, hitMat, t);
+	}
+	
+	/**
+	 * Intersect the untransformed plane with a ray.
+	 * @param rayInv the ray in plane space.
+	 * @param tMax hits beyond this ray parameter are ignored.
+	 * @return the ray parameter of the hit or positive infinity.
+	 */
+	protected double intersectT(Ray rayInv, double tMax) {
+		Vector ro = rayInv.origin.toVector();
+		Vector rd = rayInv.direction;
 
         double t;
         double denomDot = n.toVector().dot(rd); 
         
         if (Math.abs(denomDot) < Constants.epsilon){
-            return hits;
+            return Double.POSITIVE_INFINITY;
         } else {
             t = (n.toVector().dot(a.toVector())) - (n.toVector().dot(ro)) / denomDot;
-            if (t <= Constants.epsilon) {
-                return hits;
+            if ((t <= rayInv.getTMin()) || (t >= tMax)) {
+                return Double.POSITIVE_INFINITY;
+            } else if (this.contains(ro.add(rd.scale(t))) == false) {
+            	return Double.POSITIVE_INFINITY;
             } else {
-                Vector pointVec = ro.add(rd.scale(t));
-                
-                Point hitPoint = this.transformation.transform( pointVec.toPoint() );
-                Normal hitNormal = this.transformation.transformInverseTranspose( this.n);
-                TextPoint txtPoint = new TextPoint(pointVec.x,pointVec.y); //the z coordinate of the unit plane is always zero.
-                Material hitMat = mat;
-                hits.add(new Intersection( hitPoint, txtPoint, hitNormal, hitMat));
-                return hits;
+            	return t;
             }
         }
 	}
+	
+	/**
+	 * Learn if a point on the untransformed plane belongs to the surface.
+	 * @param pointVec point in the x-y-plane.
+	 * @return always true for the infinite plane.
+	 */
+	protected boolean contains(Vector pointVec) {
+		return true;
+	}
 
 }
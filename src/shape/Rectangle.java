@@ -7,10 +7,8 @@ import java.util.Random;
 import light.LightIntersection;
 import material.Material;
 import math.Constants;
-import math.Intersection;
 import math.Normal;
 import math.Point;
-import math.Ray;
 import math.TextPoint;
 import math.Transformation;
 import math.Vector;
@@ -33,48 +31,12 @@ public class Rectangle extends Plane implements LightableShape {
 	}
 	
     /**
-     * The ray object intersection function for a rectangles with transformations. 
+     * Only points within [-1,1] along x and y are part of the rectangle. 
      */    
 	@Override
-	public List<Intersection> intersect(Ray ray) {
-		List<Intersection> hits = new ArrayList<Intersection>();
-		Vector ro; 
-        Vector rd;
-        
-        if (Constants.compVisualization){
-        	ray.countIntersection();
-        }
-        
-        Ray rayInv = this.transformation.transformInverse(ray);
-        ro = rayInv.origin.toVector();
-        rd = rayInv.direction;
-
-        double t;
-        double denomDot = n.toVector().dot(rd); 
-        
-        if (Math.abs(denomDot) < Constants.epsilon){
-            return hits;
-        } else {
-            t = (n.toVector().dot(a.toVector())) - (n.toVector().dot(ro)) / denomDot;
-            if (t <= Constants.epsilon) {
-                return hits;
-            } else {
-                Vector pointVec = ro.add(rd.scale(t));
-                
-                if (((Math.abs(pointVec.x) < 1.0) && 
-                	 (Math.abs(pointVec.y) < 1.0))) {
-                	Point hitPoint = this.transformation.transform( pointVec.toPoint() );
-                    Normal hitNormal = this.transformation.transformInverseTranspose( this.n);
-                    TextPoint txtPoint = new TextPoint(pointVec.x,pointVec.y); //the z coordinate of the unit plane is always zero.
-                    Material hitMat = mat;
-                    
-                    hits.add(new Intersection( hitPoint, txtPoint, hitNormal, hitMat));
-                    return hits;
-                } else {
-                	return hits;
-                }
-            }
-        }
+	protected boolean contains(Vector pointVec) {
+		return ((Math.abs(pointVec.x) < 1.0) && 
+           	    (Math.abs(pointVec.y) < 1.0));
 	}
 
 	@Override
@@ -197,4 +159,9 @@ public class Rectangle extends Plane implements LightableShape {
 		}
 		return subShapes;
 	}
+	
+	@Override
+	public Point[] getWorldBounds() {
+		return this.transformation.transformBox(new Point(-1, -1, 0), new Point(1, 1, 0));
+	}
 }
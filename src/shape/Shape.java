@@ -21,4 +21,29 @@ public interface Shape {
 	 * @return true when the given {@link Ray} intersects this {@link Shape}.
 	 */
 	public List<Intersection> intersect(Ray ray);
+
+	/**
+	 * Returns the intersection closest to the origin of the given {@link Ray}
+	 * with a ray parameter between epsilon and the ray's t-max. When a hit is
+	 * found the t-max of the given ray is lowered to the hit's parameter.
+	 * 
+	 * @param ray
+	 *            the {@link Ray} to intersect with.
+	 * @return the closest intersection or null when there is none.
+	 */
+	public Intersection intersectClosest(Ray ray);
+
+	/**
+	 * Returns whether anything of this {@link Shape} blocks the given
+	 * {@link Ray} between epsilon and the given ray parameter. Stops at the
+	 * first blocker found. For a shadow ray pointing from a surface point to
+	 * the light, without normalization, the light lies at one.
+	 * 
+	 * @param ray
+	 *            the {@link Ray} to test.
+	 * @param maxDistance
+	 *            blockers at or beyond this ray parameter are ignored.
+	 * @return true when the ray is blocked.
+	 */
+	public boolean occluded(Ray ray, double maxDistance);
 }
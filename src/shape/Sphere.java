@@ -54,13 +54,60 @@ public class Sphere implements LightableShape {
 	@Override
 	public List<Intersection> intersect(Ray ray) {
 		List<Intersection> hits = new ArrayList<Intersection>();
-		
-        if (Constants.compVisualization){
-        	ray.countIntersection();
-        }
+		Intersection hit = this.hit(ray, Double.POSITIVE_INFINITY);
+		if (hit != null) {
+			hits.add(hit);
+		}
+		return hits;
+	}
+	
+	@Override
+	public Intersection intersectClosest(Ray ray) {
+		Intersection hit = this.hit(ray, ray.getTMax());
+		if (hit != null) {
+			ray.setTMax(hit.t);
+		}
+		return hit;
+	}
+	
+	@Override
+	public boolean occluded(Ray ray, double maxDistance) {
+        ray.countIntersection();
+		Ray transformed = transformation.transformInverse(ray);
+		return this.intersectT(transformed, maxDistance) != Double.POSITIVE_INFINITY;
+	}
+	
+	/**
+	 * Intersect the sphere with a ray.
+	 * @param ray the ray in world coordinates.
+	 * @param tMax hits beyond this ray parameter are ignored.
+	 * @return the closest hit in front of the ray origin or null.
+	 */
+	private Intersection hit(Ray ray, double tMax) {
+        ray.countIntersection();
         
         Ray transformed = transformation.transformInverse(ray);
+        double t = this.intersectT(transformed, tMax);
+        if (t == Double.POSITIVE_INFINITY) {
+        	return null;
+        }
 		
+		//found an intersection compute the hit point.
+		Vector o = transformed.origin.toVector();
+		Vector hitPoint = o.add(transformed.direction.scale(t));
+		Point hitPntT = this.transformation.transform(hitPoint.toPoint());
+		Normal hitNmlT = this.transformation.transformInverseTranspose(hitPoint.toNormal());
+		return new Intersection(hitPntT,getUV(hitPoint.toPoint()),hitNmlT,this.material, t);
+	}
+	
+	/**
+	 * Intersect the unit sphere with a ray in sphere space.
+	 * @param transformed the ray in sphere space.
+	 * @param tMax hits beyond this ray parameter are ignored.
+	 * @return the ray parameter of the closest hit in front of the
+	 * 			origin or positive infinity.
+	 */
+	private double intersectT(Ray transformed, double tMax) {
 		Vector o = transformed.origin.toVector();
 
 		double a = transformed.direction.dot(transformed.direction);
@@ -70,7 +117,7 @@ public class Sphere implements LightableShape {
 		double d = b * b - 4.0 * a * c;
 
 		if (d < 0)
-			return hits;
+			return Double.POSITIVE_INFINITY;
 		double dr = Math.sqrt(d);
 
 		// numerically solve the equation a*t^2 + b * t + c = 0
@@ -81,36 +128,24 @@ public class Sphere implements LightableShape {
 			q = -0.5 * (b + dr);
 		}
 		
-		double t0 = q / a;
-		double t1 = c / q;
+		double t0 = Math.min(q / a, c / q);
+		double t1 = Math.max(q / a, c / q);
 
-		//hit points with t<0 are behind the camera.
-		boolean hasInt = t0 >= Constants.epsilon || t1 >= Constants.epsilon;
-		
-		
-		if (hasInt == true) {
-			//found an intersection compute the hit point.
-			Vector hitPoint;
-			Point hitPntT;
-			Normal hitNmlT;
-			//the hit point with the smaller t is closer to the camera.
-			if (t0 < t1) {
-				hitPoint = o.add(transformed.direction.scale(t0));
-				hitPntT = this.transformation.transform(hitPoint.toPoint());
-				hitNmlT = this.transformation.transformInverseTranspose(hitPoint.toNormal());
-				hits.add(new Intersection(hitPntT,getUV(hitPoint.toPoint()),hitNmlT,this.material));
-				return hits;
-			} else {
-				hitPoint = o.add(transformed.direction.scale(t1));
-				hitPntT = this.transformation.transform(hitPoint.toPoint());
-				hitNmlT = this.transformation.transformInverseTranspose(hitPoint.toNormal());
-				hits.add(new Intersection(hitPntT,getUV(hitPoint.toPoint()),hitNmlT,this.material));
-				return hits;
-			}
+		//hit points with t<0 are behind the camera, use the far root from inside.
+		double t;
+		double tMin = transformed.getTMin();
+		if (t0 >= tMin) {
+			t = t0;
+		} else if (t1 >= tMin) {
+			t = t1;
 		} else {
 			// No intersection worth reporting
-			return hits;
+			return Double.POSITIVE_INFINITY;
+		}
+		if (t >= tMax) {
+			return Double.POSITIVE_INFINITY;
 		}
+		return t;
 	}
 	
 	@Override
@@ -237,4 +272,9 @@ public class Sphere implements LightableShape {
 	}
 	
 	
+	
+	@Override
+	public Point[] getWorldBounds() {
+		return this.transformation.transformBox(new Point(-1, -1, -1), new Point(1, 1, 1));
+	}
 }
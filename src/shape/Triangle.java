@@ -4,7 +4,6 @@ import java.util.ArrayList;
 import java.util.List;
 
 import material.Material;
-import math.Constants;
 import math.Intersection;
 import math.Normal;
 import math.Point;
@@ -19,7 +18,7 @@ import math.Vector;
  *
  */
 
-public class Triangle implements Shape {
+public class Triangle implements Bounded {
 
 	public final Point a;
 	public final Point b;
@@ -155,18 +154,58 @@ public class Triangle implements Shape {
 	@Override
 	public List<Intersection> intersect(Ray ray) {
 		List<Intersection> hits = new ArrayList<Intersection>();
-		
-		if (Constants.compVisualization){
-			ray.countIntersection();
+		Intersection hit = this.hit(ray, Double.POSITIVE_INFINITY);
+		if (hit != null) {
+			hits.add(hit);
 		}
-		
-		Point  ro; 
-        Vector rd;
-        
+		return hits;
+	}
+	
+	@Override
+	public Intersection intersectClosest(Ray ray) {
+		Intersection hit = this.hit(ray, ray.getTMax());
+		if (hit != null) {
+			ray.setTMax(hit.t);
+		}
+		return hit;
+	}
+	
+	@Override
+	public boolean occluded(Ray ray, double maxDistance) {
+		ray.countIntersection();
 		Ray rayInv = this.transformation.transformInverse(ray);
-	    ro = rayInv.origin;
-	    rd = rayInv.direction;
+		return this.intersectT(rayInv.origin, rayInv.direction, rayInv.getTMin(), maxDistance, null) 
+				!= Double.POSITIVE_INFINITY;
+	}
+	
+	/**
+	 * Intersect the triangle with a ray.
+	 * @param ray the ray in world coordinates.
+	 * @param tMax hits beyond this ray parameter are ignored.
+	 * @return the intersection or null if the ray misses.
+	 */
+	protected Intersection hit(Ray ray, double tMax) {
+		ray.countIntersection();
 		
+		Ray rayInv = this.transformation.transformInverse(ray);
+		double[] bary = new double[2];
+		double t = this.intersectT(rayInv.origin, rayInv.direction, rayInv.getTMin(), tMax, bary);
+		if (t == Double.POSITIVE_INFINITY) {
+			return null;
+		}
+        return this.createHit(rayInv.origin, rayInv.direction, t, bary[0], bary[1]);
+	}
+	
+	/**
+	 * Ray triangle intersection in triangle space using Cramer's rule.
+	 * @param ro ray origin in triangle space.
+	 * @param rd ray direction in triangle space.
+	 * @param tMin hits before this ray parameter are ignored.
+	 * @param tMax hits beyond this ray parameter are ignored.
+	 * @param bary receives beta and gamma of a hit, may be null.
+	 * @return the ray parameter of the hit or positive infinity for a miss.
+	 */
+	public double intersectT(Point ro, Vector rd, double tMin, double tMax, double[] bary) {
 		Point pa = this.a; Point pb = this.b; Point pc = this.c;
         double a,b,c,d,e,f,g,h,i,j,k,l,m,n,p,s,q,r,invDenom,e1,e2,e3,beta,gamma,t;
          
@@ -183,7 +222,7 @@ public class Triangle implements Shape {
         beta = e1 * invDenom;
         
         if (beta < 0.0) {
-            return hits;
+            return Double.POSITIVE_INFINITY;
         }
             		
         r = e*l - h*i;
@@ -191,20 +230,37 @@ public class Triangle implements Shape {
         gamma = e2*invDenom;
         
         if (gamma < 0.0) {
-        	return hits;
+        	return Double.POSITIVE_INFINITY;
         }
         
         if (beta + gamma > 1.0) {
-        	return hits;
+        	return Double.POSITIVE_INFINITY;
         }
         
         e3 = a*p - b*r + d*s;
         t = e3 * invDenom;
         
-        if (t < Constants.epsilon) {
-        	return hits;
+        if ((t < tMin) || (t >= tMax)) {
+        	return Double.POSITIVE_INFINITY;
         }
         
+        if (bary != null) {
+        	bary[0] = beta;
+        	bary[1] = gamma;
+        }
+        return t;
+	}
+	
+	/**
+	 * Create the intersection object for a hit found in triangle space.
+	 * @param ro ray origin in triangle space.
+	 * @param rd ray direction in triangle space.
+	 * @param t ray parameter of the hit.
+	 * @param beta barycentric coordinate of b.
+	 * @param gamma barycentric coordinate of c.
+	 * @return the hit in world coordinates.
+	 */
+	public Intersection createHit(Point ro, Vector rd, double t, double beta, double gamma) {
         Point hitPoint;
         Vector hitNormVec;
         Normal hitNormal;
@@ -215,14 +271,30 @@ public class Triangle implements Shape {
         Vector cn = this.cn.toVector();
         
         hitPoint = ro.add(rd.scale(t)); 
-        hitPoint = this.transformation.transform( hitPoint );
-        
         hitNormVec = an.scale(1.0 - beta - gamma).add(bn.scale(beta)).add(cn.scale(gamma));
-        hitNormal = this.transformation.transformInverseTranspose( hitNormVec.toNormal());
+        if (this.transformation == Transformation.IDENTITY) {
+        	//baked mesh, the vertices are already in world coordinates.
+        	hitNormal = hitNormVec.toNormal();
+        } else {
+        	hitPoint = this.transformation.transform( hitPoint );
+        	hitNormal = this.transformation.transformInverseTranspose( hitNormVec.toNormal());
+        }
         
         hitTxt = at.scale(1 - beta - gamma).add(bt.scale(beta)).add(ct.scale(gamma));
-        hits.add(new Intersection(hitPoint, hitTxt, hitNormal, this.mat));
-        return hits;
+        return new Intersection(hitPoint, hitTxt, hitNormal, this.mat, t);
+	}
+	
+	@Override
+	public Point[] getWorldBounds() {
+		Point ta = this.transformation.transform(this.a);
+		Point tb = this.transformation.transform(this.b);
+		Point tc = this.transformation.transform(this.c);
+		return new Point[] {
+				new Point(Math.min(ta.x, Math.min(tb.x, tc.x)),
+						  Math.min(ta.y, Math.min(tb.y, tc.y)),
+						  Math.min(ta.z, Math.min(tb.z, tc.z))),
+				new Point(Math.max(ta.x, Math.max(tb.x, tc.x)),
+						  Math.max(ta.y, Math.max(tb.y, tc.y)),
+						  Math.max(ta.z, Math.max(tb.z, tc.z)))};
 	}
-
 }
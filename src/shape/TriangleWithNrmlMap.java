@@ -1,16 +1,11 @@
 package shape;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import material.Material;
 import material.ObjTextureFile;
 import math.Color;
-import math.Constants;
 import math.Intersection;
 import math.Normal;
 import math.Point;
-import math.Ray;
 import math.TextPoint;
 import math.Transformation;
 import math.Vector;
@@ -37,59 +32,12 @@ public class TriangleWithNrmlMap extends Triangle {
 		this.nMapFile = nMapFile;
 	}
 
+	/**
+	 * Create the intersection object, the normal is looked up in the
+	 * normal map instead of being interpolated.
+	 */
 	@Override
-	public List<Intersection> intersect(Ray ray) {
-		List<Intersection> hits = new ArrayList<Intersection>();
-		
-		if (Constants.compVisualization){
-			ray.countIntersection();
-		}
-		
-		Point  ro; 
-        Vector rd;
-        
-		Ray rayInv = this.transformation.transformInverse(ray);
-	    ro = rayInv.origin;
-	    rd = rayInv.direction;
-		
-		Point pa = this.a; Point pb = this.b; Point pc = this.c;
-        double a,b,c,d,e,f,g,h,i,j,k,l,m,n,p,s,q,r,invDenom,e1,e2,e3,beta,gamma,t;
-         
-        a = pa.x - pb.x; b = pa.x - pc.x; c = rd.x; d = pa.x - ro.x;
-        e = pa.y - pb.y; f = pa.y - pc.y; g = rd.y; h = pa.y - ro.y;
-        i = pa.z - pb.z; j = pa.z - pc.z; k = rd.z; l = pa.z - ro.z;
-        
-        m = f*k - g*j; n = h*k - g*l; p = f*l - h*j;
-        q = g*i - e*k; s = e*j - f*i;
-        
-        invDenom = 1.0 / (a*m + b*q + c*s);
-        
-        e1 = d*m - b*n - c*p;
-        beta = e1 * invDenom;
-        
-        if (beta < 0.0) {
-            return hits;
-        }
-            		
-        r = e*l - h*i;
-        e2 = a*n + d*q + c*r;
-        gamma = e2*invDenom;
-        
-        if (gamma < 0.0) {
-        	return hits;
-        }
-        
-        if (beta + gamma > 1.0) {
-        	return hits;
-        }
-        
-        e3 = a*p - b*r + d*s;
-        t = e3 * invDenom;
-        
-        if (t < Constants.epsilon) {
-        	return hits;
-        }
-        
+	public Intersection createHit(Point ro, Vector rd, double t, double beta, double gamma) {
         Point hitPoint;
         Normal hitNormal;
         TextPoint hitTxt;
@@ -103,10 +51,7 @@ public class TriangleWithNrmlMap extends Triangle {
         hitNormal = new Normal(-1.0 + 2*(nrmlClr.r/255), -1.0 + 2*(nrmlClr.g/255), -1.0 + 2*(nrmlClr.b/255));
         hitNormal = this.transformation.transformInverseTranspose( hitNormal);
         
-        hits.add(new Intersection(hitPoint, hitTxt, hitNormal, this.mat));
-        return hits;
+        return new Intersection(hitPoint, hitTxt, hitNormal, this.mat, t);
 	}
 	
-	
-	
 }